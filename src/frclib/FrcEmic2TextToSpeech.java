@@ -171,7 +171,7 @@ public class FrcEmic2TextToSpeech extends TrcEmic2TextToSpeech
      * This method writes the string to the device asynchronously.
      *
      * @param text specifies the text string to be written to the device.
-     * @param preemptive specifies true for immediate write without queuing, false otherwise.
+     * @param preemptive specifies true to write ahead of all queued requests, false otherwise.
      */
     @Override
     public void asyncWriteString(String text, boolean preemptive)
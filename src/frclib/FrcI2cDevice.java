@@ -135,9 +135,9 @@ public class FrcI2cDevice extends TrcSerialBusDevice
         {
             byteBuffer.put((byte)address);
         }
-        byteBuffer.put(buffer);
+        byteBuffer.put(buffer, 0, length);
 
-        if (device.writeBulk(byteBuffer, length))
+        if (device.writeBulk(byteBuffer, buffLen))
         {
             length = 0;
         }
@@ -47,6 +47,11 @@ public class FrcI2cLEDPanel extends TrcI2cLEDPanel
     {
         super(instanceName);
         device = new FrcI2cDevice(instanceName, port, devAddress);
+        //
+        // Commands are a '~' terminated byte stream reassembled by the device, so queued command chunks can be
+        // merged into fewer I2C writes as long as they fit in the device buffer.
+        //
+        device.setCoalescingEnabled(true, I2C_BUFF_LEN);
     }   //FrcI2cLEDPanel
 
     /**
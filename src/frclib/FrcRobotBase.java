@@ -22,7 +22,8 @@
 
 package frclib;
 
-import java.io.InputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
 
 import edu.wpi.first.wpilibj.Timer;
@@ -34,8 +35,13 @@ import edu.wpi.first.wpilibj.livewindow.LiveWindow;
 import hallib.HalDashboard;
 import hallib.HalDbgLog;
 import trclib.TrcDbgTrace;
+import trclib.TrcFlightRecorder;
+import trclib.TrcHistogram;
+import trclib.TrcLogArchiver;
+import trclib.TrcLoopStats;
 import trclib.TrcRobot.*;
 import trclib.TrcTaskMgr;
+import trclib.TrcTimerMgr;
 import trclib.TrcUtil;
 
 /**
@@ -54,6 +60,14 @@ public abstract class FrcRobotBase extends RobotBase
     private TrcDbgTrace dbgTrace = null;
 
     private static final boolean dashboardEnabled = true;
+    private static final String modeTransitionName = "RobotMode.transition";
+    private static final String modePeriodicName = "RobotMode.runPeriodic";
+    private static final String modeContinuousName = "RobotMode.runContinuous";
+    private static final double DEFAULT_CONTINUOUS_LOOP_RATE = 200.0;   // in Hz
+    private static final long LOOP_SPIN_NANOS = 100000;                 // 100 usec
+    private static final double LOOP_STATS_PUBLISH_INTERVAL = 1.0;      // in seconds
+    private static final String loopStatsKeyPrefix = "LoopStats/";
+    private static final String HOSTNAME_FILE = "/etc/hostname";
 
     /**
      * This method is called to initialize the robot.
@@ -71,6 +85,7 @@ public abstract class FrcRobotBase extends RobotBase
     public abstract void robotStopMode();
 
     private TrcTaskMgr taskMgr = new TrcTaskMgr();
+    private TrcTimerMgr timerMgr = new TrcTimerMgr();
     private HalDashboard dashboard = new HalDashboard();
 
     private static FrcRobotBase instance;
@@ -82,6 +97,10 @@ public abstract class FrcRobotBase extends RobotBase
     private static double modeStartTime = 0.0;
     private static double modeElapsedTime = 0.0;
     private static long loopCounter = 0;
+    private long continuousLoopIntervalNanos = (long)(1000000000.0/DEFAULT_CONTINUOUS_LOOP_RATE);
+    private final TrcLoopStats loopStats = new TrcLoopStats("RobotLoop");
+    private boolean loopStatsPublishingEnabled = true;
+    private double nextLoopStatsPublishTime = 0.0;
 
     /**
      * Constructor: Create an instance of the object.
@@ -136,6 +155,51 @@ public abstract class FrcRobotBase extends RobotBase
         return loopCounter;
     }   //getLoopCounter
 
+    /**
+     * This method returns the timing statistics of the robot loop. The statistics are reset when a robot mode starts
+     * and are written to the trace log when the mode stops.
+     *
+     * @return robot loop statistics.
+     */
+    public TrcLoopStats getLoopStats()
+    {
+        return loopStats;
+    }   //getLoopStats
+
+    /**
+     * This method enables/disables publishing the robot loop statistics to the dashboard. When enabled, the
+     * statistics are published about once a second.
+     *
+     * @param enabled specifies true to enable publishing, false to disable.
+     */
+    public void setLoopStatsPublishingEnabled(boolean enabled)
+    {
+        loopStatsPublishingEnabled = enabled;
+    }   //setLoopStatsPublishingEnabled
+
+    /**
+     * This method sets the rate of the continuous loop. The continuous loop is paced by absolute deadlines so the
+     * main thread sleeps the remainder of each pass instead of spinning. The periodic half of the loop is still
+     * triggered by new Driver Station data and is checked on every pass. The loop interval is also used as the time
+     * budget of each pass, beyond which low priority tasks are deferred. This should be called in robotInit.
+     *
+     * @param rate specifies the continuous loop rate in Hz, 0 to run as fast as possible with no pacing.
+     */
+    public void setContinuousLoopRate(double rate)
+    {
+        continuousLoopIntervalNanos = rate > 0.0? (long)(1000000000.0/rate): 0;
+    }   //setContinuousLoopRate
+
+    /**
+     * This method returns the rate of the continuous loop.
+     *
+     * @return continuous loop rate in Hz, 0 if the loop is not paced.
+     */
+    public double getContinuousLoopRate()
+    {
+        return continuousLoopIntervalNanos > 0? 1000000000.0/continuousLoopIntervalNanos: 0.0;
+    }   //getContinuousLoopRate
+
     /**
      * This method is called by the subclass to set up various robot mode objects.
      *
@@ -190,14 +254,21 @@ public abstract class FrcRobotBase extends RobotBase
         // loop forever, calling the appropriate mode-dependent function
         //
         final double timesliceThreshold = 0.05;
+        taskMgr.setPassBudget(
+            continuousLoopIntervalNanos > 0? continuousLoopIntervalNanos/1000000000.0: timesliceThreshold);
         RunMode prevMode = RunMode.INVALID_MODE;
         RunMode currMode = RunMode.INVALID_MODE;
+        long nextPassDeadline = TrcUtil.getCurrentTimeNanos();
 
         while (true)
         {
             double timeSliceStart = Timer.getFPGATimestamp();
+            long callbackStartNanos;
 
             prevMode = currMode;
+            loopCounter++;
+            loopStats.startContinuousPass(TrcUtil.getCurrentTimeNanos(), continuousLoopIntervalNanos);
+            taskMgr.startPass();
 
             //
             // Determine the current run mode.
@@ -233,6 +304,11 @@ public abstract class FrcRobotBase extends RobotBase
                     dbgTrace.traceInfo(funcName, "Mode Transition: %s->%s.", prevMode.toString(), currMode.toString());
                 }
 
+                //
+                // Background log archiving must not compete with the robot loop while the robot is enabled.
+                //
+                TrcLogArchiver.setRobotEnabled(TrcTaskMgr.ENABLED_MODES.contains(currMode));
+
                 //
                 // Execute all stop tasks for previous mode.
                 //
@@ -241,9 +317,27 @@ public abstract class FrcRobotBase extends RobotBase
                     taskMgr.executeTaskType(TrcTaskMgr.TaskType.STOP_TASK, prevMode);
                 }
 
+                //
+                // Dump the flight recorder at the end of an enabled mode.
+                //
+                TrcFlightRecorder recorder = TrcFlightRecorder.getGlobalRecorder();
+                if (recorder != null && TrcTaskMgr.ENABLED_MODES.contains(prevMode))
+                {
+                    recorder.dump(prevMode.toString());
+                }
+
+                //
+                // Trace the loop statistics of the previous mode before its stopMode closes the trace log.
+                //
+                if (prevMode != RunMode.INVALID_MODE)
+                {
+                    loopStats.traceStats(TrcDbgTrace.getGlobalTracer(), prevMode.toString());
+                }
+
                 //
                 // Stop previous mode.
                 // 
+                callbackStartNanos = TrcUtil.getCurrentTimeNanos();
                 if (prevMode == RunMode.DISABLED_MODE && disabledMode != null)
                 {
                     disabledMode.stopMode();
@@ -265,6 +359,7 @@ public abstract class FrcRobotBase extends RobotBase
                 //
                 // Start current mode.
                 //
+                loopStats.reset();
                 modeStartTime = TrcUtil.getCurrentTime();
                 robotStartMode();
                 if (currMode == RunMode.DISABLED_MODE)
@@ -299,6 +394,8 @@ public abstract class FrcRobotBase extends RobotBase
                         teleOpMode.startMode();
                     }
                 }
+                taskMgr.recordPassTime(
+                    modeTransitionName, null, TrcUtil.getCurrentTimeNanos() - callbackStartNanos);
 
                 //
                 // Execute all start tasks for current mode.
@@ -315,7 +412,9 @@ public abstract class FrcRobotBase extends RobotBase
                 //
                 // Run periodic mode.
                 //
+                loopStats.startPeriodicPass(TrcUtil.getCurrentTimeNanos());
                 taskMgr.executeTaskType(TrcTaskMgr.TaskType.PREPERIODIC_TASK, currMode);
+                callbackStartNanos = TrcUtil.getCurrentTimeNanos();
                 if (currMode == RunMode.DISABLED_MODE)
                 {
                     HAL.observeUserProgramDisabled();
@@ -348,6 +447,7 @@ public abstract class FrcRobotBase extends RobotBase
                         teleOpMode.runPeriodic(modeElapsedTime);
                     }
                 }
+                taskMgr.recordPassTime(modePeriodicName, null, TrcUtil.getCurrentTimeNanos() - callbackStartNanos);
 
                 //
                 // Run post periodic tasks.
@@ -359,6 +459,7 @@ public abstract class FrcRobotBase extends RobotBase
             // Run continuous mode.
             //
             taskMgr.executeTaskType(TrcTaskMgr.TaskType.PRECONTINUOUS_TASK, currMode);
+            callbackStartNanos = TrcUtil.getCurrentTimeNanos();
             if (currMode == RunMode.DISABLED_MODE && disabledMode != null)
             {
                 disabledMode.runContinuous(modeElapsedTime);
@@ -375,12 +476,31 @@ public abstract class FrcRobotBase extends RobotBase
             {
                 teleOpMode.runContinuous(modeElapsedTime);
             }
+            taskMgr.recordPassTime(modeContinuousName, null, TrcUtil.getCurrentTimeNanos() - callbackStartNanos);
             taskMgr.executeTaskType(TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK, currMode);
 
-            if (dashboardEnabled)
+            //
+            // Sample the flight recorder channels once per pass.
+            //
+            TrcFlightRecorder recorder = TrcFlightRecorder.getGlobalRecorder();
+            if (recorder != null)
+            {
+                recorder.commitSample(TrcUtil.getCurrentTime());
+            }
+
+            //
+            // The dashboard status line is low priority work, skip it if the pass is already over budget.
+            //
+            if (dashboardEnabled && !taskMgr.isPassOverBudget())
             {
                 dashboard.displayPrintf(0, "[%3d:%06.3f] %s",
                     (int)(modeElapsedTime/60), modeElapsedTime%60, currMode.toString());
+
+                if (loopStatsPublishingEnabled && timeSliceStart >= nextLoopStatsPublishTime)
+                {
+                    nextLoopStatsPublishTime = timeSliceStart + LOOP_STATS_PUBLISH_INTERVAL;
+                    publishLoopStats();
+                }
             }
 
             //
@@ -391,12 +511,69 @@ public abstract class FrcRobotBase extends RobotBase
             {
                 TrcDbgTrace.getGlobalTracer().traceWarn(funcName, "%s takes too long (%5.3fs)\n",
                     currMode.toString(), timeSliceUsed);
+                taskMgr.tracePassTimes(TrcDbgTrace.getGlobalTracer(), funcName);
+                if (recorder != null && TrcTaskMgr.ENABLED_MODES.contains(currMode))
+                {
+                    recorder.trigger("Overrun");
+                }
+            }
+            loopStats.endContinuousPass(TrcUtil.getCurrentTimeNanos());
+
+            //
+            // Pace the continuous loop by absolute deadlines so that the loop rate doesn't drift with the time
+            // spent in each pass. If we have fallen behind by more than a whole interval, don't try to catch up
+            // with a burst of back-to-back passes, just start over from now.
+            //
+            if (continuousLoopIntervalNanos > 0)
+            {
+                long currNanos = TrcUtil.getCurrentTimeNanos();
+
+                nextPassDeadline += continuousLoopIntervalNanos;
+                if (nextPassDeadline - currNanos < 0)
+                {
+                    nextPassDeadline = currNanos;
+                }
+                else
+                {
+                    TrcUtil.sleepUntil(nextPassDeadline, LOOP_SPIN_NANOS);
+                }
             }
         }
     }   //startCompetition
 
     /**
-     * This method returns the host name of the RobotRIO.
+     * This method publishes the robot loop statistics to the dashboard. Times are published in milliseconds.
+     */
+    private void publishLoopStats()
+    {
+        HalDashboard.putNumber(loopStatsKeyPrefix + "LoopCounter", loopCounter);
+        HalDashboard.putNumber(loopStatsKeyPrefix + "ContinuousPasses", loopStats.getContinuousPassCount());
+        HalDashboard.putNumber(loopStatsKeyPrefix + "PeriodicPasses", loopStats.getPeriodicPassCount());
+        publishHistogram("ContinuousPeriod", loopStats.getContinuousPeriods());
+        publishHistogram("ContinuousJitter", loopStats.getContinuousJitters());
+        publishHistogram("PeriodicPeriod", loopStats.getPeriodicPeriods());
+        publishHistogram("PassTime", loopStats.getPassTimes());
+        publishHistogram("ControlDataAge", loopStats.getControlDataAges());
+        HalDashboard.putNumber(loopStatsKeyPrefix + "SlowestPass",
+            loopStats.getNumSlowPasses() > 0? loopStats.getSlowPassTime(0)/1000000.0: 0.0);
+    }   //publishLoopStats
+
+    /**
+     * This method publishes the percentiles of a loop statistics histogram to the dashboard in milliseconds.
+     *
+     * @param name specifies the name of the histogram on the dashboard.
+     * @param histogram specifies the histogram in nano seconds.
+     */
+    private void publishHistogram(final String name, TrcHistogram histogram)
+    {
+        HalDashboard.putNumber(loopStatsKeyPrefix + name + "P50", histogram.getPercentile(50.0)/1000000.0);
+        HalDashboard.putNumber(loopStatsKeyPrefix + name + "P99", histogram.getPercentile(99.0)/1000000.0);
+        HalDashboard.putNumber(loopStatsKeyPrefix + name + "Max", histogram.getMax()/1000000.0);
+    }   //publishHistogram
+
+    /**
+     * This method returns the host name of the RobotRIO. It is read from the hostname file instead of running the
+     * hostname command so startup doesn't have to wait for a process to be forked.
      *
      * @return host name.
      */
@@ -404,13 +581,9 @@ public abstract class FrcRobotBase extends RobotBase
     {
         String hostName = null;
 
-        try
+        try (BufferedReader reader = new BufferedReader(new FileReader(HOSTNAME_FILE)))
         {
-            byte[] buff = new byte[256];
-            Process proc = Runtime.getRuntime().exec("hostname");
-            InputStream inStream = proc.getInputStream();
-            inStream.read(buff, 0, buff.length);
-            hostName = new String(buff);
+            hostName = reader.readLine();
         }
         catch(IOException e)
         {
@@ -30,6 +30,9 @@ import edu.wpi.first.wpilibj.I2C;
 import edu.wpi.first.wpilibj.SerialPort;
 import frclib.FrcPixyCam;
 import frclib.FrcPneumatic;
+import trclib.TrcDbgTrace;
+import trclib.TrcDbgTrace.MsgLevel;
+import trclib.TrcFlightRecorder;
 import trclib.TrcPixyCam.ObjectBlock;
 
 public class PixyVision
@@ -42,6 +45,25 @@ public class PixyVision
     private static final double PERCENT_TOLERANCE_LOWER = 1.0 - PERCENT_TOLERANCE;
     private static final double PERCENT_TOLERANCE_UPPER = 1.0 + PERCENT_TOLERANCE;
     private static final double PERCENT_TOLERANCE_CENTER_Y = 0.9;
+    //
+    // Typed trace records, so that tracing every detected block doesn't generate garbage in the robot loop.
+    //
+    private static final int NUM_OBJECTS_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO, "%d object(s) found");
+    private static final int NO_OBJECTS_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO, "null object(s) found");
+    private static final int OBJECT_BLOCK_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO,
+            "[%d] sync=0x%04x, chksum=0x%04x, sig=%d, centerX=%3d, centerY=%3d, width=%3d, height=%3d, angle=%3d");
+    private static final int EXPECTED_TARGET_FORMAT =
+        TrcDbgTrace.registerFormat(
+            moduleName, MsgLevel.INFO, "Expected Target: distance=%.1f, width=%.1f, height=%.1f");
+    private static final int PAIRED_TARGET_RECT_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO, "***TargetRect***: [%d,%d] x=%d, y=%d, w=%d, h=%d");
+    private static final int TARGET_RECT_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO, "===TargetRect===: x=%d, y=%d, w=%d, h=%d");
+    private static final int TARGET_INFO_FORMAT =
+        TrcDbgTrace.registerFormat(moduleName, MsgLevel.INFO, "###TargetInfo###: xDist=%.1f, yDist=%.1f, angle=%.1f");
 
     public class TargetInfo
     {
@@ -85,9 +107,19 @@ public class PixyVision
     private Orientation orientation;
     private FrcPneumatic targetFoundLED = null;
     private FrcPneumatic targetAlignedLED = null;
-
-    private void commonInit(Robot robot, int signature, int brightness, Orientation orientation)
+    private final double[] traceFields = new double[9];
+    private TrcFlightRecorder.Channel targetFoundChannel;
+    private TrcFlightRecorder.Channel xDistanceChannel;
+    private TrcFlightRecorder.Channel yDistanceChannel;
+    private TrcFlightRecorder.Channel angleChannel;
+
+    private void commonInit(
+        final String instanceName, Robot robot, int signature, int brightness, Orientation orientation)
     {
+        targetFoundChannel = TrcFlightRecorder.createChannel(instanceName + ".targetFound");
+        xDistanceChannel = TrcFlightRecorder.createChannel(instanceName + ".xDistance");
+        yDistanceChannel = TrcFlightRecorder.createChannel(instanceName + ".yDistance");
+        angleChannel = TrcFlightRecorder.createChannel(instanceName + ".angle");
         this.robot = robot;
         this.signature = signature;
         this.orientation = orientation;
@@ -101,7 +133,7 @@ public class PixyVision
         I2C.Port port, int i2cAddress)
     {
         pixyCamera = new FrcPixyCam(instanceName, port, i2cAddress);
-        commonInit(robot, signature, brightness, orientation);
+        commonInit(instanceName, robot, signature, brightness, orientation);
     }   //PixyVision
 
     public PixyVision(
@@ -110,7 +142,7 @@ public class PixyVision
     {
         pixyCamera = new FrcPixyCam(instanceName, port,
             RobotInfo.PIXY_BAUD_RATE, RobotInfo.PIXY_DATA_BITS, RobotInfo.PIXY_PARITY, RobotInfo.PIXY_STOP_BITS);
-        commonInit(robot, signature, brightness, orientation);
+        commonInit(instanceName, robot, signature, brightness, orientation);
     }   //PixyVision
 
     public void setEnabled(boolean enabled)
@@ -136,8 +168,14 @@ public class PixyVision
 
         if (debugEnabled)
         {
-            robot.tracer.traceInfo(moduleName, "%s object(s) found",
-                detectedObjects != null? "" + detectedObjects.length: "null");
+            if (detectedObjects != null)
+            {
+                robot.tracer.traceRecord(NUM_OBJECTS_FORMAT, detectedObjects.length);
+            }
+            else
+            {
+                robot.tracer.traceRecord(NO_OBJECTS_FORMAT);
+            }
         }
         //
         // Make sure the camera detected at least two objects.
@@ -194,7 +232,17 @@ public class PixyVision
 
                     if (debugEnabled)
                     {
-                        robot.tracer.traceInfo(moduleName, "[%d] %s", i, detectedObjects[i].toString());
+                        ObjectBlock block = detectedObjects[i];
+                        traceFields[0] = i;
+                        traceFields[1] = block.sync;
+                        traceFields[2] = block.checksum;
+                        traceFields[3] = block.signature;
+                        traceFields[4] = block.centerX;
+                        traceFields[5] = block.centerY;
+                        traceFields[6] = block.width;
+                        traceFields[7] = block.height;
+                        traceFields[8] = block.angle;
+                        robot.tracer.traceRecord(OBJECT_BLOCK_FORMAT, traceFields, 9);
                     }
                 }
             }
@@ -204,8 +252,7 @@ public class PixyVision
 
             if (debugEnabled)
             {
-                robot.tracer.traceInfo(moduleName, "Expected Target: distance=%.1f, width=%.1f, height=%.1f",
-                    targetDistance, expectedWidth, expectedHeight);
+                robot.tracer.traceRecord(EXPECTED_TARGET_FORMAT, targetDistance, expectedWidth, expectedHeight);
             }
 
             if (FILTER_ENABLED)
@@ -285,9 +332,13 @@ public class PixyVision
 
                                 if (debugEnabled)
                                 {
-                                    robot.tracer.traceInfo(
-                                        moduleName, "***TargetRect***: [%d,%d] x=%d, y=%d, w=%d, h=%d",
-                                        i, j, targetRect.x, targetRect.y, targetRect.width, targetRect.height);
+                                    traceFields[0] = i;
+                                    traceFields[1] = j;
+                                    traceFields[2] = targetRect.x;
+                                    traceFields[3] = targetRect.y;
+                                    traceFields[4] = targetRect.width;
+                                    traceFields[5] = targetRect.height;
+                                    robot.tracer.traceRecord(PAIRED_TARGET_RECT_FORMAT, traceFields, 6);
                                 }
                             }
                         }
@@ -310,8 +361,8 @@ public class PixyVision
 
                 if (debugEnabled)
                 {
-                    robot.tracer.traceInfo(moduleName, "===TargetRect===: x=%d, y=%d, w=%d, h=%d",
-                        targetRect.x, targetRect.y, targetRect.width, targetRect.height);
+                    robot.tracer.traceRecord(
+                        TARGET_RECT_FORMAT, targetRect.x, targetRect.y, targetRect.width, targetRect.height);
                 }
             }
         }
@@ -351,15 +402,17 @@ public class PixyVision
             double targetYDistance = PIXY_DISTANCE_SCALE/targetRect.width;
             double targetAngle = Math.toDegrees(Math.atan(targetXDistance/targetYDistance));
             targetInfo = new TargetInfo(targetRect, targetXDistance, targetYDistance, targetAngle);
+            xDistanceChannel.record(targetXDistance);
+            yDistanceChannel.record(targetYDistance);
+            angleChannel.record(targetAngle);
 
             if (debugEnabled)
             {
-                robot.tracer.traceInfo(
-                    moduleName, "###TargetInfo###: xDist=%.1f, yDist=%.1f, angle=%.1f",
-                    targetXDistance, targetYDistance, targetAngle);
+                robot.tracer.traceRecord(TARGET_INFO_FORMAT, targetXDistance, targetYDistance, targetAngle);
             }
         }
 
+        targetFoundChannel.record(targetInfo != null? 1.0: 0.0);
         if (targetFoundLED != null)
         {
             targetFoundLED.setState(targetInfo != null);
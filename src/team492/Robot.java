@@ -54,10 +54,15 @@ import team492.PixyVision.TargetInfo;
 import trclib.TrcDbgTrace;
 import trclib.TrcDriveBase;
 import trclib.TrcEmic2TextToSpeech.Voice;
+import trclib.TrcFlightRecorder;
 import trclib.TrcGyro;
+import trclib.TrcLogArchiver;
 import trclib.TrcPidController;
 import trclib.TrcPidDrive;
 import trclib.TrcRobotBattery;
+import trclib.TrcStartupMgr;
+import trclib.TrcTelemetryStreamer;
+import trclib.TrcTraceWriter;
 import trclib.TrcUtil;
 
 /**
@@ -73,6 +78,7 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     private static final String moduleName = "Robot";
 
     public static final boolean USE_TRACELOG = true;
+    public static final boolean USE_BINARY_TRACELOG = false;
     public static final boolean USE_NAV_X = true;
     public static final boolean USE_SPI_GYRO = false;
     public static final boolean USE_ANALOG_GYRO = false;
@@ -84,6 +90,12 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     public static final boolean USE_REAR_PIXY = false;
     public static final boolean USE_TEXT_TO_SPEECH = false;
     public static final boolean USE_ACCELEROMETER = false;
+    public static final boolean USE_TELEMETRY_STREAMER = false;
+    //
+    // Telemetry is broadcast on the robot network, view it with team492.TelemetryViewer.
+    //
+    public static final String TELEMETRY_HOST = "10.4.92.255";
+    public static final int TELEMETRY_PORT = 5805;
 
     private static final boolean DEBUG_DRIVE_BASE = false;
     private static final boolean DEBUG_PID_DRIVE = false;
@@ -92,6 +104,18 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     private static final boolean DEBUG_WINCH = true;
     private static final boolean DEBUG_PIXY = true;
     private static final double DASHBOARD_UPDATE_INTERVAL = 0.1;
+    private static final int TRACE_WRITER_CAPACITY = 4096;
+    private static final int TRACE_LOG_SEGMENT_SIZE = 4*1024*1024;
+    private static final double TRACE_LOG_FORCE_INTERVAL = 1.0;
+    private static final String TRACE_LOG_FOLDER = "/home/lvuser/tracelog";
+    private static final int FLIGHT_RECORDER_CAPACITY = 6000;       //30 seconds at 200Hz.
+    private static final double FLIGHT_RECORDER_DUMP_WINDOW = 20.0;
+    private static final double TELEMETRY_SAMPLE_RATE = 100.0;
+    private static final double TELEMETRY_SEND_RATE = 20.0;
+    private static final int TARGET_RECT_FORMAT = TrcDbgTrace.registerFormat(
+        "TargetRect", TrcDbgTrace.MsgLevel.INFO, "%02d: x=%d, y=%d, width=%d, height=%d");
+    private static final int FACE_RECT_FORMAT = TrcDbgTrace.registerFormat(
+        "FaceRect", TrcDbgTrace.MsgLevel.INFO, "%02d: x=%d, y=%d, width=%d, height=%d");
 
     public static enum MatchType
     {
@@ -114,6 +138,9 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     public double targetHeading = 0.0;
 
     private double nextUpdateTime = TrcUtil.getCurrentTime();
+    private final double[] traceFields = new double[5];
+    private TrcStartupMgr startupMgr = null;
+    private TrcTelemetryStreamer telemetryStreamer = null;
 
     //
     // Sensors.
@@ -128,14 +155,14 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     // VisionTarget subsystem.
     //
     public GripVision gripVision = null;
-    public FrcFaceDetector faceDetector = null;
+    public volatile FrcFaceDetector faceDetector = null;
     public PixyVision frontPixy = null;
     public PixyVision rearPixy = null;
 
     //
     // Sound subsystem.
     //
-    public FrcEmic2TextToSpeech tts = null;
+    public volatile FrcEmic2TextToSpeech tts = null;
 
     //
     // DriveBase subsystem.
@@ -201,9 +228,84 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     public void robotInit()
     {
         //
-        // Sensors.
+        // Trace messages are written to the console and the trace log by a background thread so that the robot loop
+        // never waits on I/O. If tracing outpaces the writer, the oldest messages are dropped.
+        //
+        TrcDbgTrace.startAsyncWriter(TRACE_WRITER_CAPACITY, TrcTraceWriter.OverflowPolicy.DROP_OLDEST);
+        //
+        // Trace logs are written into memory-mapped segments on the flash and synced once a second.
+        //
+        TrcDbgTrace.setMappedTraceLogs(TRACE_LOG_SEGMENT_SIZE, TRACE_LOG_FORCE_INTERVAL);
+        //
+        // Finished trace logs are compressed in the background while the robot is disabled, including the ones left
+        // behind by a previous run.
+        //
+        TrcDbgTrace.setTraceLogArchiving(true);
+        TrcLogArchiver.archiveFolder(TRACE_LOG_FOLDER);
+        //
+        // Control telemetry is sampled into the flight recorder every loop. The last 20 seconds are dumped to the
+        // flash when a mode ends or the robot loop overruns.
+        //
+        TrcFlightRecorder.startGlobalRecorder(
+            FLIGHT_RECORDER_CAPACITY, FLIGHT_RECORDER_DUMP_WINDOW, "/home/lvuser/flightrec");
+        //
+        // The flight recorder channels are also streamed live over UDP from a separate thread.
         //
+        if (USE_TELEMETRY_STREAMER)
+        {
+            telemetryStreamer = new TrcTelemetryStreamer(
+                "Telemetry", TELEMETRY_HOST, TELEMETRY_PORT, TELEMETRY_SAMPLE_RATE, TELEMETRY_SEND_RATE);
+            telemetryStreamer.start();
+        }
+
+        //
+        // Subsystems that don't depend on each other are created in parallel. Optional devices are created in the
+        // background after the robot is ready to be enabled.
+        //
+        startupMgr = new TrcStartupMgr("RobotStartup");
+        startupMgr.addStep("Sensors", this::initSensors);
+        startupMgr.addStep("Gyro", this::initGyro);
+        startupMgr.addStep("Vision", this::initVision);
+        startupMgr.addStep("DriveBase", this::initDriveBase, "Gyro");
+        startupMgr.addStep("Subsystems", this::initSubsystems);
+        startupMgr.addStep("Menus", this::initMenus);
+        if (USE_FACE_DETECTOR)
+        {
+            startupMgr.addDeferredStep("FaceDetector", this::initFaceDetector);
+        }
+
+        if (USE_TEXT_TO_SPEECH)
+        {
+            startupMgr.addDeferredStep("TextToSpeech", this::initTextToSpeech);
+        }
+        startupMgr.run();
+        startupMgr.traceTimeline(tracer);
+
+        if (USE_FACE_DETECTOR)
+        {
+            startupMgr.startStep("FaceDetector");
+        }
+
+        if (USE_TEXT_TO_SPEECH)
+        {
+            startupMgr.startStep("TextToSpeech");
+        }
+
+        //
+        // Robot Modes.
+        //
+        setupRobotModes(new FrcTeleOp(this), new FrcAuto(this), new FrcTest(this), null);
+    }   //robotInit
+
+    private void initSensors()
+    {
         battery = new FrcRobotBattery(RobotInfo.CANID_PDP);
+        pressureSensor = new AnalogInput(RobotInfo.AIN_PRESSURE_SENSOR);
+        ultrasonicSensor = new AnalogInput(RobotInfo.AIN_ULTRASONIC_SENSOR);
+    }   //initSensors
+
+    private void initGyro()
+    {
         if (USE_NAV_X)
         {
             gyro = new FrcAHRSGyro("NavX", SPI.Port.kMXP);
@@ -216,12 +318,10 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
         {
             gyro = new FrcGyro("AnalogGyro", new AnalogGyro(RobotInfo.AIN_ANALOG_GYRO));
         }
-        pressureSensor = new AnalogInput(RobotInfo.AIN_PRESSURE_SENSOR);
-        ultrasonicSensor = new AnalogInput(RobotInfo.AIN_ULTRASONIC_SENSOR);
+    }   //initGyro
 
-        //
-        // VisionTarget subsystem.
-        //
+    private void initVision()
+    {
         if (USE_GRIP_VISION)
         {
             CvSink videoIn;
@@ -250,19 +350,7 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
 
             gripVision = new GripVision("GripVision", videoIn, videoOut);
         }
-        else if (USE_FACE_DETECTOR)
-        {
-            UsbCamera cam0 = CameraServer.getInstance().startAutomaticCapture("cam0", 0);
-            cam0.setResolution(RobotInfo.CAM_WIDTH, RobotInfo.CAM_HEIGHT);
-            cam0.setFPS(RobotInfo.CAM_FRAME_RATE);
-            CvSink videoIn = CameraServer.getInstance().getVideo(cam0);
-            CvSource videoOut =
-                CameraServer.getInstance().putVideo("FaceDetector", RobotInfo.CAM_WIDTH, RobotInfo.CAM_HEIGHT);
-
-            faceDetector = new FrcFaceDetector(
-                "FaceDetector", "/home/lvuser/cascade-files/haarcascade_frontalface_alt.xml", videoIn, videoOut);
-        }
-        else
+        else if (!USE_FACE_DETECTOR)
         {
             if (USE_FRONT_PIXY)
             {
@@ -287,18 +375,32 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
                     RobotInfo.PIXY_REAR_ORIENTATION, I2C.Port.kMXP, RobotInfo.PIXYCAM_REAR_I2C_ADDRESS);
             }
         }
+    }   //initVision
 
-        //
-        // Sound subsystem.
-        //
-        if (USE_TEXT_TO_SPEECH)
-        {
-            tts = new FrcEmic2TextToSpeech("TextToSpeech", SerialPort.Port.kMXP, 9600);
-            tts.setEnabled(true);
-            tts.selectVoice(Voice.FrailFrank);
-            tts.setVolume(1.0);
-        }
-
+    private void initFaceDetector()
+    {
+        UsbCamera cam0 = CameraServer.getInstance().startAutomaticCapture("cam0", 0);
+        cam0.setResolution(RobotInfo.CAM_WIDTH, RobotInfo.CAM_HEIGHT);
+        cam0.setFPS(RobotInfo.CAM_FRAME_RATE);
+        CvSink videoIn = CameraServer.getInstance().getVideo(cam0);
+        CvSource videoOut =
+            CameraServer.getInstance().putVideo("FaceDetector", RobotInfo.CAM_WIDTH, RobotInfo.CAM_HEIGHT);
+
+        faceDetector = new FrcFaceDetector(
+            "FaceDetector", "/home/lvuser/cascade-files/haarcascade_frontalface_alt.xml", videoIn, videoOut);
+    }   //initFaceDetector
+
+    private void initTextToSpeech()
+    {
+        FrcEmic2TextToSpeech textToSpeech = new FrcEmic2TextToSpeech("TextToSpeech", SerialPort.Port.kMXP, 9600);
+        textToSpeech.setEnabled(true);
+        textToSpeech.selectVoice(Voice.FrailFrank);
+        textToSpeech.setVolume(1.0);
+        tts = textToSpeech;
+    }   //initTextToSpeech
+
+    private void initDriveBase()
+    {
         //
         // DriveBase subsystem.
         //
@@ -376,10 +478,10 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
         sonarPidDrive.setMsgTracer(tracer);
         visionPidTurn = new TrcPidDrive("cameraPidDrive", driveBase, null, null, gyroTurnPidCtrl);
         visionPidTurn.setMsgTracer(tracer);
+    }   //initDriveBase
 
-        //
-        // Create other subsystems.
-        //
+    private void initSubsystems()
+    {
         ringLightsPower = new Relay(RobotInfo.RELAY_RINGLIGHT_POWER);
         ringLightsPower.setDirection(Direction.kForward);
         flashLightsPower = new Relay(RobotInfo.RELAY_FLASHLIGHT_POWER);
@@ -388,7 +490,10 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
             "Mailbox", RobotInfo.CANID_PCM1, RobotInfo.SOL_MAILBOX_EXTEND, RobotInfo.SOL_MAILBOX_RETRACT);
         gearPickup = new GearPickup();
         winch = new Winch();
+    }   //initSubsystems
 
+    private void initMenus()
+    {
         //
         // Create Global Menus (can be used in all modes).
         //
@@ -406,12 +511,7 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
 
         allianceMenu.addChoice("Red", Alliance.RED_ALLIANCE, true);
         allianceMenu.addChoice("Blue", Alliance.BLUE_ALLIANCE, false);
-
-        //
-        // Robot Modes.
-        //
-        setupRobotModes(new FrcTeleOp(this), new FrcAuto(this), new FrcTest(this), null);
-    }   //robotInit
+    }   //initMenus
 
     public void robotStartMode()
     {
@@ -452,6 +552,11 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
 
     public void setVisionEnabled(boolean enabled)
     {
+        if (USE_FACE_DETECTOR && enabled)
+        {
+            startupMgr.ensureStep("FaceDetector");
+        }
+
         if (gripVision != null)
         {
             ringLightsPower.set(enabled? Value.kOn: Value.kOff);
@@ -526,8 +631,7 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
                         {
                             dashboard.displayPrintf(8 + i, "x=%d, y=%d, width=%d, height=%d",
                                 targetRects[i].x, targetRects[i].y, targetRects[i].width, targetRects[i].height);
-                            tracer.traceInfo("TargetRect", "%02d: x=%d, y=%d, width=%d, height=%d",
-                                i, targetRects[i].x, targetRects[i].y, targetRects[i].width, targetRects[i].height);
+                            traceRect(TARGET_RECT_FORMAT, i, targetRects[i]);
                         }
                     }
                 }
@@ -544,8 +648,7 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
                         {
                             dashboard.displayPrintf(8 + i, "x=%d, y=%d, width=%d, height=%d",
                                 faceRects[i].x, faceRects[i].y, faceRects[i].width, faceRects[i].height);
-                            tracer.traceInfo("FaceRect", "%02d: x=%d, y=%d, width=%d, height=%d",
-                                i, faceRects[i].x, faceRects[i].y, faceRects[i].width, faceRects[i].height);
+                            traceRect(FACE_RECT_FORMAT, i, faceRects[i]);
                         }
                     }
                 }
@@ -593,7 +696,17 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
     {
         String filePrefix = prefix != null? prefix: matchType.toString();
         if (prefix == null) filePrefix += String.format("%03d", matchNumber);
-        tracer.openTraceLog("/home/lvuser/tracelog", filePrefix);
+        if (USE_BINARY_TRACELOG)
+        {
+            //
+            // Decode with trclib.TrcBinaryTraceLogDecoder to get the text log or CSV.
+            //
+            tracer.openBinaryTraceLog(TRACE_LOG_FOLDER, filePrefix);
+        }
+        else
+        {
+            tracer.openTraceLog(TRACE_LOG_FOLDER, filePrefix);
+        }
     }   //startTraceLog
 
     public void stopTraceLog()
@@ -601,6 +714,16 @@ public class Robot extends FrcRobotBase implements TrcPidController.PidInput
         tracer.closeTraceLog();
     }   //stopTraceLog
 
+    private void traceRect(int formatId, int index, Rect rect)
+    {
+        traceFields[0] = index;
+        traceFields[1] = rect.x;
+        traceFields[2] = rect.y;
+        traceFields[3] = rect.width;
+        traceFields[4] = rect.height;
+        tracer.traceRecord(formatId, traceFields, 5);
+    }   //traceRect
+
     public void traceStateInfo(double elapsedTime, String stateName)
     {
         tracer.traceInfo(moduleName, "[%5.3f] %10s: xPos=%6.2f,yPos=%6.2f,heading=%6.1f/%6.1f,volts=%.1f(%.1f)",
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package team492;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import trclib.TrcTelemetryReceiver;
+
+/**
+ * This class implements a desktop viewer of the robot telemetry streamed by TrcTelemetryStreamer. It is run on the
+ * driver station or a laptop on the robot network, or on the same machine for a simulated robot:
+ *
+ *  java team492.TelemetryViewer [port [seconds]]
+ *
+ * The channels are listed on the left, the selected ones are plotted on the right over the last few seconds with a
+ * common auto-scaled Y axis. The plot is refreshed 20 times a second.
+ */
+public class TelemetryViewer
+{
+    private static final int DEF_PORT = Robot.TELEMETRY_PORT;
+    private static final double DEF_PLOT_SECONDS = 10.0;
+    private static final int HISTORY_SIZE = 20000;
+    private static final int REFRESH_INTERVAL_MSEC = 50;
+    private static final Color[] PLOT_COLORS =
+        {
+            Color.BLUE, Color.RED, new Color(0, 140, 0), Color.MAGENTA, Color.ORANGE, Color.CYAN.darker(),
+            Color.PINK.darker(), Color.GRAY
+        };
+
+    /**
+     * This class implements the plot panel.
+     */
+    private static class PlotPanel extends JPanel
+    {
+        private static final long serialVersionUID = 1L;
+        private static final int MARGIN = 40;
+        private final TrcTelemetryReceiver receiver;
+        private final double plotSeconds;
+        private final double[] timeBuffer = new double[HISTORY_SIZE];
+        private final List<double[]> valueBuffers = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private int[] channels = new int[0];
+        private String[] names = new String[0];
+
+        public PlotPanel(TrcTelemetryReceiver receiver, double plotSeconds)
+        {
+            this.receiver = receiver;
+            this.plotSeconds = plotSeconds;
+            setBackground(Color.WHITE);
+            setPreferredSize(new Dimension(900, 500));
+        }   //PlotPanel
+
+        public void setChannels(int[] channels, String[] names)
+        {
+            this.channels = channels;
+            this.names = names;
+            repaint();
+        }   //setChannels
+
+        @Override
+        protected void paintComponent(Graphics graphics)
+        {
+            super.paintComponent(graphics);
+            Graphics2D g = (Graphics2D)graphics;
+            int width = getWidth() - 2*MARGIN;
+            int height = getHeight() - 2*MARGIN;
+            double endTime = Double.NEGATIVE_INFINITY;
+            double minValue = Double.POSITIVE_INFINITY;
+            double maxValue = Double.NEGATIVE_INFINITY;
+            double[] times = timeBuffer;
+
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawRect(MARGIN, MARGIN, width, height);
+            while (valueBuffers.size() < channels.length)
+            {
+                valueBuffers.add(new double[HISTORY_SIZE]);
+            }
+            counts.clear();
+            //
+            // All channels share the time stamps of the samples, so the time buffer is only kept once. Holding the
+            // receiver lock keeps the channels aligned while new samples are coming in.
+            //
+            synchronized (receiver)
+            {
+                for (int i = 0; i < channels.length; i++)
+                {
+                    int count = receiver.copyHistory(channels[i], times, valueBuffers.get(i));
+                    counts.add(count);
+                    if (count > 0)
+                    {
+                        endTime = Math.max(endTime, times[count - 1]);
+                    }
+                }
+            }
+
+            if (endTime == Double.NEGATIVE_INFINITY || width <= 0 || height <= 0)
+            {
+                g.setColor(Color.BLACK);
+                g.drawString("Waiting for telemetry...", MARGIN + 10, MARGIN + 20);
+                return;
+            }
+
+            double startTime = endTime - plotSeconds;
+            for (int i = 0; i < channels.length; i++)
+            {
+                double[] values = valueBuffers.get(i);
+                for (int j = 0; j < counts.get(i); j++)
+                {
+                    if (times[j] >= startTime && !Double.isNaN(values[j]))
+                    {
+                        minValue = Math.min(minValue, values[j]);
+                        maxValue = Math.max(maxValue, values[j]);
+                    }
+                }
+            }
+
+            if (minValue > maxValue)
+            {
+                minValue = maxValue = 0.0;
+            }
+
+            if (maxValue - minValue < 1e-6)
+            {
+                minValue -= 1.0;
+                maxValue += 1.0;
+            }
+
+            g.setColor(Color.BLACK);
+            g.drawString(String.format("%.3f", maxValue), 2, MARGIN);
+            g.drawString(String.format("%.3f", minValue), 2, MARGIN + height);
+            g.drawString(String.format("-%.1fs", plotSeconds), MARGIN, MARGIN + height + 15);
+            g.drawString("now", MARGIN + width - 20, MARGIN + height + 15);
+            if (minValue < 0.0 && maxValue > 0.0)
+            {
+                int y0 = MARGIN + (int)((maxValue/(maxValue - minValue))*height);
+                g.setColor(Color.LIGHT_GRAY);
+                g.drawLine(MARGIN, y0, MARGIN + width, y0);
+            }
+
+            for (int i = 0; i < channels.length; i++)
+            {
+                double[] values = valueBuffers.get(i);
+                int count = counts.get(i);
+                int prevX = -1, prevY = -1;
+
+                g.setColor(PLOT_COLORS[i%PLOT_COLORS.length]);
+                for (int j = 0; j < count; j++)
+                {
+                    if (times[j] < startTime || Double.isNaN(values[j]))
+                    {
+                        prevX = -1;
+                        continue;
+                    }
+
+                    int x = MARGIN + (int)((times[j] - startTime)/plotSeconds*width);
+                    int y = MARGIN + (int)((maxValue - values[j])/(maxValue - minValue)*height);
+                    if (prevX >= 0)
+                    {
+                        g.drawLine(prevX, prevY, x, y);
+                    }
+                    prevX = x;
+                    prevY = y;
+                }
+                g.drawString(
+                    String.format("%s = %.3f", names[i], count > 0? values[count - 1]: Double.NaN),
+                    MARGIN + 10, MARGIN + 15*(i + 1));
+            }
+        }   //paintComponent
+
+    }   //class PlotPanel
+
+    /**
+     * This method creates the viewer window and starts receiving telemetry.
+     *
+     * @param port specifies the UDP port to listen on.
+     * @param plotSeconds specifies the time span of the plot in seconds.
+     * @throws SocketException if the port cannot be bound.
+     */
+    private static void createViewer(int port, double plotSeconds) throws SocketException
+    {
+        final TrcTelemetryReceiver receiver = new TrcTelemetryReceiver(port, HISTORY_SIZE);
+        final DefaultListModel<String> channelModel = new DefaultListModel<>();
+        final JList<String> channelList = new JList<>(channelModel);
+        final PlotPanel plotPanel = new PlotPanel(receiver, plotSeconds);
+        final JLabel statusLabel = new JLabel(" ");
+        final JFrame frame = new JFrame("Telemetry Viewer - UDP port " + port);
+        final int[] schemaChangeCount = {-1};
+
+        receiver.start();
+        channelList.addListSelectionListener(
+            e -> plotPanel.setChannels(
+                channelList.getSelectedIndices(), channelList.getSelectedValuesList().toArray(new String[0])));
+
+        JSplitPane splitPane = new JSplitPane(
+            JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(channelList), plotPanel);
+        splitPane.setDividerLocation(220);
+        frame.getContentPane().add(splitPane, BorderLayout.CENTER);
+        frame.getContentPane().add(statusLabel, BorderLayout.SOUTH);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.pack();
+        frame.setVisible(true);
+
+        new Timer(REFRESH_INTERVAL_MSEC, e ->
+        {
+            int changeCount = receiver.getSchemaChangeCount();
+
+            if (changeCount != schemaChangeCount[0])
+            {
+                //
+                // The channels changed, keep the selected channels that still exist.
+                //
+                List<String> selected = channelList.getSelectedValuesList();
+                String[] names = receiver.getChannelNames();
+                List<Integer> indices = new ArrayList<>();
+
+                schemaChangeCount[0] = changeCount;
+                channelModel.clear();
+                for (int i = 0; i < names.length; i++)
+                {
+                    channelModel.addElement(names[i]);
+                    if (selected.contains(names[i]))
+                    {
+                        indices.add(i);
+                    }
+                }
+                channelList.setSelectedIndices(indices.stream().mapToInt(Integer::intValue).toArray());
+            }
+
+            statusLabel.setText(String.format("Channels=%d, Samples=%d, Datagrams=%d, Lost=%d",
+                channelModel.size(), receiver.getNumSamples(), receiver.getDatagramCount(), receiver.getLostCount()));
+            plotPanel.repaint();
+        }).start();
+    }   //createViewer
+
+    /**
+     * This method runs the viewer.
+     *
+     * @param args specifies the command line arguments: [port [seconds]].
+     */
+    public static void main(String[] args)
+    {
+        final int port = args.length > 0? Integer.parseInt(args[0]): DEF_PORT;
+        final double plotSeconds = args.length > 1? Double.parseDouble(args[1]): DEF_PLOT_SECONDS;
+
+        SwingUtilities.invokeLater(() ->
+        {
+            try
+            {
+                createViewer(port, plotSeconds);
+            }
+            catch (SocketException e)
+            {
+                System.err.println("Failed to listen on UDP port " + port + ": " + e.getMessage());
+                System.exit(1);
+            }
+        });
+    }   //main
+
+}   //class TelemetryViewer
@@ -0,0 +1,651 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package team492;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import trclib.TrcBinaryTraceLogDecoder;
+import trclib.TrcLogArchiver;
+import trclib.TrcMappedLogOutputStream;
+
+/**
+ * This class implements an offline analyzer of the match trace logs. It is run on a desktop after an event:
+ *
+ *  java team492.TraceLogAnalyzer [TraceLog folder]
+ *
+ * Each sub-folder of the TraceLog folder is an event and each log file in it is a match. All the match logs are
+ * analyzed in parallel, one fork-join task per file, and each file is streamed line by line instead of being loaded
+ * whole. Binary trace logs (.blog) are decoded on the fly and archived logs (.zip) are decompressed on the fly. The
+ * analyzer prints a summary per match and per event:
+ *
+ *  - PID controllers, from the printPidInfo lines: number of moves (set point changes), settle time, overshoot,
+ *    steady-state error and the share of samples with the output saturated.
+ *  - Loop overruns, from the startCompetition "takes too long" warnings.
+ *  - PixyVision detection rates: frames analyzed, frames with objects and frames with a target found.
+ *  - Battery voltage sag, from the volts in the Robot state lines.
+ *
+ * The PID lines carry no time stamp, so a sample gets the time stamp of the Robot state line preceding it if
+ * there is a new one, otherwise the time of its previous sample plus the nominal loop period.
+ */
+public class TraceLogAnalyzer
+{
+    private static final double NOMINAL_PERIOD = 0.02;
+    private static final double SETTLE_BAND = 0.05;
+    private static final double MIN_STEP = 1.0;
+    private static final double SATURATION_THRESHOLD = 0.99;
+    private static final double[] VOLTAGE_THRESHOLDS = {11.0, 10.0, 9.0, 8.0};
+
+    private static final String PID_TAG = "printPidInfo_Info: ";
+    private static final String OVERRUN_TAG = "startCompetition_Warn: ";
+    private static final String PIXY_TAG = "PixyVision_Info: ";
+    private static final String ROBOT_TAG = "Robot_Info: ";
+
+    private static final Pattern PID_PATTERN = Pattern.compile(
+        "^(\\S+): Target=\\s*(\\S+), Input=\\s*(\\S+), Error=\\s*(\\S+), PIDTerms=.*, " +
+        "Output=\\s*(\\S+)\\(\\s*(\\S+)/\\s*([^)\\s]+)\\)(?:, Volt=(\\S+) \\((\\S+)\\))?");
+    private static final Pattern OVERRUN_PATTERN = Pattern.compile("^(\\w+) takes too long \\(\\s*(\\S+)s\\)");
+    private static final Pattern PIXY_OBJECTS_PATTERN = Pattern.compile("^(\\d+|null) object\\(s\\) found");
+    private static final String PIXY_TARGET_PREFIX = "###TargetInfo###";
+    private static final Pattern ROBOT_PATTERN = Pattern.compile(
+        "^\\[\\s*(\\S+)\\]\\s*(\\S+):.*volts=(\\S+)\\((\\S+)\\)");
+
+    /**
+     * This class accumulates the metrics of a PID controller. Samples are fed in order and split into moves at
+     * every set point change.
+     */
+    private static class PidStats
+    {
+        private final String name;
+        private int moves = 0;
+        private int settledMoves = 0;
+        private double totalSettleTime = 0.0;
+        private double totalOvershoot = 0.0;
+        private double totalSteadyStateError = 0.0;
+        private long samples = 0;
+        private long saturatedSamples = 0;
+        //
+        // State of the move in progress.
+        //
+        private boolean inMove = false;
+        private double target = Double.NaN;
+        private double initialError = 0.0;
+        private double moveStartTime = 0.0;
+        private double maxOvershoot = 0.0;
+        private double inBandTime = -1.0;
+        private double lastError = 0.0;
+        private double lastTime = 0.0;
+        private long lastStampSeq = -1;
+
+        public PidStats(final String name)
+        {
+            this.name = name;
+        }   //PidStats
+
+        public void addSample(double time, double target, double error, double output, double minOutput,
+                              double maxOutput)
+        {
+            if (time < lastTime || target != this.target)
+            {
+                //
+                // A new set point or a new command (time stamps restart) starts a new move.
+                //
+                endMove();
+                this.target = target;
+                if (Math.abs(error) >= MIN_STEP)
+                {
+                    inMove = true;
+                    initialError = error;
+                    moveStartTime = time;
+                    maxOvershoot = 0.0;
+                    inBandTime = -1.0;
+                }
+            }
+
+            if (inMove)
+            {
+                //
+                // Overshoot is how far the error went past zero to the other side.
+                //
+                double overshoot = -error*Math.signum(initialError);
+                if (overshoot > maxOvershoot)
+                {
+                    maxOvershoot = overshoot;
+                }
+
+                if (Math.abs(error) <= SETTLE_BAND*Math.abs(initialError))
+                {
+                    if (inBandTime < 0.0)
+                    {
+                        inBandTime = time;
+                    }
+                }
+                else
+                {
+                    inBandTime = -1.0;
+                }
+            }
+
+            samples++;
+            if (output >= SATURATION_THRESHOLD*maxOutput && maxOutput > 0.0 ||
+                output <= SATURATION_THRESHOLD*minOutput && minOutput < 0.0)
+            {
+                saturatedSamples++;
+            }
+            lastError = error;
+            lastTime = time;
+        }   //addSample
+
+        public void endMove()
+        {
+            if (inMove)
+            {
+                moves++;
+                totalOvershoot += maxOvershoot/Math.abs(initialError);
+                totalSteadyStateError += Math.abs(lastError);
+                if (inBandTime >= 0.0)
+                {
+                    settledMoves++;
+                    totalSettleTime += inBandTime - moveStartTime;
+                }
+                inMove = false;
+            }
+        }   //endMove
+
+        public void merge(PidStats other)
+        {
+            moves += other.moves;
+            settledMoves += other.settledMoves;
+            totalSettleTime += other.totalSettleTime;
+            totalOvershoot += other.totalOvershoot;
+            totalSteadyStateError += other.totalSteadyStateError;
+            samples += other.samples;
+            saturatedSamples += other.saturatedSamples;
+        }   //merge
+
+        public String toString()
+        {
+            return String.format(
+                "PID %s: moves=%d, settled=%d, settleTime=%s, overshoot=%s, ssError=%s, saturation=%.1f%%",
+                name, moves, settledMoves,
+                settledMoves > 0? String.format("%.2fs", totalSettleTime/settledMoves): "n/a",
+                moves > 0? String.format("%.1f%%", 100.0*totalOvershoot/moves): "n/a",
+                moves > 0? String.format("%.2f", totalSteadyStateError/moves): "n/a",
+                samples > 0? 100.0*saturatedSamples/samples: 0.0);
+        }   //toString
+
+    }   //class PidStats
+
+    /**
+     * This class accumulates all the metrics of a match, or of a whole event when matches are merged.
+     */
+    private static class LogStats
+    {
+        private final String name;
+        private int numLogs = 1;
+        private long numLines = 0;
+        private final Map<String, PidStats> pidStats = new TreeMap<>();
+        private final Map<String, List<Double>> overruns = new TreeMap<>();
+        private long pixyFrames = 0;
+        private long pixyFramesWithObjects = 0;
+        private long pixyObjects = 0;
+        private long pixyTargets = 0;
+        private long voltSamples = 0;
+        private double voltTotal = 0.0;
+        private double minVolt = Double.POSITIVE_INFINITY;
+        private double lowestVolt = Double.POSITIVE_INFINITY;
+        private final long[] voltBelow = new long[VOLTAGE_THRESHOLDS.length];
+        private double robotTime = 0.0;
+        private long robotStampSeq = 0;
+
+        public LogStats(final String name)
+        {
+            this.name = name;
+        }   //LogStats
+
+        public void processLine(final String line)
+        {
+            int index;
+
+            numLines++;
+            if ((index = line.indexOf(PID_TAG)) >= 0)
+            {
+                Matcher m = PID_PATTERN.matcher(line).region(index + PID_TAG.length(), line.length());
+                if (m.lookingAt())
+                {
+                    processPidSample(m);
+                }
+            }
+            else if ((index = line.indexOf(ROBOT_TAG)) >= 0)
+            {
+                Matcher m = ROBOT_PATTERN.matcher(line).region(index + ROBOT_TAG.length(), line.length());
+                if (m.lookingAt())
+                {
+                    robotTime = parse(m.group(1));
+                    robotStampSeq++;
+                    addVoltage(parse(m.group(3)), parse(m.group(4)));
+                }
+            }
+            else if ((index = line.indexOf(PIXY_TAG)) >= 0)
+            {
+                int start = index + PIXY_TAG.length();
+                Matcher m = PIXY_OBJECTS_PATTERN.matcher(line).region(start, line.length());
+                if (m.lookingAt())
+                {
+                    pixyFrames++;
+                    if (!m.group(1).equals("null"))
+                    {
+                        int numObjects = Integer.parseInt(m.group(1));
+                        pixyObjects += numObjects;
+                        if (numObjects > 0)
+                        {
+                            pixyFramesWithObjects++;
+                        }
+                    }
+                }
+                else if (line.startsWith(PIXY_TARGET_PREFIX, start))
+                {
+                    pixyTargets++;
+                }
+            }
+            else if ((index = line.indexOf(OVERRUN_TAG)) >= 0)
+            {
+                Matcher m = OVERRUN_PATTERN.matcher(line).region(index + OVERRUN_TAG.length(), line.length());
+                if (m.lookingAt())
+                {
+                    List<Double> list = overruns.get(m.group(1));
+                    if (list == null)
+                    {
+                        list = new ArrayList<>();
+                        overruns.put(m.group(1), list);
+                    }
+                    list.add(parse(m.group(2)));
+                }
+            }
+        }   //processLine
+
+        private void processPidSample(Matcher m)
+        {
+            String ctrlName = m.group(1);
+            PidStats stats = pidStats.get(ctrlName);
+
+            if (stats == null)
+            {
+                stats = new PidStats(ctrlName);
+                pidStats.put(ctrlName, stats);
+            }
+
+            double time;
+            if (stats.lastStampSeq != robotStampSeq)
+            {
+                time = robotTime;
+                stats.lastStampSeq = robotStampSeq;
+            }
+            else
+            {
+                time = stats.lastTime + NOMINAL_PERIOD;
+            }
+
+            stats.addSample(
+                time, parse(m.group(2)), parse(m.group(4)), parse(m.group(5)), parse(m.group(6)),
+                parse(m.group(7)));
+
+            if (m.group(8) != null)
+            {
+                addVoltage(parse(m.group(8)), parse(m.group(9)));
+            }
+        }   //processPidSample
+
+        private void addVoltage(double volt, double lowest)
+        {
+            if (!Double.isNaN(volt) && volt > 0.0)
+            {
+                voltSamples++;
+                voltTotal += volt;
+                minVolt = Math.min(minVolt, volt);
+                lowestVolt = Math.min(lowestVolt, lowest);
+                for (int i = 0; i < VOLTAGE_THRESHOLDS.length; i++)
+                {
+                    if (volt < VOLTAGE_THRESHOLDS[i])
+                    {
+                        voltBelow[i]++;
+                    }
+                }
+            }
+        }   //addVoltage
+
+        public void finish()
+        {
+            for (PidStats stats: pidStats.values())
+            {
+                stats.endMove();
+            }
+        }   //finish
+
+        public void merge(LogStats other)
+        {
+            numLogs += other.numLogs;
+            numLines += other.numLines;
+            for (PidStats stats: other.pidStats.values())
+            {
+                PidStats merged = pidStats.get(stats.name);
+                if (merged == null)
+                {
+                    merged = new PidStats(stats.name);
+                    pidStats.put(stats.name, merged);
+                }
+                merged.merge(stats);
+            }
+
+            for (Map.Entry<String, List<Double>> entry: other.overruns.entrySet())
+            {
+                List<Double> list = overruns.get(entry.getKey());
+                if (list == null)
+                {
+                    list = new ArrayList<>();
+                    overruns.put(entry.getKey(), list);
+                }
+                list.addAll(entry.getValue());
+            }
+
+            pixyFrames += other.pixyFrames;
+            pixyFramesWithObjects += other.pixyFramesWithObjects;
+            pixyObjects += other.pixyObjects;
+            pixyTargets += other.pixyTargets;
+            voltSamples += other.voltSamples;
+            voltTotal += other.voltTotal;
+            minVolt = Math.min(minVolt, other.minVolt);
+            lowestVolt = Math.min(lowestVolt, other.lowestVolt);
+            for (int i = 0; i < voltBelow.length; i++)
+            {
+                voltBelow[i] += other.voltBelow[i];
+            }
+        }   //merge
+
+        public void print(PrintStream out, final String title)
+        {
+            out.printf("%s %s (%d log(s), %d lines)\n", title, name, numLogs, numLines);
+
+            for (PidStats stats: pidStats.values())
+            {
+                out.println("  " + stats);
+            }
+
+            for (Map.Entry<String, List<Double>> entry: overruns.entrySet())
+            {
+                List<Double> list = entry.getValue();
+                double total = 0.0;
+
+                Collections.sort(list);
+                for (double value: list)
+                {
+                    total += value;
+                }
+                out.printf("  Overrun %s: n=%d, mean=%.3fs, p95=%.3fs, max=%.3fs\n",
+                    entry.getKey(), list.size(), total/list.size(),
+                    list.get(Math.min(list.size() - 1, (int)Math.ceil(0.95*list.size()) - 1)),
+                    list.get(list.size() - 1));
+            }
+
+            if (pixyFrames > 0)
+            {
+                out.printf("  Pixy: frames=%d, withObjects=%.1f%%, targetFound=%.1f%%, avgObjects=%.2f\n",
+                    pixyFrames, 100.0*pixyFramesWithObjects/pixyFrames, 100.0*pixyTargets/pixyFrames,
+                    (double)pixyObjects/pixyFrames);
+            }
+
+            if (voltSamples > 0)
+            {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < VOLTAGE_THRESHOLDS.length; i++)
+                {
+                    sb.append(String.format(", <%.0fV=%.1f%%", VOLTAGE_THRESHOLDS[i],
+                        100.0*voltBelow[i]/voltSamples));
+                }
+                out.printf("  Voltage: samples=%d, mean=%.2fV, min=%.1fV, lowest=%.1fV%s\n",
+                    voltSamples, voltTotal/voltSamples, minVolt, lowestVolt, sb.toString());
+            }
+        }   //print
+
+    }   //class LogStats
+
+    /**
+     * This class implements the fork-join task analyzing one match log.
+     */
+    private static class MatchTask extends RecursiveTask<LogStats>
+    {
+        private static final long serialVersionUID = 1L;
+        private final File logFile;
+
+        public MatchTask(File logFile)
+        {
+            this.logFile = logFile;
+        }   //MatchTask
+
+        @Override
+        protected LogStats compute()
+        {
+            String fileName = logFile.getName();
+            boolean archived = fileName.endsWith(TrcLogArchiver.ARCHIVE_SUFFIX);
+
+            if (archived)
+            {
+                fileName = fileName.substring(0, fileName.length() - TrcLogArchiver.ARCHIVE_SUFFIX.length());
+            }
+            LogStats stats = new LogStats(fileName.substring(0, fileName.lastIndexOf('.')));
+
+            try
+            {
+                if (fileName.endsWith(".blog"))
+                {
+                    try (InputStream in = new BufferedInputStream(
+                            archived? TrcLogArchiver.openArchive(logFile.getPath()):
+                                TrcMappedLogOutputStream.openSegments(logFile.getPath())))
+                    {
+                        TrcBinaryTraceLogDecoder decoder = new TrcBinaryTraceLogDecoder(in);
+                        while (decoder.next())
+                        {
+                            stats.processLine(decoder.getTraceLine());
+                        }
+                    }
+                }
+                else
+                {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            archived? TrcLogArchiver.openArchive(logFile.getPath()):
+                                TrcMappedLogOutputStream.openSegments(logFile.getPath()))))
+                    {
+                        String line;
+                        while ((line = reader.readLine()) != null)
+                        {
+                            //
+                            // A NUL is the zero padding of a log segment that was never closed, the log ends there.
+                            //
+                            int end = line.indexOf('\0');
+
+                            if (end >= 0)
+                            {
+                                if (end > 0)
+                                {
+                                    stats.processLine(line.substring(0, end));
+                                }
+                                break;
+                            }
+                            stats.processLine(line);
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.printf("Failed to read %s: %s\n", logFile, e.getMessage());
+            }
+            stats.finish();
+
+            return stats;
+        }   //compute
+
+    }   //class MatchTask
+
+    /**
+     * This class implements the fork-join task analyzing all the match logs of an event in parallel.
+     */
+    private static class EventTask extends RecursiveTask<List<LogStats>>
+    {
+        private static final long serialVersionUID = 1L;
+        private final File eventFolder;
+
+        public EventTask(File eventFolder)
+        {
+            this.eventFolder = eventFolder;
+        }   //EventTask
+
+        @Override
+        protected List<LogStats> compute()
+        {
+            File[] logFiles = eventFolder.listFiles(
+                (dir, name) -> name.endsWith(".log") || name.endsWith(".blog") ||
+                               name.endsWith(".log" + TrcLogArchiver.ARCHIVE_SUFFIX) ||
+                               name.endsWith(".blog" + TrcLogArchiver.ARCHIVE_SUFFIX));
+            List<MatchTask> tasks = new ArrayList<>();
+            List<LogStats> matches = new ArrayList<>();
+
+            if (logFiles != null)
+            {
+                Arrays.sort(logFiles);
+                for (File logFile: logFiles)
+                {
+                    tasks.add(new MatchTask(logFile));
+                }
+                invokeAll(tasks);
+                for (MatchTask task: tasks)
+                {
+                    matches.add(task.join());
+                }
+            }
+
+            return matches;
+        }   //compute
+
+    }   //class EventTask
+
+    /**
+     * This method analyzes all the events in a TraceLog folder and prints the match and event summaries.
+     *
+     * @param rootFolder specifies the TraceLog folder.
+     * @param out specifies the output stream of the summaries.
+     */
+    public static void analyze(File rootFolder, PrintStream out)
+    {
+        File[] eventFolders = rootFolder.listFiles(File::isDirectory);
+        List<EventTask> tasks = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool();
+
+        if (eventFolders == null)
+        {
+            out.println("No event folders in " + rootFolder);
+            return;
+        }
+
+        Arrays.sort(eventFolders);
+        for (File eventFolder: eventFolders)
+        {
+            EventTask task = new EventTask(eventFolder);
+            tasks.add(task);
+            pool.execute(task);
+        }
+
+        LogStats allEvents = null;
+        for (EventTask task: tasks)
+        {
+            List<LogStats> matches = task.join();
+            LogStats event = new LogStats(task.eventFolder.getName());
+
+            event.numLogs = 0;
+            for (LogStats match: matches)
+            {
+                match.print(out, "Match");
+                event.merge(match);
+            }
+            event.print(out, "=== Event");
+            out.println();
+
+            if (allEvents == null)
+            {
+                allEvents = new LogStats("All events");
+                allEvents.numLogs = 0;
+            }
+            allEvents.merge(event);
+        }
+        pool.shutdown();
+
+        if (allEvents != null)
+        {
+            allEvents.print(out, "===");
+        }
+    }   //analyze
+
+    /**
+     * This method runs the analyzer.
+     *
+     * @param args specifies the TraceLog folder, "TraceLog" if not specified.
+     */
+    public static void main(String[] args)
+    {
+        analyze(new File(args.length > 0? args[0]: "TraceLog"), System.out);
+    }   //main
+
+    /**
+     * This method parses a number from the log, tolerating garbage.
+     *
+     * @param str specifies the number string.
+     * @return parsed value, NaN if the string is not a number.
+     */
+    private static double parse(final String str)
+    {
+        try
+        {
+            return Double.parseDouble(str);
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }   //parse
+
+}   //class TraceLogAnalyzer
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This class implements a compact binary trace log. Instead of a text line per message, the log contains a schema
+ * entry the first time a typed record format is used, followed by records holding only the format ID, a delta
+ * encoded time stamp and the raw numeric fields. Instance and method names are written once into a string table
+ * and referred to by index. Free form messages are written as their formatted text. TrcBinaryTraceLogDecoder turns
+ * the log back into the text format of the trace log or exports the typed records as CSV.
+ *
+ * The log has the following layout. All integers are big endian, varints are unsigned LEB128 and signed varints
+ * are zigzag encoded.
+ *
+ *  Header:  MAGIC (6 bytes), VERSION (1 byte), start time in epoch msec (8 bytes).
+ *  String:  TAG_STRING, varint string ID, modified UTF-8 string.
+ *  Format:  TAG_FORMAT, varint format ID, varint method name string ID, message level (1 byte), UTF-8 format.
+ *  Record:  TAG_RECORD, signed varint time delta in usec, varint format ID, varint instance name string ID,
+ *           number of fields (1 byte), fields as 8-byte doubles.
+ *  Message: TAG_MESSAGE, signed varint time delta in usec, message level (1 byte), varint instance name string ID,
+ *           varint method name string ID, modified UTF-8 message text.
+ *  Time:    TAG_TIME, varint elapsed time in usec. It sets the time base of the entries that follow. It is never
+ *           written by the log itself, only when a part of a log is extracted from an archive (see TrcLogArchiver).
+ *  End:     TAG_END. A zero byte where an entry is expected marks the end of the data. It is never written, it is
+ *           the zero padding of a memory-mapped log segment that was not closed (see TrcMappedLogOutputStream).
+ */
+public class TrcBinaryTraceLog implements Flushable, Closeable
+{
+    static final byte[] MAGIC = {'T', 'R', 'C', 'L', 'O', 'G'};
+    static final int VERSION = 1;
+    static final int TAG_END = 0;
+    static final int TAG_STRING = 1;
+    static final int TAG_FORMAT = 2;
+    static final int TAG_RECORD = 3;
+    static final int TAG_MESSAGE = 4;
+    static final int TAG_TIME = 5;
+    static final int MAX_UTF_LENGTH = 16384;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final String logPath;
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> stringIds = new HashMap<>();
+    private final BitSet formatsWritten = new BitSet();
+    private long prevTimestamp;
+    private boolean failed = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param logPath specifies the path of the log file.
+     * @param out specifies the output stream to write the log to.
+     */
+    public TrcBinaryTraceLog(final String logPath, OutputStream out)
+    {
+        this.logPath = logPath;
+        this.out = new DataOutputStream(out);
+        this.prevTimestamp = System.nanoTime();
+
+        try
+        {
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(System.currentTimeMillis());
+        }
+        catch (IOException e)
+        {
+            failed = true;
+        }
+    }   //TrcBinaryTraceLog
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param logPath specifies the path of the log file.
+     * @throws FileNotFoundException if the log file cannot be created.
+     */
+    public TrcBinaryTraceLog(final String logPath) throws FileNotFoundException
+    {
+        this(logPath, new BufferedOutputStream(new FileOutputStream(new File(logPath)), BUFFER_SIZE));
+    }   //TrcBinaryTraceLog
+
+    /**
+     * This method returns the log file path.
+     *
+     * @return log file path.
+     */
+    @Override
+    public String toString()
+    {
+        return logPath;
+    }   //toString
+
+    /**
+     * This method returns the number of bytes written to the log.
+     *
+     * @return number of bytes written.
+     */
+    public synchronized long getBytesWritten()
+    {
+        //
+        // DataOutputStream counts the bytes written, saturating at Integer.MAX_VALUE.
+        //
+        return out.size();
+    }   //getBytesWritten
+
+    /**
+     * This method checks if writing to the log has failed. Once failed, nothing more is written.
+     *
+     * @return true if the log has failed, false otherwise.
+     */
+    public synchronized boolean hasFailed()
+    {
+        return failed;
+    }   //hasFailed
+
+    /**
+     * This method writes a typed record. The schema of the record is written first if this is the first time the
+     * format is used in this log.
+     *
+     * @param timestamp specifies the time stamp of the record from System.nanoTime().
+     * @param instanceName specifies the instance name of the tracer.
+     * @param formatId specifies the registered format ID.
+     * @param fields specifies the array containing the fields.
+     * @param numFields specifies the number of fields in the array.
+     */
+    public synchronized void writeRecord(
+        long timestamp, final String instanceName, int formatId, double[] fields, int numFields)
+    {
+        if (!failed)
+        {
+            try
+            {
+                int formatIndex = writeFormat(formatId);
+                int instanceIndex = writeString(instanceName);
+
+                out.writeByte(TAG_RECORD);
+                writeTimeDelta(timestamp);
+                writeVarint(formatIndex);
+                writeVarint(instanceIndex);
+                out.writeByte(numFields);
+                for (int i = 0; i < numFields; i++)
+                {
+                    out.writeDouble(fields[i]);
+                }
+            }
+            catch (IOException e)
+            {
+                failed = true;
+            }
+        }
+    }   //writeRecord
+
+    /**
+     * This method writes a free form message as its formatted text.
+     *
+     * @param timestamp specifies the time stamp of the message from System.nanoTime().
+     * @param level specifies the message level.
+     * @param instanceName specifies the instance name of the tracer.
+     * @param funcName specifies the calling method name.
+     * @param text specifies the formatted message text.
+     */
+    public synchronized void writeMessage(
+        long timestamp, TrcDbgTrace.MsgLevel level, final String instanceName, final String funcName,
+        final String text)
+    {
+        if (!failed)
+        {
+            try
+            {
+                int instanceIndex = writeString(instanceName);
+                int funcIndex = writeString(funcName);
+
+                out.writeByte(TAG_MESSAGE);
+                writeTimeDelta(timestamp);
+                out.writeByte(level.getValue());
+                writeVarint(instanceIndex);
+                writeVarint(funcIndex);
+                writeUtf(text);
+            }
+            catch (IOException e)
+            {
+                failed = true;
+            }
+        }
+    }   //writeMessage
+
+    /**
+     * This method flushes the log to the file.
+     */
+    @Override
+    public synchronized void flush()
+    {
+        if (!failed)
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                failed = true;
+            }
+        }
+    }   //flush
+
+    /**
+     * This method flushes and closes the log.
+     */
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            failed = true;
+        }
+    }   //close
+
+    /**
+     * This method writes the schema of a record format if it hasn't been written to this log yet.
+     *
+     * @param formatId specifies the registered format ID.
+     * @return format ID.
+     * @throws IOException if writing failed.
+     */
+    private int writeFormat(int formatId) throws IOException
+    {
+        if (!formatsWritten.get(formatId))
+        {
+            TrcDbgTrace.RecordFormat recordFormat = TrcDbgTrace.getRegisteredFormat(formatId);
+            int funcIndex = writeString(recordFormat.getFuncName());
+
+            out.writeByte(TAG_FORMAT);
+            writeVarint(formatId);
+            writeVarint(funcIndex);
+            out.writeByte(recordFormat.getLevel().getValue());
+            writeUtf(recordFormat.getFormat());
+            formatsWritten.set(formatId);
+        }
+
+        return formatId;
+    }   //writeFormat
+
+    /**
+     * This method returns the string table index of a string, writing it to the string table if it is new.
+     *
+     * @param str specifies the string.
+     * @return string table index.
+     * @throws IOException if writing failed.
+     */
+    private int writeString(final String str) throws IOException
+    {
+        Integer index = stringIds.get(str);
+
+        if (index == null)
+        {
+            index = stringIds.size();
+            stringIds.put(str, index);
+            out.writeByte(TAG_STRING);
+            writeVarint(index);
+            writeUtf(str);
+        }
+
+        return index;
+    }   //writeString
+
+    /**
+     * This method writes the time since the previous entry in usec.
+     *
+     * @param timestamp specifies the time stamp from System.nanoTime().
+     * @throws IOException if writing failed.
+     */
+    private void writeTimeDelta(long timestamp) throws IOException
+    {
+        long delta = (timestamp - prevTimestamp)/1000;
+
+        //
+        // Entries queued by different threads may be slightly out of order, so the delta is signed. Only the whole
+        // usec written are accounted so that rounding errors don't accumulate.
+        //
+        prevTimestamp += delta*1000;
+        writeVarint((delta << 1) ^ (delta >> 63));
+    }   //writeTimeDelta
+
+    /**
+     * This method writes an unsigned variable length integer.
+     *
+     * @param value specifies the value.
+     * @throws IOException if writing failed.
+     */
+    private void writeVarint(long value) throws IOException
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            out.writeByte((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }   //writeVarint
+
+    /**
+     * This method writes a string in modified UTF-8, truncating very long strings.
+     *
+     * @param str specifies the string.
+     * @throws IOException if writing failed.
+     */
+    private void writeUtf(final String str) throws IOException
+    {
+        out.writeUTF(str.length() > MAX_UTF_LENGTH? str.substring(0, MAX_UTF_LENGTH): str);
+    }   //writeUtf
+
+}   //class TrcBinaryTraceLog
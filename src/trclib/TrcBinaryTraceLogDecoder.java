@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class implements a decoder of the binary trace log written by TrcBinaryTraceLog. It reads the log entry by
+ * entry and can convert the whole log back to the text trace log format or export the typed records as CSV. It can
+ * be run standalone on a desktop:
+ *
+ *  java trclib.TrcBinaryTraceLogDecoder [-csv] logFile [outFile]
+ *
+ * If the log was written in memory-mapped segments, the following segments (logFile.1, logFile.2, ...) are read
+ * after logFile.
+ */
+public class TrcBinaryTraceLogDecoder
+{
+    private final DataInputStream in;
+    private final long startTime;
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final HashMap<Integer, TrcDbgTrace.RecordFormat> formats = new HashMap<>();
+    private final double[] fields = new double[TrcTraceWriter.MAX_RECORD_FIELDS];
+    private long elapsedTime = 0;
+    private boolean isRecord = false;
+    private TrcDbgTrace.MsgLevel level = null;
+    private String instanceName = null;
+    private String funcName = null;
+    private int formatId = -1;
+    private int numFields = 0;
+    private String text = null;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param in specifies the input stream of the binary log.
+     * @throws IOException if the stream is not a binary trace log.
+     */
+    public TrcBinaryTraceLogDecoder(InputStream in) throws IOException
+    {
+        byte[] magic = new byte[TrcBinaryTraceLog.MAGIC.length];
+
+        this.in = new DataInputStream(in);
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, TrcBinaryTraceLog.MAGIC))
+        {
+            throw new IOException("Not a binary trace log.");
+        }
+
+        int version = this.in.readUnsignedByte();
+        if (version != TrcBinaryTraceLog.VERSION)
+        {
+            throw new IOException("Unsupported binary trace log version " + version + ".");
+        }
+        startTime = this.in.readLong();
+    }   //TrcBinaryTraceLogDecoder
+
+    /**
+     * This method returns the time the log was opened.
+     *
+     * @return start time in epoch msec.
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }   //getStartTime
+
+    /**
+     * This method reads the next record or message of the log. String table and schema entries are processed along
+     * the way.
+     *
+     * @return true if an entry is read, false if the end of the log is reached.
+     * @throws IOException if the log is corrupted.
+     */
+    public boolean next() throws IOException
+    {
+        int tag;
+
+        do
+        {
+            tag = readEntry();
+        } while (tag != -1 && tag != TrcBinaryTraceLog.TAG_RECORD && tag != TrcBinaryTraceLog.TAG_MESSAGE);
+
+        return tag != -1;
+    }   //next
+
+    /**
+     * This method reads exactly one entry of any type from the log. It is used by TrcLogArchiver to find the entry
+     * boundaries of the log.
+     *
+     * @return tag of the entry read, -1 if the end of the log is reached.
+     * @throws IOException if the log is corrupted.
+     */
+    int readEntry() throws IOException
+    {
+        int tag = in.read();
+
+        if (tag < 0 || tag == TrcBinaryTraceLog.TAG_END)
+        {
+            //
+            // A zero tag is the padding of a log segment that was never closed, there is no more data after it.
+            //
+            return -1;
+        }
+
+        try
+        {
+            switch (tag)
+            {
+                case TrcBinaryTraceLog.TAG_STRING:
+                    int stringId = (int)readVarint();
+                    String str = in.readUTF();
+                    while (strings.size() <= stringId)
+                    {
+                        strings.add(null);
+                    }
+                    strings.set(stringId, str);
+                    break;
+
+                case TrcBinaryTraceLog.TAG_FORMAT:
+                    int id = (int)readVarint();
+                    String func = getString((int)readVarint());
+                    TrcDbgTrace.MsgLevel msgLevel = getMsgLevel(in.readUnsignedByte());
+                    formats.put(id, new TrcDbgTrace.RecordFormat(func, msgLevel, in.readUTF()));
+                    break;
+
+                case TrcBinaryTraceLog.TAG_RECORD:
+                    readTimeDelta();
+                    formatId = (int)readVarint();
+                    instanceName = getString((int)readVarint());
+                    numFields = Math.min(in.readUnsignedByte(), fields.length);
+                    for (int i = 0; i < numFields; i++)
+                    {
+                        fields[i] = in.readDouble();
+                    }
+                    TrcDbgTrace.RecordFormat recordFormat = formats.get(formatId);
+                    if (recordFormat == null)
+                    {
+                        throw new IOException("Record has undefined format " + formatId + ".");
+                    }
+                    isRecord = true;
+                    level = recordFormat.getLevel();
+                    funcName = recordFormat.getFuncName();
+                    text = null;
+                    break;
+
+                case TrcBinaryTraceLog.TAG_MESSAGE:
+                    readTimeDelta();
+                    level = getMsgLevel(in.readUnsignedByte());
+                    instanceName = getString((int)readVarint());
+                    funcName = getString((int)readVarint());
+                    text = in.readUTF();
+                    isRecord = false;
+                    formatId = -1;
+                    numFields = 0;
+                    break;
+
+                case TrcBinaryTraceLog.TAG_TIME:
+                    elapsedTime = readVarint();
+                    break;
+
+                default:
+                    throw new IOException("Unknown tag " + tag + ".");
+            }
+        }
+        catch (EOFException e)
+        {
+            //
+            // The robot may have been powered off in the middle of an entry, ignore the partial entry.
+            //
+            tag = -1;
+        }
+
+        return tag;
+    }   //readEntry
+
+    /**
+     * This method returns the time of the current entry since the log was opened in usec.
+     *
+     * @return time in usec.
+     */
+    long getElapsedTimeMicros()
+    {
+        return elapsedTime;
+    }   //getElapsedTimeMicros
+
+    /**
+     * This method returns the time of the current entry since the log was opened.
+     *
+     * @return time in seconds.
+     */
+    public double getElapsedTime()
+    {
+        return elapsedTime/1000000.0;
+    }   //getElapsedTime
+
+    /**
+     * This method checks if the current entry is a typed record or a text message.
+     *
+     * @return true if it is a typed record, false if it is a text message.
+     */
+    public boolean isRecord()
+    {
+        return isRecord;
+    }   //isRecord
+
+    /**
+     * This method returns the message level of the current entry.
+     *
+     * @return message level.
+     */
+    public TrcDbgTrace.MsgLevel getLevel()
+    {
+        return level;
+    }   //getLevel
+
+    /**
+     * This method returns the instance name of the tracer of the current entry.
+     *
+     * @return instance name.
+     */
+    public String getInstanceName()
+    {
+        return instanceName;
+    }   //getInstanceName
+
+    /**
+     * This method returns the calling method name of the current entry.
+     *
+     * @return method name.
+     */
+    public String getFuncName()
+    {
+        return funcName;
+    }   //getFuncName
+
+    /**
+     * This method returns the format ID of the current record.
+     *
+     * @return format ID, -1 if the current entry is a text message.
+     */
+    public int getFormatId()
+    {
+        return formatId;
+    }   //getFormatId
+
+    /**
+     * This method returns the format string of the current record.
+     *
+     * @return format string, null if the current entry is a text message.
+     */
+    public String getFormat()
+    {
+        return isRecord? formats.get(formatId).getFormat(): null;
+    }   //getFormat
+
+    /**
+     * This method returns the number of fields of the current record.
+     *
+     * @return number of fields.
+     */
+    public int getNumFields()
+    {
+        return numFields;
+    }   //getNumFields
+
+    /**
+     * This method returns a field of the current record.
+     *
+     * @param index specifies the field index.
+     * @return field value.
+     */
+    public double getField(int index)
+    {
+        if (index >= numFields)
+        {
+            throw new IndexOutOfBoundsException("Field " + index + " is out of range.");
+        }
+
+        return fields[index];
+    }   //getField
+
+    /**
+     * This method returns the message text of the current entry, formatting the record if necessary.
+     *
+     * @return message text.
+     */
+    public String getText()
+    {
+        if (text == null)
+        {
+            text = formats.get(formatId).format(fields, numFields);
+        }
+
+        return text;
+    }   //getText
+
+    /**
+     * This method returns the current entry as a line of the text trace log, without the line terminator.
+     *
+     * @return trace log line.
+     */
+    public String getTraceLine()
+    {
+        return TrcDbgTrace.msgPrefix(instanceName, funcName, level) + getText();
+    }   //getTraceLine
+
+    /**
+     * This method converts a binary log to the text trace log format.
+     *
+     * @param in specifies the input stream of the binary log.
+     * @param out specifies the output stream of the text log.
+     * @throws IOException if the log is corrupted.
+     */
+    public static void decodeToText(InputStream in, PrintStream out) throws IOException
+    {
+        TrcBinaryTraceLogDecoder decoder = new TrcBinaryTraceLogDecoder(in);
+
+        while (decoder.next())
+        {
+            out.print(decoder.getTraceLine() + "\r\n");
+        }
+        out.flush();
+    }   //decodeToText
+
+    /**
+     * This method exports the typed records of a binary log as CSV. Each row has the time in seconds, the message
+     * level, the instance name, the method name, the format ID and the fields. Text messages are skipped.
+     *
+     * @param in specifies the input stream of the binary log.
+     * @param out specifies the output stream of the CSV.
+     * @throws IOException if the log is corrupted.
+     */
+    public static void decodeToCsv(InputStream in, PrintStream out) throws IOException
+    {
+        TrcBinaryTraceLogDecoder decoder = new TrcBinaryTraceLogDecoder(in);
+        StringBuilder sb = new StringBuilder();
+
+        out.print("time,level,instance,method,formatId,fields\r\n");
+        while (decoder.next())
+        {
+            if (decoder.isRecord())
+            {
+                sb.setLength(0);
+                sb.append(String.format("%.6f", decoder.getElapsedTime())).append(',');
+                sb.append(decoder.getLevel()).append(',');
+                sb.append(csvString(decoder.getInstanceName())).append(',');
+                sb.append(csvString(decoder.getFuncName())).append(',');
+                sb.append(decoder.getFormatId());
+                for (int i = 0; i < decoder.getNumFields(); i++)
+                {
+                    double value = decoder.getField(i);
+
+                    sb.append(',');
+                    if (value == Math.rint(value) && Math.abs(value) < 1e15)
+                    {
+                        sb.append((long)value);
+                    }
+                    else
+                    {
+                        sb.append(value);
+                    }
+                }
+                out.print(sb.append("\r\n"));
+            }
+        }
+        out.flush();
+    }   //decodeToCsv
+
+    /**
+     * This method decodes a binary log file to text or CSV. The log file may also be an archive created by
+     * TrcLogArchiver.
+     *
+     * @param args specifies the command line arguments: [-csv] logFile [outFile].
+     */
+    public static void main(String[] args)
+    {
+        boolean csv = args.length > 0 && args[0].equals("-csv");
+        int argIndex = csv? 1: 0;
+
+        if (args.length - argIndex < 1 || args.length - argIndex > 2)
+        {
+            System.err.println("Usage: TrcBinaryTraceLogDecoder [-csv] logFile [outFile]");
+            System.exit(1);
+        }
+
+        String logPath = args[argIndex];
+
+        try (InputStream in = new BufferedInputStream(
+                logPath.endsWith(TrcLogArchiver.ARCHIVE_SUFFIX)?
+                    TrcLogArchiver.openArchive(logPath): TrcMappedLogOutputStream.openSegments(logPath)))
+        {
+            PrintStream out = args.length - argIndex == 2? new PrintStream(args[argIndex + 1]): System.out;
+
+            if (csv)
+            {
+                decodeToCsv(in, out);
+            }
+            else
+            {
+                decodeToText(in, out);
+            }
+
+            if (out != System.out)
+            {
+                out.close();
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            System.err.println("File not found: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed to decode " + args[argIndex] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }   //main
+
+    /**
+     * This method reads the time delta of an entry and updates the elapsed time.
+     *
+     * @throws IOException if reading failed.
+     */
+    private void readTimeDelta() throws IOException
+    {
+        long zigzag = readVarint();
+        elapsedTime += (zigzag >>> 1) ^ -(zigzag & 1);
+    }   //readTimeDelta
+
+    /**
+     * This method reads an unsigned variable length integer.
+     *
+     * @return value read.
+     * @throws IOException if reading failed.
+     */
+    private long readVarint() throws IOException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint.");
+    }   //readVarint
+
+    /**
+     * This method looks up a string in the string table.
+     *
+     * @param stringId specifies the string ID.
+     * @return string.
+     * @throws IOException if the string is not defined.
+     */
+    private String getString(int stringId) throws IOException
+    {
+        String str = stringId < strings.size()? strings.get(stringId): null;
+
+        if (str == null)
+        {
+            throw new IOException("Undefined string " + stringId + ".");
+        }
+
+        return str;
+    }   //getString
+
+    /**
+     * This method converts a message level value to the message level.
+     *
+     * @param value specifies the message level value.
+     * @return message level.
+     * @throws IOException if the value is not a message level.
+     */
+    private static TrcDbgTrace.MsgLevel getMsgLevel(int value) throws IOException
+    {
+        for (TrcDbgTrace.MsgLevel msgLevel: TrcDbgTrace.MsgLevel.values())
+        {
+            if (msgLevel.getValue() == value)
+            {
+                return msgLevel;
+            }
+        }
+
+        throw new IOException("Unknown message level " + value + ".");
+    }   //getMsgLevel
+
+    /**
+     * This method quotes a string for CSV if necessary.
+     *
+     * @param str specifies the string.
+     * @return CSV string.
+     */
+    private static String csvString(final String str)
+    {
+        return str.indexOf(',') >= 0 || str.indexOf('"') >= 0? "\"" + str.replace("\"", "\"\"") + "\"": str;
+    }   //csvString
+
+}   //class TrcBinaryTraceLogDecoder
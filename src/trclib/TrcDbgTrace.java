@@ -22,12 +22,22 @@
 
 package trclib;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import hallib.HalDbgLog;
 
@@ -90,15 +100,216 @@ public class TrcDbgTrace
 
     }   //enum MsgLevel
 
+    /**
+     * This class implements the trace context of a thread. Each thread has its own indent level for method tracing,
+     * so traces from different threads don't corrupt each other's indentation. A thread may also have a tag that
+     * is prepended to the instance name of every message it traces, so interleaved messages from different threads
+     * can be told apart.
+     */
+    private static class ThreadContext
+    {
+        private int indentLevel = 0;
+        private String threadTag = null;
+        private final IdentityHashMap<TrcDbgTrace, String> taggedNames = new IdentityHashMap<>();
+
+    }   //class ThreadContext
+
+    /**
+     * This class implements the rate limit of a call site. It lets a message through at most once per interval.
+     */
+    private static class RateLimit
+    {
+        private final AtomicLong nextTime = new AtomicLong(System.nanoTime());
+
+        /**
+         * This method checks if the interval has passed since the last message let through and if so, starts a new
+         * interval.
+         *
+         * @param intervalNanos specifies the interval in nano seconds.
+         * @return true if the message should go through, false if it should be suppressed.
+         */
+        public boolean tryAcquire(long intervalNanos)
+        {
+            long currTime = System.nanoTime();
+            long next = nextTime.get();
+
+            return currTime - next >= 0 && nextTime.compareAndSet(next, currTime + intervalNanos);
+        }   //tryAcquire
+
+    }   //class RateLimit
+
+    /**
+     * This class implements a registered record format. The conversions of the format string are parsed once at
+     * registration so that the numeric fields of a record can be converted to the argument types the format expects.
+     * It is also used by the binary trace log decoder to format the records read from a log.
+     */
+    static class RecordFormat
+    {
+        private static final Pattern CONVERSION_PATTERN =
+            Pattern.compile("%(\\d+\\$)?[-#+ 0,(<]*(\\d+)?(\\.\\d+)?([tT])?([a-zA-Z%])");
+
+        private final String funcName;
+        private final MsgLevel level;
+        private final String format;
+        private final char[] conversions;
+        private final long intervalNanos;
+        private final RateLimit rateLimit;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param funcName specifies the calling method name.
+         * @param level specifies the message level.
+         * @param format specifies the format string.
+         * @param traceInterval specifies the minimum interval in seconds between records, zero if not periodic.
+         */
+        public RecordFormat(final String funcName, MsgLevel level, final String format, double traceInterval)
+        {
+            Matcher matcher = CONVERSION_PATTERN.matcher(format);
+            char[] convs = new char[TrcTraceWriter.MAX_RECORD_FIELDS];
+            int numConvs = 0;
+
+            while (matcher.find())
+            {
+                char conv = matcher.group(4) != null? 't': matcher.group(5).charAt(0);
+
+                if (conv != '%' && conv != 'n')
+                {
+                    if (numConvs == convs.length)
+                    {
+                        throw new IllegalArgumentException(
+                            "Format has more than " + convs.length + " fields: " + format);
+                    }
+                    convs[numConvs++] = conv;
+                }
+            }
+
+            this.funcName = funcName;
+            this.level = level;
+            this.format = format;
+            this.conversions = Arrays.copyOf(convs, numConvs);
+            this.intervalNanos = (long)(traceInterval*1000000000.0);
+            this.rateLimit = intervalNanos > 0? new RateLimit(): null;
+        }   //RecordFormat
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param funcName specifies the calling method name.
+         * @param level specifies the message level.
+         * @param format specifies the format string.
+         */
+        public RecordFormat(final String funcName, MsgLevel level, final String format)
+        {
+            this(funcName, level, format, 0.0);
+        }   //RecordFormat
+
+        /**
+         * This method returns the calling method name of the record.
+         *
+         * @return calling method name.
+         */
+        public String getFuncName()
+        {
+            return funcName;
+        }   //getFuncName
+
+        /**
+         * This method returns the message level of the record.
+         *
+         * @return message level.
+         */
+        public MsgLevel getLevel()
+        {
+            return level;
+        }   //getLevel
+
+        /**
+         * This method returns the format string of the record.
+         *
+         * @return format string.
+         */
+        public String getFormat()
+        {
+            return format;
+        }   //getFormat
+
+        /**
+         * This method formats the numeric fields of a record. Each field is converted to the type expected by its
+         * conversion, e.g. a long for %d or %x.
+         *
+         * @param fields specifies the array containing the fields.
+         * @param numFields specifies the number of fields in the array.
+         * @return formatted string.
+         */
+        public String format(double[] fields, int numFields)
+        {
+            Object[] args = new Object[Math.min(numFields, conversions.length)];
+
+            for (int i = 0; i < args.length; i++)
+            {
+                double value = fields[i];
+
+                switch (conversions[i])
+                {
+                    case 'd':
+                    case 'o':
+                    case 'x':
+                    case 'X':
+                    case 't':
+                        args[i] = (long)value;
+                        break;
+
+                    case 'c':
+                    case 'C':
+                        args[i] = (char)value;
+                        break;
+
+                    case 'b':
+                    case 'B':
+                        args[i] = value != 0.0;
+                        break;
+
+                    default:
+                        args[i] = value;
+                        break;
+                }
+            }
+
+            return String.format(format, args);
+        }   //format
+
+    }   //class RecordFormat
+
+    private static final int TRACE_LOG_BUFFER_SIZE = 65536;
+    private static final int MAPPED_LOG_BUFFER_SIZE = 8192;
+    private static final int DEF_WRITER_CAPACITY = 4096;
+
     private static TrcDbgTrace globalTracer = null;
-    private static int indentLevel = 0;
+    private static final ThreadLocal<ThreadContext> threadContext = new ThreadLocal<ThreadContext>()
+    {
+        @Override
+        protected ThreadContext initialValue()
+        {
+            return new ThreadContext();
+        }   //initialValue
+    };
+    private static final Object consoleLock = new Object();
+    private static volatile TrcTraceWriter asyncWriter = null;
+    private static volatile RecordFormat[] recordFormats = new RecordFormat[0];
+    private static int mappedLogSegmentSize = 0;
+    private static double mappedLogForceInterval = 0.0;
+    private static volatile boolean traceLogArchiving = false;
 
     private String instanceName;
     private boolean traceEnabled;
     private TraceLevel traceLevel;
     private MsgLevel msgLevel;
-    private double nextTraceTime;
-    private PrintStream traceLog = null;
+    private final ConcurrentHashMap<Object, RateLimit> rateLimits = new ConcurrentHashMap<>();
+    private volatile PrintStream traceLog = null;
+    private volatile TrcBinaryTraceLog binaryLog = null;
+    private String traceLogPath = null;
+    private String binaryLogPath = null;
 
     /**
      * Constructor: Create an instance of the object.
@@ -112,7 +323,6 @@ public class TrcDbgTrace
     {
         this.instanceName = instanceName;
         setDbgTraceConfig(traceEnabled, traceLevel, msgLevel);
-        this.nextTraceTime = TrcUtil.getCurrentTime();
     }   //TrcDbgTrace
 
     /**
@@ -122,7 +332,7 @@ public class TrcDbgTrace
      *
      * @return global opMode trace object.
      */
-    public static TrcDbgTrace getGlobalTracer()
+    public static synchronized TrcDbgTrace getGlobalTracer()
     {
         if (globalTracer == null)
         {
@@ -133,6 +343,31 @@ public class TrcDbgTrace
         return globalTracer;
     }   //getGlobalTracer
 
+    /**
+     * This method sets the tag of the calling thread. The tag is prepended to the instance name of every message
+     * traced by this thread, e.g. [PixyCam]GlobalTracer.getTargetRect_Info: ... It is typically set by a thread
+     * when it starts running. The robot loop thread has no tag so its messages look as before.
+     *
+     * @param tag specifies the thread tag, null for no tag.
+     */
+    public static void setThreadTag(final String tag)
+    {
+        ThreadContext context = threadContext.get();
+
+        context.threadTag = tag;
+        context.taggedNames.clear();
+    }   //setThreadTag
+
+    /**
+     * This method returns the tag of the calling thread.
+     *
+     * @return thread tag, null if none.
+     */
+    public static String getThreadTag()
+    {
+        return threadContext.get().threadTag;
+    }   //getThreadTag
+
     /**
      * This method sets the global tracer configuration. The OpMode trace object was created with default
      * configuration of disabled method tracing, method tracing level is set to API and message trace level
@@ -148,6 +383,191 @@ public class TrcDbgTrace
         globalTracer.setDbgTraceConfig(traceEnabled, traceLevel, msgLevel);
     }   //setGlobalTracerConfig
 
+    /**
+     * This method starts the background trace writer. Once started, all tracers queue their messages to the writer
+     * instead of formatting and writing them on the calling thread. The writer formats the messages, prints them to
+     * the console and the trace logs and flushes the trace logs in batches. This keeps the console and file I/O out
+     * of the robot loop.
+     *
+     * Since the messages are formatted later, the message arguments should be immutable values such as numbers and
+     * strings.
+     *
+     * @param capacity specifies the number of messages the writer can hold.
+     * @param overflowPolicy specifies what to do when the writer is full.
+     */
+    public static synchronized void startAsyncWriter(int capacity, TrcTraceWriter.OverflowPolicy overflowPolicy)
+    {
+        if (asyncWriter == null)
+        {
+            TrcTraceWriter writer = new TrcTraceWriter("TraceWriter", capacity, overflowPolicy);
+            writer.start();
+            asyncWriter = writer;
+        }
+    }   //startAsyncWriter
+
+    /**
+     * This method starts the background trace writer with default capacity, dropping the oldest messages when it
+     * is full.
+     */
+    public static void startAsyncWriter()
+    {
+        startAsyncWriter(DEF_WRITER_CAPACITY, TrcTraceWriter.OverflowPolicy.DROP_OLDEST);
+    }   //startAsyncWriter
+
+    /**
+     * This method stops the background trace writer after it has written all pending messages. Tracing goes back
+     * to writing messages on the calling thread.
+     */
+    public static synchronized void stopAsyncWriter()
+    {
+        TrcTraceWriter writer = asyncWriter;
+
+        if (writer != null)
+        {
+            asyncWriter = null;
+            writer.stop();
+        }
+    }   //stopAsyncWriter
+
+    /**
+     * This method returns the background trace writer so that its counters can be examined.
+     *
+     * @return background trace writer, null if not started.
+     */
+    public static TrcTraceWriter getAsyncWriter()
+    {
+        return asyncWriter;
+    }   //getAsyncWriter
+
+    /**
+     * This method registers the format of a typed trace record and returns its format ID. It is typically called
+     * once per call site, when the class is loaded or the object is created. The format ID is then passed to
+     * traceRecord along with the numeric fields of the record. Integral conversions such as %d and %x are formatted
+     * from the integer part of the field.
+     *
+     * @param funcName specifies the calling method name printed with the record.
+     * @param level specifies the message level of the record.
+     * @param format specifies the format string of the record, with only numeric conversions.
+     * @return format ID of the record.
+     */
+    public static int registerFormat(final String funcName, MsgLevel level, final String format)
+    {
+        return registerFormat(funcName, level, format, 0.0);
+    }   //registerFormat
+
+    /**
+     * This method registers the format of a periodic typed trace record and returns its format ID. The record is
+     * printed at most once per trace interval, no matter which tracer prints it. Records suppressed this way cost
+     * nothing more than a time check.
+     *
+     * @param funcName specifies the calling method name printed with the record.
+     * @param level specifies the message level of the record.
+     * @param format specifies the format string of the record, with only numeric conversions.
+     * @param traceInterval specifies the minimum interval in seconds between records.
+     * @return format ID of the record.
+     */
+    public static synchronized int registerFormat(
+        final String funcName, MsgLevel level, final String format, double traceInterval)
+    {
+        RecordFormat[] formats = Arrays.copyOf(recordFormats, recordFormats.length + 1);
+        int formatId = recordFormats.length;
+
+        formats[formatId] = new RecordFormat(funcName, level, format, traceInterval);
+        recordFormats = formats;
+
+        return formatId;
+    }   //registerFormat
+
+    /**
+     * This method returns the format string of a registered record format.
+     *
+     * @param formatId specifies the format ID.
+     * @return format string.
+     */
+    public static String getRecordFormat(int formatId)
+    {
+        return recordFormats[formatId].format;
+    }   //getRecordFormat
+
+    /**
+     * This method formats the numeric fields of a typed record with its registered format. It is used by the
+     * background writer and when there is no background writer.
+     *
+     * @param formatId specifies the format ID.
+     * @param fields specifies the array containing the fields.
+     * @param numFields specifies the number of fields in the array.
+     * @return formatted string.
+     */
+    static String formatRecord(int formatId, double[] fields, int numFields)
+    {
+        return recordFormats[formatId].format(fields, numFields);
+    }   //formatRecord
+
+    /**
+     * This method returns a registered record format.
+     *
+     * @param formatId specifies the format ID.
+     * @return record format.
+     */
+    static RecordFormat getRegisteredFormat(int formatId)
+    {
+        return recordFormats[formatId];
+    }   //getRegisteredFormat
+
+    /**
+     * This method makes the trace logs opened from now on write into memory-mapped, preallocated segments instead
+     * of regular files, see TrcMappedLogOutputStream. Writing a message then costs a memory copy instead of a write
+     * system call, and the segments are forced to storage at most once per force interval instead of on every
+     * message. A segment size of zero goes back to regular files.
+     *
+     * @param segmentSize specifies the size of each log segment in bytes, 0 to disable.
+     * @param forceInterval specifies the minimum interval in seconds between forcing a segment to storage.
+     */
+    public static synchronized void setMappedTraceLogs(int segmentSize, double forceInterval)
+    {
+        mappedLogSegmentSize = segmentSize;
+        mappedLogForceInterval = forceInterval;
+    }   //setMappedTraceLogs
+
+    /**
+     * This method enables or disables archiving of the trace logs. When enabled, a trace log is queued to be
+     * compressed in the background by TrcLogArchiver when it is closed. The archiver suspends itself within a few
+     * msec when the robot is enabled.
+     *
+     * @param enabled specifies true to enable archiving, false to disable.
+     */
+    public static void setTraceLogArchiving(boolean enabled)
+    {
+        traceLogArchiving = enabled;
+    }   //setTraceLogArchiving
+
+    /**
+     * This method creates the output stream of a trace log file, either a regular file or memory-mapped segments.
+     * The stream is buffered and flushed explicitly, either after each message or by the background writer in
+     * batches.
+     *
+     * @param traceLogName specifies the trace log file name.
+     * @return output stream of the trace log.
+     * @throws IOException if the file cannot be created.
+     */
+    private static synchronized OutputStream createLogStream(final String traceLogName) throws IOException
+    {
+        OutputStream out;
+
+        if (mappedLogSegmentSize > 0)
+        {
+            out = new BufferedOutputStream(
+                new TrcMappedLogOutputStream(traceLogName, mappedLogSegmentSize, mappedLogForceInterval),
+                MAPPED_LOG_BUFFER_SIZE);
+        }
+        else
+        {
+            out = new BufferedOutputStream(new FileOutputStream(new File(traceLogName)), TRACE_LOG_BUFFER_SIZE);
+        }
+
+        return out;
+    }   //createLogStream
+
     /**
      * This method opens a log file for writing all the trace messages to it.
      *
@@ -160,9 +580,10 @@ public class TrcDbgTrace
 
         try
         {
-            traceLog = new PrintStream(new File(traceLogName));
+            traceLog = new PrintStream(createLogStream(traceLogName));
+            traceLogPath = traceLogName;
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
             traceLog = null;
             success = false;
@@ -190,14 +611,88 @@ public class TrcDbgTrace
     }   //openTraceLog
 
     /**
-     * This method closes the trace log file.
+     * This method opens a binary log file for writing all the trace messages to it. Typed records are written in
+     * compact binary form and other messages as text, see TrcBinaryTraceLog. The log can be converted back to the
+     * text trace log format with TrcBinaryTraceLogDecoder.
+     *
+     * @param traceLogName specifies the trace log file name.
+     * @return true if log file is successfully opened, false if it failed.
+     */
+    public boolean openBinaryTraceLog(final String traceLogName)
+    {
+        boolean success = true;
+
+        try
+        {
+            binaryLog = new TrcBinaryTraceLog(traceLogName, createLogStream(traceLogName));
+            binaryLogPath = traceLogName;
+        }
+        catch (IOException e)
+        {
+            binaryLog = null;
+            success = false;
+        }
+
+        return success;
+    }   //openBinaryTraceLog
+
+    /**
+     * This method opens a binary log file for writing all the trace messages to it. The log file is written to the
+     * specified folder. The file name will be formed by concatenating the specified file prefix and a date-time
+     * stamp.
+     *
+     * @param folderPath specifies the folder path.
+     * @param filePrefix specifies the file name prefix.
+     * @return true if log file is successfully opened, false if it failed.
+     */
+    public boolean openBinaryTraceLog(final String folderPath, final String filePrefix)
+    {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd@HH-mm-ss", Locale.US);
+        String logFilePath = folderPath + "/" + filePrefix + "_" + dateFormat.format(new Date()) + ".blog";
+        File folder = new File(folderPath);
+        folder.mkdir();
+
+        return openBinaryTraceLog(logFilePath);
+    }   //openBinaryTraceLog
+
+    /**
+     * This method closes the trace log file, text or binary.
      */
     public void closeTraceLog()
     {
-        if (traceLog != null)
+        if (traceLog != null || binaryLog != null)
         {
-            traceLog.close();
+            PrintStream log = traceLog;
+            TrcBinaryTraceLog binLog = binaryLog;
+            TrcTraceWriter writer = asyncWriter;
+
             traceLog = null;
+            binaryLog = null;
+            if (writer != null)
+            {
+                //
+                // Make sure the writer has written out all the messages queued for this log before closing it.
+                //
+                writer.flush();
+            }
+
+            if (log != null)
+            {
+                log.close();
+                if (traceLogArchiving)
+                {
+                    TrcLogArchiver.archive(traceLogPath);
+                }
+            }
+
+            if (binLog != null)
+            {
+                binLog.close();
+                if (traceLogArchiving)
+                {
+                    TrcLogArchiver.archive(binaryLogPath);
+                }
+            }
         }
     }   //closeTraceLog
 
@@ -228,7 +723,9 @@ public class TrcDbgTrace
     {
         if (traceEnabled && funcLevel.getValue() <= traceLevel.getValue())
         {
-            HalDbgLog.traceMsg(tracePrefix(funcName, true, false) + String.format(format, args) + ")\n");
+            ThreadContext context = threadContext.get();
+            context.indentLevel++;
+            traceText(context.indentLevel, funcName, true, false, format, args);
         }
     }   //traceEnter
 
@@ -242,7 +739,9 @@ public class TrcDbgTrace
     {
         if (traceEnabled && funcLevel.getValue() <= traceLevel.getValue())
         {
-            HalDbgLog.traceMsg(tracePrefix(funcName, true, true));
+            ThreadContext context = threadContext.get();
+            context.indentLevel++;
+            traceText(context.indentLevel, funcName, true, true, null, null);
         }
     }   //traceEnter
 
@@ -258,7 +757,9 @@ public class TrcDbgTrace
     {
         if (traceEnabled && funcLevel.getValue() <= traceLevel.getValue())
         {
-            HalDbgLog.traceMsg(tracePrefix(funcName, false, false) + String.format(format, args) + "\n");
+            ThreadContext context = threadContext.get();
+            traceText(context.indentLevel, funcName, false, false, format, args);
+            context.indentLevel--;
         }
     }   //traceExitMsg
 
@@ -271,7 +772,9 @@ public class TrcDbgTrace
     {
         if (traceEnabled && funcLevel.getValue() <= traceLevel.getValue())
         {
-            HalDbgLog.traceMsg(tracePrefix(funcName, false, true));
+            ThreadContext context = threadContext.get();
+            traceText(context.indentLevel, funcName, false, true, null, null);
+            context.indentLevel--;
         }
     }   //traceExit
 
@@ -337,9 +840,12 @@ public class TrcDbgTrace
 
     /**
      * This method is called to print a message only if the given time interval has been passed since the last
-     * periodic message. This is useful to print out periodic status without overwhelming the debug console.
+     * time this message was printed. This is useful to print out periodic status without overwhelming the debug
+     * console. The interval is kept per call site, identified by the format string, so periodic messages from
+     * different call sites don't suppress each other.
      *
      * @param funcName specifies the calling method name.
+     * @param traceInterval specifies the minimum interval in seconds between messages.
      * @param format specifies the format string of the message.
      * @param args specifies the message arguments.
      */
@@ -348,6 +854,92 @@ public class TrcDbgTrace
         traceMsg(funcName, MsgLevel.INFO, traceInterval, format, args);
     }   //tracePeriodic
 
+    /**
+     * This method is called to print a fatal message built by the given supplier. The supplier is only called if
+     * the message is printed, so a filtered message costs no formatting or argument work.
+     *
+     * @param funcName specifies the calling method name.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void traceFatal(final String funcName, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.FATAL, 0.0, msgSupplier);
+    }   //traceFatal
+
+    /**
+     * This method is called to print an error message built by the given supplier. The supplier is only called if
+     * the message is printed.
+     *
+     * @param funcName specifies the calling method name.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void traceErr(final String funcName, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.ERR, 0.0, msgSupplier);
+    }   //traceErr
+
+    /**
+     * This method is called to print a warning message built by the given supplier. The supplier is only called
+     * if the message is printed.
+     *
+     * @param funcName specifies the calling method name.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void traceWarn(final String funcName, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.WARN, 0.0, msgSupplier);
+    }   //traceWarn
+
+    /**
+     * This method is called to print an information message built by the given supplier. The supplier is only
+     * called if the message is printed.
+     *
+     * @param funcName specifies the calling method name.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void traceInfo(final String funcName, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.INFO, 0.0, msgSupplier);
+    }   //traceInfo
+
+    /**
+     * This method is called to print a verbose message built by the given supplier. The supplier is only called if
+     * the message is printed.
+     *
+     * @param funcName specifies the calling method name.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void traceVerbose(final String funcName, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.VERBOSE, 0.0, msgSupplier);
+    }   //traceVerbose
+
+    /**
+     * This method is called to print a message built by the given supplier only if the given time interval has
+     * been passed since the last time this message was printed. The call site is identified by the supplier's
+     * lambda, and the supplier is only called if the message is printed.
+     *
+     * @param funcName specifies the calling method name.
+     * @param traceInterval specifies the minimum interval in seconds between messages.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    public void tracePeriodic(final String funcName, double traceInterval, Supplier<String> msgSupplier)
+    {
+        traceMsg(funcName, MsgLevel.INFO, traceInterval, msgSupplier);
+    }   //tracePeriodic
+
+    /**
+     * This method checks if messages of the given level are printed by this tracer. It can be used to skip
+     * gathering the data of a message altogether.
+     *
+     * @param level specifies the message level.
+     * @return true if messages of the level are printed, false otherwise.
+     */
+    public boolean isMsgEnabled(MsgLevel level)
+    {
+        return level.getValue() <= msgLevel.getValue();
+    }   //isMsgEnabled
+
     /**
      * This method prints a debug message to the debug console.
      *
@@ -356,9 +948,115 @@ public class TrcDbgTrace
      */
     public void tracePrintf(String format, Object... args)
     {
-        HalDbgLog.traceMsg(String.format(format, args));
+        TrcTraceWriter writer = asyncWriter;
+
+        if (writer != null)
+        {
+            writer.putTrace(0, null, null, false, false, format, args);
+        }
+        else
+        {
+            String text = String.format(format, args);
+
+            synchronized (consoleLock)
+            {
+                HalDbgLog.traceMsg(text);
+            }
+        }
     }   //tracePrintf
 
+    /**
+     * This method prints a typed trace record with no field. Typed records have a format registered with
+     * registerFormat and numeric fields only, so that with the background writer running, tracing them does not
+     * allocate any memory. The record is formatted later by the writer.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     */
+    public void traceRecord(int formatId)
+    {
+        traceRecord(formatId, 0, 0.0, 0.0, 0.0, 0.0);
+    }   //traceRecord
+
+    /**
+     * This method prints a typed trace record with one field.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param field0 specifies the first field.
+     */
+    public void traceRecord(int formatId, double field0)
+    {
+        traceRecord(formatId, 1, field0, 0.0, 0.0, 0.0);
+    }   //traceRecord
+
+    /**
+     * This method prints a typed trace record with two fields.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param field0 specifies the first field.
+     * @param field1 specifies the second field.
+     */
+    public void traceRecord(int formatId, double field0, double field1)
+    {
+        traceRecord(formatId, 2, field0, field1, 0.0, 0.0);
+    }   //traceRecord
+
+    /**
+     * This method prints a typed trace record with three fields.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param field0 specifies the first field.
+     * @param field1 specifies the second field.
+     * @param field2 specifies the third field.
+     */
+    public void traceRecord(int formatId, double field0, double field1, double field2)
+    {
+        traceRecord(formatId, 3, field0, field1, field2, 0.0);
+    }   //traceRecord
+
+    /**
+     * This method prints a typed trace record with four fields.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param field0 specifies the first field.
+     * @param field1 specifies the second field.
+     * @param field2 specifies the third field.
+     * @param field3 specifies the fourth field.
+     */
+    public void traceRecord(int formatId, double field0, double field1, double field2, double field3)
+    {
+        traceRecord(formatId, 4, field0, field1, field2, field3);
+    }   //traceRecord
+
+    /**
+     * This method prints a typed trace record with the fields in an array. The caller typically keeps a
+     * preallocated array for the record and fills it before each call. The fields are copied so the array can be
+     * reused as soon as this method returns.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param fields specifies the array containing the fields.
+     * @param numFields specifies the number of fields in the array.
+     */
+    public void traceRecord(int formatId, double[] fields, int numFields)
+    {
+        RecordFormat recordFormat = recordFormats[formatId];
+
+        if (isRecordEnabled(recordFormat))
+        {
+            TrcTraceWriter writer = asyncWriter;
+
+            if (writer != null)
+            {
+                writer.putRecord(
+                    recordFormat.level, getTraceName(), recordFormat.funcName, traceLog, binaryLog, formatId, fields,
+                    numFields);
+            }
+            else
+            {
+                printRecord(recordFormat, formatId, fields, numFields);
+            }
+        }
+    }   //traceRecord
+
     /**
      * This method is the common worker for all the trace message methods.
      *
@@ -371,69 +1069,297 @@ public class TrcDbgTrace
     private void traceMsg(
             final String funcName, MsgLevel level, double traceInterval, final String format, Object... args)
     {
-        if (level.getValue() <= msgLevel.getValue())
+        if (isMsgEnabled(level) && isCallSiteDue(format, traceInterval))
+        {
+            TrcTraceWriter writer = asyncWriter;
+            if (writer != null)
+            {
+                writer.putMessage(level, getTraceName(), funcName, traceLog, binaryLog, format, args);
+            }
+            else
+            {
+                printMsg(funcName, level, String.format(format, args));
+            }
+        }
+    }   //traceMsg
+
+    /**
+     * This method is the common worker for all the trace message methods taking a message supplier.
+     *
+     * @param funcName specifies the calling method name.
+     * @param level specifies the message level.
+     * @param traceInterval specifies the tracing interval. If not periodic, this must be set to zero.
+     * @param msgSupplier specifies the supplier of the message.
+     */
+    private void traceMsg(final String funcName, MsgLevel level, double traceInterval, Supplier<String> msgSupplier)
+    {
+        //
+        // Each lambda expression has its own class, so the class identifies the call site.
+        //
+        if (isMsgEnabled(level) && isCallSiteDue(msgSupplier.getClass(), traceInterval))
+        {
+            String text = msgSupplier.get();
+            TrcTraceWriter writer = asyncWriter;
+            if (writer != null)
+            {
+                writer.putText(level, getTraceName(), funcName, traceLog, binaryLog, text);
+            }
+            else
+            {
+                printMsg(funcName, level, text);
+            }
+        }
+    }   //traceMsg
+
+    /**
+     * This method checks the rate limit of a call site. Non-periodic messages always go through.
+     *
+     * @param callSite specifies the key identifying the call site.
+     * @param traceInterval specifies the minimum interval in seconds between messages, zero if not periodic.
+     * @return true if the message should be printed, false if it should be suppressed.
+     */
+    private boolean isCallSiteDue(Object callSite, double traceInterval)
+    {
+        boolean due = true;
+
+        if (traceInterval > 0.0)
         {
-            double currTime = TrcUtil.getCurrentTime();
-            if (currTime >= nextTraceTime)
+            RateLimit rateLimit = rateLimits.get(callSite);
+
+            if (rateLimit == null)
             {
-                nextTraceTime = currTime + traceInterval;
-                String msg = msgPrefix(funcName, level) + String.format(format, args);
-                HalDbgLog.msg(level, msg + "\n");
-                if (traceLog != null)
+                RateLimit newRateLimit = new RateLimit();
+                rateLimit = rateLimits.putIfAbsent(callSite, newRateLimit);
+                if (rateLimit == null)
                 {
-                    traceLog.print(msg + "\r\n");
-                    traceLog.flush();
+                    rateLimit = newRateLimit;
                 }
             }
+            due = rateLimit.tryAcquire((long)(traceInterval*1000000000.0));
         }
-    }   //traceMsg
+
+        return due;
+    }   //isCallSiteDue
+
+    /**
+     * This method is the common worker for the typed record methods with up to four fields.
+     *
+     * @param formatId specifies the format ID returned by registerFormat.
+     * @param numFields specifies the number of fields.
+     * @param field0 specifies the first field.
+     * @param field1 specifies the second field.
+     * @param field2 specifies the third field.
+     * @param field3 specifies the fourth field.
+     */
+    private void traceRecord(
+        int formatId, int numFields, double field0, double field1, double field2, double field3)
+    {
+        RecordFormat recordFormat = recordFormats[formatId];
+
+        if (isRecordEnabled(recordFormat))
+        {
+            TrcTraceWriter writer = asyncWriter;
+
+            if (writer != null)
+            {
+                writer.putRecord(
+                    recordFormat.level, getTraceName(), recordFormat.funcName, traceLog, binaryLog, formatId, numFields,
+                    field0, field1, field2, field3);
+            }
+            else
+            {
+                printRecord(recordFormat, formatId, new double[] {field0, field1, field2, field3}, numFields);
+            }
+        }
+    }   //traceRecord
+
+    /**
+     * This method checks if a typed record should be printed according to the message level and the rate limit of
+     * its format.
+     *
+     * @param recordFormat specifies the record format.
+     * @return true if the record should be printed, false otherwise.
+     */
+    private boolean isRecordEnabled(RecordFormat recordFormat)
+    {
+        return isMsgEnabled(recordFormat.level) &&
+               (recordFormat.rateLimit == null || recordFormat.rateLimit.tryAcquire(recordFormat.intervalNanos));
+    }   //isRecordEnabled
+
+    /**
+     * This method returns the instance name as it should appear in traces from the calling thread. If the thread
+     * has a tag, the tagged name is built once and cached in the thread context so that tracing doesn't allocate.
+     *
+     * @return instance name prefixed with the thread tag if any.
+     */
+    private String getTraceName()
+    {
+        ThreadContext context = threadContext.get();
+        String name = instanceName;
+
+        if (context.threadTag != null)
+        {
+            name = context.taggedNames.get(this);
+            if (name == null)
+            {
+                name = "[" + context.threadTag + "]" + instanceName;
+                context.taggedNames.put(this, name);
+            }
+        }
+
+        return name;
+    }   //getTraceName
+
+    /**
+     * This method prints a formatted message to the debug console and the trace logs on the calling thread.
+     *
+     * @param funcName specifies the calling method name.
+     * @param level specifies the message level.
+     * @param text specifies the formatted message.
+     */
+    private void printMsg(final String funcName, MsgLevel level, final String text)
+    {
+        TrcBinaryTraceLog blog = binaryLog;
+
+        synchronized (consoleLock)
+        {
+            printText(funcName, level, text);
+            if (blog != null)
+            {
+                blog.writeMessage(System.nanoTime(), level, getTraceName(), funcName, text);
+                blog.flush();
+            }
+        }
+    }   //printMsg
+
+    /**
+     * This method prints a typed record to the debug console and the trace logs on the calling thread.
+     *
+     * @param recordFormat specifies the record format.
+     * @param formatId specifies the format ID.
+     * @param fields specifies the array containing the fields.
+     * @param numFields specifies the number of fields in the array.
+     */
+    private void printRecord(RecordFormat recordFormat, int formatId, double[] fields, int numFields)
+    {
+        TrcBinaryTraceLog blog = binaryLog;
+
+        synchronized (consoleLock)
+        {
+            printText(recordFormat.funcName, recordFormat.level, recordFormat.format(fields, numFields));
+            if (blog != null)
+            {
+                blog.writeRecord(System.nanoTime(), getTraceName(), formatId, fields, numFields);
+                blog.flush();
+            }
+        }
+    }   //printRecord
+
+    /**
+     * This method prints a formatted message to the debug console and the text trace log on the calling thread.
+     *
+     * @param funcName specifies the calling method name.
+     * @param level specifies the message level.
+     * @param text specifies the formatted message.
+     */
+    private void printText(final String funcName, MsgLevel level, final String text)
+    {
+        String msg = msgPrefix(getTraceName(), funcName, level) + text;
+        PrintStream log = traceLog;
+
+        synchronized (consoleLock)
+        {
+            HalDbgLog.msg(level, msg + "\n");
+            if (log != null)
+            {
+                log.print(msg + "\r\n");
+                log.flush();
+            }
+        }
+    }   //printText
 
     /**
-     * This method returns a trace prefix string. The trace prefix includes the indentation, the instance name and
-     * calling method name.
+     * This method prints a method trace to the debug console, either directly or through the background writer.
      *
+     * @param indent specifies the indent level.
      * @param funcName specifies the calling method name.
      * @param enter specifies true if it is a traceEnter call, false if it is a traceExit call.
-     * @param newline specifies true if it should print a newline, false otherwise.
-     * @return trace prefix string.
+     * @param newline specifies true if there is no message and the trace ends with a newline.
+     * @param format specifies the format string of the message, null if there is no message.
+     * @param args specifies the message arguments.
      */
-    private String tracePrefix(final String funcName, boolean enter, boolean newline)
+    private void traceText(
+        int indent, final String funcName, boolean enter, boolean newline, final String format, Object[] args)
     {
-        String prefix = "";
+        TrcTraceWriter writer = asyncWriter;
 
-        if (enter)
+        if (writer != null)
+        {
+            writer.putTrace(indent, getTraceName(), funcName, enter, newline, format, args);
+        }
+        else
         {
-            indentLevel++;
+            String text = traceText(
+                indent, getTraceName(), funcName, enter, newline, format != null? String.format(format, args): "");
+
+            synchronized (consoleLock)
+            {
+                HalDbgLog.traceMsg(text);
+            }
         }
+    }   //traceText
 
-        for (int i = 0; i < indentLevel; i++)
+    /**
+     * This method returns a method trace string. The trace string includes the indentation, the instance name and
+     * calling method name followed by the message.
+     *
+     * @param indent specifies the indent level.
+     * @param instanceName specifies the instance name of the tracer, null if the message has no prefix.
+     * @param funcName specifies the calling method name.
+     * @param enter specifies true if it is a traceEnter call, false if it is a traceExit call.
+     * @param newline specifies true if there is no message and the trace ends with a newline.
+     * @param text specifies the formatted message.
+     * @return method trace string.
+     */
+    static String traceText(
+        int indent, final String instanceName, final String funcName, boolean enter, boolean newline,
+        final String text)
+    {
+        if (instanceName == null)
         {
-            prefix += "| ";
+            return text;
         }
 
-        prefix += instanceName + "." + funcName;
+        StringBuilder sb = new StringBuilder(2*indent + instanceName.length() + funcName.length() + text.length() + 4);
+
+        for (int i = 0; i < indent; i++)
+        {
+            sb.append("| ");
+        }
+        sb.append(instanceName).append('.').append(funcName);
 
         if (enter)
         {
-            prefix += newline? "()\n": "(";
+            sb.append(newline? "()\n": "(").append(text).append(newline? "": ")\n");
         }
         else
         {
-            prefix += newline? "!\n": "";
-            indentLevel--;
+            sb.append(newline? "!": text).append('\n');
         }
 
-        return prefix;
-    }   //tracePrefix
+        return sb.toString();
+    }   //traceText
 
     /**
-     * This method returns a message prefix string.
+     * This method returns a message prefix string. It is also used by the background writer to format the queued
+     * messages.
      *
+     * @param instanceName specifies the instance name of the tracer.
      * @param funcName specifies the calling method name.
      * @param level specifies the message level.
      * @return message prefix string.
      */
-    private String msgPrefix(final String funcName, MsgLevel level)
+    static String msgPrefix(final String instanceName, final String funcName, MsgLevel level)
     {
         String prefix = instanceName + "." + funcName;
 
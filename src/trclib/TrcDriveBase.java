@@ -87,6 +87,13 @@ public class TrcDriveBase implements TrcTaskMgr.Task
     private double ySpeed;
     private double turnSpeed;
 
+    private final TrcFlightRecorder.Channel xPosChannel = TrcFlightRecorder.createChannel("DriveBase.xPos");
+    private final TrcFlightRecorder.Channel yPosChannel = TrcFlightRecorder.createChannel("DriveBase.yPos");
+    private final TrcFlightRecorder.Channel headingChannel = TrcFlightRecorder.createChannel("DriveBase.heading");
+    private final TrcFlightRecorder.Channel xSpeedChannel = TrcFlightRecorder.createChannel("DriveBase.xSpeed");
+    private final TrcFlightRecorder.Channel ySpeedChannel = TrcFlightRecorder.createChannel("DriveBase.ySpeed");
+    private final TrcFlightRecorder.Channel turnSpeedChannel = TrcFlightRecorder.createChannel("DriveBase.turnSpeed");
+
     /**
      * This method is called by different constructors to do common initialization.
      *
@@ -129,7 +136,7 @@ public class TrcDriveBase implements TrcTaskMgr.Task
         resetStallTimer();
 
         TrcTaskMgr taskMgr = TrcTaskMgr.getInstance();
-        taskMgr.registerTask(moduleName, this, TrcTaskMgr.TaskType.STOP_TASK);
+        taskMgr.registerTask(moduleName, this, TrcTaskMgr.TaskType.STOP_TASK, TrcTaskMgr.ENABLED_MODES);
         taskMgr.registerTask(moduleName, this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK);
     }   //commonInit
 
@@ -1122,10 +1129,7 @@ public class TrcDriveBase implements TrcTaskMgr.Task
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.TASK, "mode=%s", runMode.toString());
         }
 
-        if (runMode != TrcRobot.RunMode.DISABLED_MODE)
-        {
-            stop();
-        }
+        stop();
 
         if (debugEnabled)
         {
@@ -1282,6 +1286,12 @@ public class TrcDriveBase implements TrcTaskMgr.Task
         {
             heading = rotPos;
         }
+        xPosChannel.record(xPos);
+        yPosChannel.record(yPos);
+        headingChannel.record(heading);
+        xSpeedChannel.record(xSpeed);
+        ySpeedChannel.record(ySpeed);
+        turnSpeedChannel.record(turnSpeed);
 
         double lfPower = leftFrontMotor != null? leftFrontMotor.getPower(): 0.0;
         double rfPower = rightFrontMotor != null? rightFrontMotor.getPower(): 0.0;
@@ -41,6 +41,10 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
 
     public static final int MIN_VOLUME = -48;
     public static final int MAX_VOLUME = 18;
+    //
+    // The help message is over 1KB, it takes more than a second at 9600 baud.
+    //
+    private static final long QUERY_TIMEOUT = 5000;     // in msec
 
     public enum Voice
     {
@@ -114,7 +118,7 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
      * This method writes the string to the device asynchronously.
      *
      * @param text specifies the text string to be written to the device.
-     * @param preemptive specifies true for immediate write without queuing, false otherwise.
+     * @param preemptive specifies true to write ahead of all queued requests, false otherwise.
      */
     public abstract void asyncWriteString(String text, boolean preemptive);
 
@@ -133,6 +137,9 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
     private volatile String configMsg = null;
     private volatile String versionMsg = null;
     private volatile String helpMsg = null;
+    private final TrcEvent configEvent;
+    private final TrcEvent versionEvent;
+    private final TrcEvent helpEvent;
 
     /**
      * Constructor: Create an instance of the object.
@@ -147,6 +154,9 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
         }
 
         this.instanceName = instanceName;
+        configEvent = new TrcEvent(instanceName + ".config");
+        versionEvent = new TrcEvent(instanceName + ".version");
+        helpEvent = new TrcEvent(instanceName + ".help");
     }   //TrcEmic2TextToSpeech
 
     /**
@@ -380,12 +390,13 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
      * This method returns the current text-to-speech configuration.
      *
      * @param wait specifies true for synchronous access.
-     * @return current configuration string if wait is true, null otherwise.
+     * @return current configuration string if wait is true, null otherwise or if the query failed or timed out.
      */
     public String getCurrentConfig(boolean wait)
     {
         if (configMsg == null)
         {
+            configEvent.clear();
             asyncWriteString("C\n", false);
             asyncReadString(RequestTag.CONFIG_MSG);
             asyncReadString(RequestTag.PROMPT);
@@ -393,10 +404,7 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
 
         if (wait)
         {
-            while (configMsg == null)
-            {
-                Thread.yield();
-            }
+            configEvent.await(QUERY_TIMEOUT);
         }
 
         return configMsg;
@@ -406,12 +414,13 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
      * This method returns the firmware version.
      *
      * @param wait specifies true for synchronous access.
-     * @return firmware version string if wait is true, null otherwise.
+     * @return firmware version string if wait is true, null otherwise or if the query failed or timed out.
      */
     public String getVersion(boolean wait)
     {
         if (versionMsg == null)
         {
+            versionEvent.clear();
             asyncWriteString("V\n", false);
             asyncReadString(RequestTag.VERSION_MSG);
             asyncReadString(RequestTag.PROMPT);
@@ -419,10 +428,7 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
 
         if (wait)
         {
-            while (versionMsg == null)
-            {
-                Thread.yield();
-            }
+            versionEvent.await(QUERY_TIMEOUT);
         }
 
         return versionMsg;
@@ -432,12 +438,13 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
      * This method returns the help message.
      *
      * @param wait specifies true for synchronous access.
-     * @return help message string if wait is true, null otherwise.
+     * @return help message string if wait is true, null otherwise or if the query failed or timed out.
      */
     public String getHelpMessage(boolean wait)
     {
         if (helpMsg == null)
         {
+            helpEvent.clear();
             asyncWriteString("H\n", false);
             asyncReadString(RequestTag.HELP_MSG);
             asyncReadString(RequestTag.PROMPT);
@@ -445,10 +452,7 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
 
         if (wait)
         {
-            while (helpMsg == null)
-            {
-                Thread.yield();
-            }
+            helpEvent.await(QUERY_TIMEOUT);
         }
 
         return helpMsg;
@@ -528,6 +532,22 @@ public abstract class TrcEmic2TextToSpeech implements TrcSerialBusDevice.Complet
             }
         }
 
+        //
+        // Wake up the synchronous query waiting for this reply, whether it succeeded or not.
+        //
+        if (requestTag == RequestTag.CONFIG_MSG)
+        {
+            configEvent.set(true);
+        }
+        else if (requestTag == RequestTag.VERSION_MSG)
+        {
+            versionEvent.set(true);
+        }
+        else if (requestTag == RequestTag.HELP_MSG)
+        {
+            helpEvent.set(true);
+        }
+
         if (debugEnabled)
         {
             dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.CALLBK, "=%s", Boolean.toString(retry));
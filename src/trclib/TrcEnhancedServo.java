@@ -167,7 +167,8 @@ public class TrcEnhancedServo implements TrcTaskMgr.Task
 
         if (enabled && !servoStepping)
         {
-            TrcTaskMgr.getInstance().registerTask("ServoSteppingTask", this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK);
+            TrcTaskMgr.getInstance().registerTask(
+                "ServoSteppingTask", this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK, TrcTaskMgr.ENABLED_MODES);
             TrcTaskMgr.getInstance().registerTask("ServoSteppingTask", this, TrcTaskMgr.TaskType.STOP_TASK);
         }
         else if (!enabled && servoStepping)
@@ -382,45 +383,42 @@ public class TrcEnhancedServo implements TrcTaskMgr.Task
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.TASK, "runMode=%s", runMode.toString());
         }
 
-        if (runMode != TrcRobot.RunMode.DISABLED_MODE)
-        {
-            double currTime = TrcUtil.getCurrentTime();
-            double deltaPos = currStepRate * (currTime - prevTime);
+        double currTime = TrcUtil.getCurrentTime();
+        double deltaPos = currStepRate * (currTime - prevTime);
 
-            if (currPosition < targetPosition)
-            {
-                currPosition += deltaPos;
-                if (currPosition > targetPosition)
-                {
-                    currPosition = targetPosition;
-                }
-            }
-            else if (currPosition > targetPosition)
+        if (currPosition < targetPosition)
+        {
+            currPosition += deltaPos;
+            if (currPosition > targetPosition)
             {
-                currPosition -= deltaPos;
-                if (currPosition < targetPosition)
-                {
-                    currPosition = targetPosition;
-                }
+                currPosition = targetPosition;
             }
-            else
+        }
+        else if (currPosition > targetPosition)
+        {
+            currPosition -= deltaPos;
+            if (currPosition < targetPosition)
             {
-                //
-                // We have reached target.
-                //
-                stop();
+                currPosition = targetPosition;
             }
-            prevTime = currTime;
+        }
+        else
+        {
+            //
+            // We have reached target.
+            //
+            stop();
+        }
+        prevTime = currTime;
 
-            if (servo1 != null)
-            {
-                servo1.setPosition(currPosition);
-            }
+        if (servo1 != null)
+        {
+            servo1.setPosition(currPosition);
+        }
 
-            if (servo2 != null)
-            {
-                servo2.setPosition(currPosition);
-            }
+        if (servo2 != null)
+        {
+            servo2.setPosition(currPosition);
         }
 
         if (debugEnabled)
@@ -93,6 +93,10 @@ public class TrcEvent
         }
 
         this.signaled = signaled;
+        if (signaled)
+        {
+            notifyAll();
+        }
     }   //set
 
     /**
@@ -114,6 +118,7 @@ public class TrcEvent
         if (!signaled)
         {
             canceled = true;
+            notifyAll();
         }
     }   //cancel
 
@@ -170,4 +175,66 @@ public class TrcEvent
         return canceled;
     }   //isCanceled
 
+    /**
+     * This method blocks the calling thread until the event is signaled or canceled, or the timeout expires. The
+     * thread sleeps while waiting instead of polling the event, so it doesn't take CPU time away from the thread
+     * that is going to signal the event. If the waiting thread is interrupted, it returns immediately with its
+     * interrupted status set.
+     *
+     * @param timeout specifies the maximum time to wait in msec, 0 to wait forever.
+     * @return true if the event is signaled or canceled, false if timed out or interrupted.
+     */
+    public synchronized boolean await(long timeout)
+    {
+        final String funcName = "await";
+        long deadline = TrcUtil.getCurrentTimeMillis() + timeout;
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "timeout=%d", timeout);
+        }
+
+        try
+        {
+            while (!signaled && !canceled)
+            {
+                if (timeout <= 0)
+                {
+                    wait();
+                }
+                else
+                {
+                    long remaining = deadline - TrcUtil.getCurrentTimeMillis();
+
+                    if (remaining <= 0)
+                    {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%s", Boolean.toString(signaled || canceled));
+        }
+
+        return signaled || canceled;
+    }   //await
+
+    /**
+     * This method blocks the calling thread until the event is signaled or canceled.
+     *
+     * @return true if the event is signaled or canceled, false if interrupted.
+     */
+    public boolean await()
+    {
+        return await(0);
+    }   //await
+
 }   //class TrcEvent
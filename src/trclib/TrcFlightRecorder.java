@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * This class implements a flight recorder for numeric control telemetry such as PID terms, drive base poses and
+ * battery voltages. Each named channel is backed by a preallocated double array and all channels share a timestamp
+ * column, so recording a value is just a field store and committing a sample is a few array stores. Nothing is
+ * formatted or allocated in the robot loop. The recorder keeps the most recent samples in a ring and the last few
+ * seconds of it can be dumped into a CSV file when a competition mode stops or when a fault is detected. Dumps are
+ * written by a background thread from a snapshot of the ring, so the robot loop only pays for copying the arrays.
+ *
+ * Channels are global. They can be created by any subsystem at any time whether or not the global recorder has
+ * been started; channels created before the recorder is started are attached to it when it starts. A channel value
+ * is sampled when the robot loop commits a sample, so a channel that is not updated in a loop carries its last value
+ * into that sample.
+ */
+public class TrcFlightRecorder
+{
+    private static final String moduleName = "TrcFlightRecorder";
+    private static final boolean debugEnabled = false;
+    private static final boolean tracingEnabled = false;
+    private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
+    private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private TrcDbgTrace dbgTrace = null;
+
+    /**
+     * This class implements a named channel of the flight recorder. Recording a value only stores it in the channel,
+     * it gets sampled into the ring when the robot loop commits a sample.
+     */
+    public static class Channel
+    {
+        private final String name;
+        private volatile double value = 0.0;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param name specifies the channel name.
+         */
+        private Channel(final String name)
+        {
+            this.name = name;
+        }   //Channel
+
+        /**
+         * This method returns the channel name.
+         *
+         * @return channel name.
+         */
+        public String getName()
+        {
+            return name;
+        }   //getName
+
+        /**
+         * This method records a new value of the channel.
+         *
+         * @param value specifies the value.
+         */
+        public void record(double value)
+        {
+            this.value = value;
+        }   //record
+
+        /**
+         * This method returns the last recorded value of the channel.
+         *
+         * @return last recorded value.
+         */
+        public double getValue()
+        {
+            return value;
+        }   //getValue
+
+    }   //class Channel
+
+    private static volatile Channel[] globalChannels = new Channel[0];
+    private static volatile TrcFlightRecorder globalRecorder = null;
+
+    private final String instanceName;
+    private final int capacity;
+    private final double dumpWindow;
+    private final String dumpFolder;
+    private final double[] timestamps;
+    private final double[] snapshotTimestamps;
+    private Channel[] channels = new Channel[0];
+    private double[][] columns = new double[0][];
+    private double[][] snapshotColumns = new double[0][];
+    private int head = 0;
+    private int numSamples = 0;
+    private volatile boolean dumpInProgress = false;
+    private double lastFaultDumpTime = Double.NEGATIVE_INFINITY;
+    private long dumpCount = 0;
+    private long droppedDumpCount = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name, also used as the prefix of the dump files.
+     * @param capacity specifies the number of samples kept in the ring.
+     * @param dumpWindow specifies the number of seconds of the most recent samples to be dumped.
+     * @param dumpFolder specifies the folder to write the dump files into, null to disable dumps.
+     */
+    public TrcFlightRecorder(final String instanceName, int capacity, double dumpWindow, final String dumpFolder)
+    {
+        if (debugEnabled)
+        {
+            dbgTrace = new TrcDbgTrace(moduleName + "." + instanceName, tracingEnabled, traceLevel, msgLevel);
+        }
+
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.instanceName = instanceName;
+        this.capacity = capacity;
+        this.dumpWindow = dumpWindow;
+        this.dumpFolder = dumpFolder;
+        this.timestamps = new double[capacity];
+        this.snapshotTimestamps = new double[capacity];
+    }   //TrcFlightRecorder
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method creates the global flight recorder and attaches all the global channels to it. If the global
+     * recorder already exists, it is returned instead.
+     *
+     * @param capacity specifies the number of samples kept in the ring.
+     * @param dumpWindow specifies the number of seconds of the most recent samples to be dumped.
+     * @param dumpFolder specifies the folder to write the dump files into, null to disable dumps.
+     * @return global flight recorder.
+     */
+    public static synchronized TrcFlightRecorder startGlobalRecorder(int capacity, double dumpWindow, String dumpFolder)
+    {
+        if (globalRecorder == null)
+        {
+            TrcFlightRecorder recorder = new TrcFlightRecorder("FlightRec", capacity, dumpWindow, dumpFolder);
+
+            for (Channel channel: globalChannels)
+            {
+                recorder.attachChannel(channel);
+            }
+            globalRecorder = recorder;
+        }
+
+        return globalRecorder;
+    }   //startGlobalRecorder
+
+    /**
+     * This method returns the global flight recorder.
+     *
+     * @return global flight recorder, null if not started.
+     */
+    public static TrcFlightRecorder getGlobalRecorder()
+    {
+        return globalRecorder;
+    }   //getGlobalRecorder
+
+    /**
+     * This method creates a global channel. If the global recorder has been started, the channel is attached to it.
+     * Channel names should be unique but this is not enforced, they only serve as column headers of the dumps.
+     *
+     * @param name specifies the channel name.
+     * @return created channel.
+     */
+    public static synchronized Channel createChannel(final String name)
+    {
+        Channel channel = new Channel(name);
+        Channel[] channels = Arrays.copyOf(globalChannels, globalChannels.length + 1);
+
+        channels[channels.length - 1] = channel;
+        globalChannels = channels;
+        if (globalRecorder != null)
+        {
+            globalRecorder.attachChannel(channel);
+        }
+
+        return channel;
+    }   //createChannel
+
+    /**
+     * This method returns all the global channels in the order they were created. The returned array must not be
+     * modified, it is replaced by a new one whenever a channel is created so a change in length tells the caller
+     * that channels were added.
+     *
+     * @return array of global channels.
+     */
+    static Channel[] getGlobalChannels()
+    {
+        return globalChannels;
+    }   //getGlobalChannels
+
+    /**
+     * This method attaches a channel to the recorder and allocates its columns. Samples committed before the channel
+     * is attached read as NaN.
+     *
+     * @param channel specifies the channel to attach.
+     */
+    public synchronized void attachChannel(Channel channel)
+    {
+        final String funcName = "attachChannel";
+        int n = channels.length;
+        double[] column = new double[capacity];
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "channel=%s", channel.name);
+        }
+
+        Arrays.fill(column, Double.NaN);
+        channels = Arrays.copyOf(channels, n + 1);
+        channels[n] = channel;
+        columns = Arrays.copyOf(columns, n + 1);
+        columns[n] = column;
+        snapshotColumns = Arrays.copyOf(snapshotColumns, n + 1);
+        snapshotColumns[n] = new double[capacity];
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //attachChannel
+
+    /**
+     * This method returns the number of channels attached to the recorder.
+     *
+     * @return number of channels.
+     */
+    public synchronized int getNumChannels()
+    {
+        return channels.length;
+    }   //getNumChannels
+
+    /**
+     * This method returns the number of samples currently in the ring.
+     *
+     * @return number of samples.
+     */
+    public synchronized int getNumSamples()
+    {
+        return numSamples;
+    }   //getNumSamples
+
+    /**
+     * This method returns the number of dumps written.
+     *
+     * @return number of dumps.
+     */
+    public synchronized long getDumpCount()
+    {
+        return dumpCount;
+    }   //getDumpCount
+
+    /**
+     * This method returns the number of dumps skipped because another dump was still being written.
+     *
+     * @return number of dumps skipped.
+     */
+    public synchronized long getDroppedDumpCount()
+    {
+        return droppedDumpCount;
+    }   //getDroppedDumpCount
+
+    /**
+     * This method samples all channels into the ring. It is called once per pass by the robot loop.
+     *
+     * @param timestamp specifies the timestamp of the sample in seconds.
+     */
+    public synchronized void commitSample(double timestamp)
+    {
+        for (int i = 0; i < channels.length; i++)
+        {
+            columns[i][head] = channels[i].value;
+        }
+        timestamps[head] = timestamp;
+        head = head + 1 == capacity? 0: head + 1;
+        if (numSamples < capacity)
+        {
+            numSamples++;
+        }
+    }   //commitSample
+
+    /**
+     * This method dumps the most recent samples, typically when a competition mode stops.
+     *
+     * @param reason specifies the reason of the dump, it becomes part of the dump file name.
+     * @return true if the dump is started, false if there is nothing to dump or another dump is still in progress.
+     */
+    public synchronized boolean dump(final String reason)
+    {
+        return startDump(reason);
+    }   //dump
+
+    /**
+     * This method dumps the most recent samples because of a fault such as a loop overrun. Since a fault tends to
+     * repeat, another fault dump is not started until the samples it would contain no longer overlap the last one.
+     *
+     * @param reason specifies the reason of the dump, it becomes part of the dump file name.
+     * @return true if the dump is started, false otherwise.
+     */
+    public synchronized boolean trigger(final String reason)
+    {
+        boolean started = false;
+
+        if (numSamples > 0)
+        {
+            double now = timestamps[head == 0? capacity - 1: head - 1];
+
+            if (now - lastFaultDumpTime >= dumpWindow)
+            {
+                started = startDump(reason);
+                if (started)
+                {
+                    lastFaultDumpTime = now;
+                }
+            }
+        }
+
+        return started;
+    }   //trigger
+
+    /**
+     * This method copies the samples in the dump window into the snapshot buffers and starts a thread to write them
+     * into a CSV file.
+     *
+     * @param reason specifies the reason of the dump.
+     * @return true if the dump is started, false otherwise.
+     */
+    private boolean startDump(final String reason)
+    {
+        final String funcName = "startDump";
+        boolean started = false;
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "reason=%s", reason);
+        }
+
+        if (dumpFolder != null && numSamples > 0)
+        {
+            if (dumpInProgress)
+            {
+                droppedDumpCount++;
+            }
+            else
+            {
+                final Channel[] dumpChannels = channels;
+                int last = head == 0? capacity - 1: head - 1;
+                double startTime = timestamps[last] - dumpWindow;
+                int count = 0;
+                //
+                // Walk backwards from the newest sample to find the oldest one in the dump window.
+                //
+                for (int i = last; count < numSamples && timestamps[i] >= startTime; i = i == 0? capacity - 1: i - 1)
+                {
+                    count++;
+                }
+
+                int first = (head - count + capacity)%capacity;
+                copyRing(timestamps, snapshotTimestamps, first, count);
+                for (int i = 0; i < dumpChannels.length; i++)
+                {
+                    copyRing(columns[i], snapshotColumns[i], first, count);
+                }
+
+                final double[][] dumpColumns = snapshotColumns;
+                final int numDumpSamples = count;
+                Thread dumpThread = new Thread(
+                    () -> writeDump(reason, dumpChannels, dumpColumns, numDumpSamples), instanceName + ".dump");
+                dumpThread.setDaemon(true);
+                dumpThread.setPriority(Thread.MIN_PRIORITY);
+                dumpInProgress = true;
+                dumpThread.start();
+                dumpCount++;
+                started = true;
+            }
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%s", Boolean.toString(started));
+        }
+
+        return started;
+    }   //startDump
+
+    /**
+     * This method copies a range of a ring column into the beginning of a snapshot array.
+     *
+     * @param src specifies the ring column.
+     * @param dst specifies the snapshot array.
+     * @param first specifies the index of the first sample in the ring.
+     * @param count specifies the number of samples to copy.
+     */
+    private void copyRing(double[] src, double[] dst, int first, int count)
+    {
+        int n = Math.min(count, capacity - first);
+
+        System.arraycopy(src, first, dst, 0, n);
+        System.arraycopy(src, 0, dst, n, count - n);
+    }   //copyRing
+
+    /**
+     * This method is called on the dump thread to write the snapshot into a CSV file. The first column is the
+     * timestamp in seconds followed by one column per channel.
+     *
+     * @param reason specifies the reason of the dump.
+     * @param dumpChannels specifies the channels in the snapshot.
+     * @param dumpColumns specifies the snapshot columns of the channels.
+     * @param count specifies the number of samples in the snapshot.
+     */
+    private void writeDump(final String reason, Channel[] dumpChannels, double[][] dumpColumns, int count)
+    {
+        final String funcName = "writeDump";
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd@HH-mm-ss", Locale.US);
+        File folder = new File(dumpFolder);
+        File file = new File(folder, instanceName + "_" + dateFormat.format(new Date()) + "_" + reason + ".csv");
+
+        folder.mkdirs();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file)))
+        {
+            StringBuilder line = new StringBuilder("Time");
+
+            for (Channel channel: dumpChannels)
+            {
+                line.append(',').append(channel.name);
+            }
+            writer.write(line.toString());
+            writer.newLine();
+
+            for (int i = 0; i < count; i++)
+            {
+                line.setLength(0);
+                line.append(String.format(Locale.US, "%.6f", snapshotTimestamps[i]));
+                for (int j = 0; j < dumpChannels.length; j++)
+                {
+                    double value = dumpColumns[j][i];
+
+                    line.append(',');
+                    if (!Double.isNaN(value))
+                    {
+                        line.append(value);
+                    }
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+        catch (IOException e)
+        {
+            TrcDbgTrace.getGlobalTracer().traceErr(
+                funcName, "Failed to write flight recorder dump %s (%s).", file.getPath(), e.getMessage());
+        }
+        finally
+        {
+            dumpInProgress = false;
+        }
+    }   //writeDump
+
+}   //class TrcFlightRecorder
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class implements a fixed bucket histogram of long values such as execution times in nano seconds. The buckets
+ * are specified by their upper limits when the histogram is created and the counts are kept in preallocated arrays
+ * so that recording a value never allocates memory. This makes it suitable for collecting statistics in the robot
+ * loop. Any value greater than the last bucket limit is counted in an overflow bucket.
+ *
+ * The histogram is lock-free. It expects a single thread recording values, typically the robot loop, while any
+ * number of threads may read it. A reader never blocks the writer but may see a value that is partially recorded,
+ * for example the count already includes a value that the bucket counts don't yet have. This is good enough for
+ * statistics. Values recorded concurrently by more than one thread may be lost.
+ */
+public class TrcHistogram
+{
+    /**
+     * These are the default bucket limits for execution times in nano seconds, from 10 usec to 50 msec.
+     */
+    public static final long[] EXEC_TIME_LIMITS =
+        {
+            10000L, 20000L, 50000L, 100000L, 200000L, 500000L,
+            1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 50000000L
+        };
+
+    private final String instanceName;
+    private final long[] bucketLimits;
+    private final AtomicLongArray bucketCounts;
+    private volatile long count;
+    private volatile long total;
+    private volatile long minValue;
+    private volatile long maxValue;
+    private volatile long lastValue;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param bucketLimits specifies the upper limits of the buckets in ascending order.
+     */
+    public TrcHistogram(final String instanceName, long... bucketLimits)
+    {
+        this.instanceName = instanceName;
+        this.bucketLimits = Arrays.copyOf(bucketLimits, bucketLimits.length);
+        this.bucketCounts = new AtomicLongArray(bucketLimits.length + 1);
+        reset();
+    }   //TrcHistogram
+
+    /**
+     * Constructor: Create an instance of the object with the default execution time buckets.
+     *
+     * @param instanceName specifies the instance name.
+     */
+    public TrcHistogram(final String instanceName)
+    {
+        this(instanceName, EXEC_TIME_LIMITS);
+    }   //TrcHistogram
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    public String getName()
+    {
+        return instanceName;
+    }   //getName
+
+    /**
+     * This method returns a summary string of the histogram.
+     *
+     * @return summary string.
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s: n=%d,avg=%d,min=%d,max=%d,p50=%d,p99=%d",
+            instanceName, count, getAverage(), getMin(), maxValue, getPercentile(50.0), getPercentile(99.0));
+    }   //toString
+
+    /**
+     * This method clears all the counts of the histogram. It should be called by the thread recording the values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < bucketCounts.length(); i++)
+        {
+            bucketCounts.lazySet(i, 0);
+        }
+        count = 0;
+        total = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+        lastValue = 0;
+    }   //reset
+
+    /**
+     * This method records a value into the histogram.
+     *
+     * @param value specifies the value to be recorded.
+     */
+    public void record(long value)
+    {
+        int bucket = 0;
+
+        while (bucket < bucketLimits.length && value > bucketLimits[bucket])
+        {
+            bucket++;
+        }
+        //
+        // There is only one writer so a plain read-modify-write is enough, no need for an atomic increment.
+        //
+        bucketCounts.lazySet(bucket, bucketCounts.get(bucket) + 1);
+        count = count + 1;
+        total = total + value;
+        lastValue = value;
+
+        if (value < minValue)
+        {
+            minValue = value;
+        }
+
+        if (value > maxValue)
+        {
+            maxValue = value;
+        }
+    }   //record
+
+    /**
+     * This method returns the number of values recorded.
+     *
+     * @return number of values recorded.
+     */
+    public long getCount()
+    {
+        return count;
+    }   //getCount
+
+    /**
+     * This method returns the sum of all values recorded.
+     *
+     * @return sum of all values recorded.
+     */
+    public long getTotal()
+    {
+        return total;
+    }   //getTotal
+
+    /**
+     * This method returns the average of all values recorded.
+     *
+     * @return average value, 0 if nothing was recorded.
+     */
+    public long getAverage()
+    {
+        long n = count;
+        return n > 0? total/n: 0;
+    }   //getAverage
+
+    /**
+     * This method returns the smallest value recorded.
+     *
+     * @return minimum value, 0 if nothing was recorded.
+     */
+    public long getMin()
+    {
+        return count > 0? minValue: 0;
+    }   //getMin
+
+    /**
+     * This method returns the largest value recorded.
+     *
+     * @return maximum value.
+     */
+    public long getMax()
+    {
+        return maxValue;
+    }   //getMax
+
+    /**
+     * This method returns the last value recorded.
+     *
+     * @return last value recorded.
+     */
+    public long getLastValue()
+    {
+        return lastValue;
+    }   //getLastValue
+
+    /**
+     * This method returns the number of buckets including the overflow bucket.
+     *
+     * @return number of buckets.
+     */
+    public int getNumBuckets()
+    {
+        return bucketCounts.length();
+    }   //getNumBuckets
+
+    /**
+     * This method returns the upper limit of the given bucket. The overflow bucket has no upper limit and returns
+     * Long.MAX_VALUE.
+     *
+     * @param bucket specifies the bucket index.
+     * @return upper limit of the bucket.
+     */
+    public long getBucketLimit(int bucket)
+    {
+        return bucket < bucketLimits.length? bucketLimits[bucket]: Long.MAX_VALUE;
+    }   //getBucketLimit
+
+    /**
+     * This method returns the count of the given bucket.
+     *
+     * @param bucket specifies the bucket index.
+     * @return count of the bucket.
+     */
+    public long getBucketCount(int bucket)
+    {
+        return bucketCounts.get(bucket);
+    }   //getBucketCount
+
+    /**
+     * This method returns an estimate of the given percentile. Since only bucket counts are kept, the estimate is
+     * the upper limit of the bucket containing the percentile, or the maximum value if it falls in the overflow
+     * bucket.
+     *
+     * @param percentile specifies the percentile (0.0 to 100.0).
+     * @return estimated percentile value, 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long value = 0;
+        long n = count;
+
+        if (n > 0)
+        {
+            long threshold = (long)Math.ceil(n*percentile/100.0);
+            long accumulated = 0;
+            long max = maxValue;
+
+            value = max;
+            for (int i = 0; i < bucketLimits.length; i++)
+            {
+                accumulated += bucketCounts.get(i);
+                if (accumulated >= threshold)
+                {
+                    value = Math.min(bucketLimits[i], max);
+                    break;
+                }
+            }
+        }
+
+        return value;
+    }   //getPercentile
+
+}   //class TrcHistogram
@@ -38,7 +38,7 @@ public abstract class TrcI2cLEDPanel
     private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
     private TrcDbgTrace dbgTrace = null;
 
-    private static final int I2C_BUFF_LEN = 32;
+    protected static final int I2C_BUFF_LEN = 32;
 
     /**
      * This method writes the data buffer to the device asynchronously.
@@ -0,0 +1,877 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class compresses finished trace logs to save flash space and to make copying them off the robot faster. A log
+ * is compressed into a zip archive next to it (e.g. Qualification012_2017-03-04@10-20-30.blog.zip) holding the log
+ * in independently deflated chunks of about 256KB named chunk00000, chunk00001 and so on, plus a small index. Since
+ * each chunk is a separate zip entry, part of a match can be extracted without decompressing the whole log.
+ *
+ * The index entry (index.csv) has one line per chunk: chunk number, offset and length of the chunk in the original
+ * log, then the base time, the first and the last entry time of the chunk in usec since the log was opened. Text logs
+ * have no time stamps so their time columns are empty. For binary logs, chunks are cut at entry boundaries and the
+ * archive also contains a dictionary entry with the log header and all the string and format entries of the log, so
+ * that an extracted part of the log is a valid binary log on its own.
+ *
+ * Logs are compressed by a low priority background thread. Since the robot must not be slowed down during a match,
+ * the thread checks the robot enabled state before every read of up to 64KB from the log and before deflating every
+ * 64KB of data into the archive. Once the robot gets enabled, the thread finishes at most one such step, which takes
+ * a few msec, then suspends itself until the robot gets disabled again. The robot enabled state is provided by the
+ * robot base class.
+ */
+public class TrcLogArchiver
+{
+    private static final String moduleName = "TrcLogArchiver";
+    private static final boolean debugEnabled = false;
+    private static final boolean tracingEnabled = false;
+    private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
+    private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private static TrcDbgTrace dbgTrace = null;
+
+    public static final String ARCHIVE_SUFFIX = ".zip";
+    static final String INDEX_ENTRY = "index.csv";
+    static final String DICTIONARY_ENTRY = "dictionary";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String INDEX_HEADER = "chunk,offset,length,baseTime,startTime,endTime";
+    private static final int CHUNK_SIZE = 256*1024;
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    /**
+     * This class keeps the bytes of the current chunk as they are read from the log. It exposes the internal buffer
+     * of ByteArrayOutputStream so the chunk can be written out without copying.
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream
+    {
+        public ChunkBuffer(int initialSize)
+        {
+            super(initialSize);
+        }   //ChunkBuffer
+
+        public byte[] getBuffer()
+        {
+            return buf;
+        }   //getBuffer
+
+        public void truncate(int size)
+        {
+            count = size;
+        }   //truncate
+
+    }   //class ChunkBuffer
+
+    /**
+     * This class implements an input stream that captures all the bytes read through it into a chunk buffer. It lets
+     * the binary log decoder parse the log while the archiver finds out the bytes belonging to each entry.
+     */
+    private static class CapturingInputStream extends FilterInputStream
+    {
+        private final ChunkBuffer capture;
+
+        public CapturingInputStream(InputStream in, ChunkBuffer capture)
+        {
+            super(in);
+            this.capture = capture;
+        }   //CapturingInputStream
+
+        @Override
+        public int read() throws IOException
+        {
+            int data = in.read();
+
+            if (data >= 0)
+            {
+                capture.write(data);
+            }
+
+            return data;
+        }   //read
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int n = in.read(buffer, offset, length);
+
+            if (n > 0)
+            {
+                capture.write(buffer, offset, n);
+            }
+
+            return n;
+        }   //read
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            throw new UnsupportedOperationException("Skipping is not supported.");
+        }   //skip
+
+    }   //class CapturingInputStream
+
+    /**
+     * This class implements an input stream that blocks every read while the robot is enabled. Combined with a buffered
+     * input stream, the archiver checks the robot enabled state on every buffer refill from the log.
+     */
+    private static class SuspendingInputStream extends FilterInputStream
+    {
+        public SuspendingInputStream(InputStream in)
+        {
+            super(in);
+        }   //SuspendingInputStream
+
+        @Override
+        public int read() throws IOException
+        {
+            waitWhileRobotEnabled();
+            return in.read();
+        }   //read
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            waitWhileRobotEnabled();
+            return in.read(buffer, offset, length);
+        }   //read
+
+    }   //class SuspendingInputStream
+
+    /**
+     * This class keeps an index line of the archive.
+     */
+    private static class ChunkInfo
+    {
+        final int chunk;
+        final long offset;
+        final int length;
+        final long baseTime;
+        final long startTime;
+        final long endTime;
+
+        ChunkInfo(int chunk, long offset, int length, long baseTime, long startTime, long endTime)
+        {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+            this.baseTime = baseTime;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }   //ChunkInfo
+
+    }   //class ChunkInfo
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<String> pendingLogs = new ArrayDeque<>();
+    private static Thread workerThread = null;
+    private static boolean robotEnabled = false;
+    private static String currentLog = null;
+
+    /**
+     * This method is called by the robot base class on every mode transition to tell the archiver whether the robot
+     * is enabled. Archiving is suspended while the robot is enabled.
+     *
+     * @param enabled specifies true if the robot is enabled, false if disabled.
+     */
+    public static void setRobotEnabled(boolean enabled)
+    {
+        synchronized (lock)
+        {
+            robotEnabled = enabled;
+            lock.notifyAll();
+        }
+    }   //setRobotEnabled
+
+    /**
+     * This method queues a finished log to be compressed by the background thread. The background thread is started
+     * the first time a log is queued. The log must no longer be written to.
+     *
+     * @param logPath specifies the path of the log.
+     */
+    public static void archive(final String logPath)
+    {
+        final String funcName = "archive";
+
+        if (debugEnabled)
+        {
+            if (dbgTrace == null)
+            {
+                dbgTrace = new TrcDbgTrace(moduleName, tracingEnabled, traceLevel, msgLevel);
+            }
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "log=%s", logPath);
+        }
+
+        synchronized (lock)
+        {
+            if (!logPath.equals(currentLog) && !pendingLogs.contains(logPath))
+            {
+                pendingLogs.add(logPath);
+            }
+
+            if (workerThread == null)
+            {
+                workerThread = new Thread(TrcLogArchiver::workerLoop, moduleName);
+                workerThread.setDaemon(true);
+                workerThread.setPriority(Thread.MIN_PRIORITY);
+                workerThread.start();
+            }
+            lock.notifyAll();
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //archive
+
+    /**
+     * This method queues all the logs in the given folder that have not been archived, for example logs left behind
+     * because the robot was powered off before they got compressed. It should be called before any trace log is
+     * opened so that a log being written is not picked up.
+     *
+     * @param folderPath specifies the log folder.
+     */
+    public static void archiveFolder(final String folderPath)
+    {
+        File[] logFiles = new File(folderPath).listFiles(
+            (dir, name) -> name.endsWith(".log") || name.endsWith(".blog"));
+
+        if (logFiles != null)
+        {
+            Arrays.sort(logFiles);
+            for (File logFile: logFiles)
+            {
+                archive(logFile.getPath());
+            }
+        }
+    }   //archiveFolder
+
+    /**
+     * This method returns the number of logs waiting to be or being compressed.
+     *
+     * @return number of pending logs.
+     */
+    public static int getPendingCount()
+    {
+        synchronized (lock)
+        {
+            return pendingLogs.size() + (currentLog != null? 1: 0);
+        }
+    }   //getPendingCount
+
+    /**
+     * This method runs on the background thread compressing the queued logs one at a time while the robot is
+     * disabled.
+     */
+    private static void workerLoop()
+    {
+        final String funcName = "workerLoop";
+
+        TrcDbgTrace.setThreadTag(moduleName);
+        while (!Thread.currentThread().isInterrupted())
+        {
+            try
+            {
+                String logPath;
+
+                synchronized (lock)
+                {
+                    while (pendingLogs.isEmpty() || robotEnabled)
+                    {
+                        lock.wait();
+                    }
+                    logPath = pendingLogs.poll();
+                    currentLog = logPath;
+                }
+
+                try
+                {
+                    compress(logPath);
+                }
+                catch (IOException e)
+                {
+                    TrcDbgTrace.getGlobalTracer().traceErr(
+                        funcName, "Failed to archive %s (%s).", logPath, e.getMessage());
+                }
+                finally
+                {
+                    synchronized (lock)
+                    {
+                        currentLog = null;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+        }
+    }   //workerLoop
+
+    /**
+     * This method blocks while the robot is enabled. It is called before every read from the log and every write to the
+     * archive so that compression doesn't compete with the robot loop.
+     *
+     * @throws IOException if the thread is interrupted.
+     */
+    private static void waitWhileRobotEnabled() throws IOException
+    {
+        synchronized (lock)
+        {
+            try
+            {
+                while (robotEnabled)
+                {
+                    lock.wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Archiving interrupted.");
+            }
+        }
+    }   //waitWhileRobotEnabled
+
+    /**
+     * This method compresses a log into an archive on the calling thread. The archive is written into a temporary
+     * file first, only when it is complete it replaces the log and all its segments are deleted. If the robot is
+     * enabled in the meantime, it waits before its next read or write until the robot is disabled.
+     *
+     * @param logPath specifies the path of the log.
+     * @throws IOException if the log cannot be read or the archive cannot be written.
+     */
+    public static void compress(final String logPath) throws IOException
+    {
+        File tempFile = new File(logPath + ARCHIVE_SUFFIX + TEMP_SUFFIX);
+
+        try (InputStream in = new BufferedInputStream(
+                new SuspendingInputStream(TrcMappedLogOutputStream.openSegments(logPath)), READ_BUFFER_SIZE);
+             ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+        {
+            byte[] magic = new byte[TrcBinaryTraceLog.MAGIC.length];
+            int n;
+
+            in.mark(magic.length);
+            n = in.read(magic);
+            in.reset();
+            if (n == magic.length && Arrays.equals(magic, TrcBinaryTraceLog.MAGIC))
+            {
+                compressBinary(in, zip);
+            }
+            else
+            {
+                compressText(in, zip);
+            }
+        }
+        catch (IOException e)
+        {
+            tempFile.delete();
+            throw e;
+        }
+
+        File archiveFile = new File(logPath + ARCHIVE_SUFFIX);
+        archiveFile.delete();
+        if (!tempFile.renameTo(archiveFile))
+        {
+            throw new IOException("Failed to rename " + tempFile.getPath() + ".");
+        }
+        //
+        // The archive is complete, remove the log and all its segments.
+        //
+        new File(logPath).delete();
+        for (int i = 1; new File(TrcMappedLogOutputStream.getSegmentPath(logPath, i)).delete(); i++)
+        {
+        }
+    }   //compress
+
+    /**
+     * This method compresses a text log. Chunks are cut at line boundaries. The log ends at the first NUL byte,
+     * which is the zero padding of a log segment that was never closed.
+     *
+     * @param in specifies the input stream of the log.
+     * @param zip specifies the archive.
+     * @throws IOException if the log cannot be read or the archive cannot be written.
+     */
+    private static void compressText(InputStream in, ZipOutputStream zip) throws IOException
+    {
+        StringBuilder index = new StringBuilder(INDEX_HEADER).append('\n');
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int filled = 0;
+        long offset = 0;
+        int chunk = 0;
+        boolean eof = false;
+
+        while (!eof || filled > 0)
+        {
+            int n = eof? 0: in.read(buffer, filled, buffer.length - filled);
+
+            if (n < 0)
+            {
+                eof = true;
+            }
+            else
+            {
+                for (int i = filled; i < filled + n; i++)
+                {
+                    if (buffer[i] == 0)
+                    {
+                        n = i - filled;
+                        eof = true;
+                        break;
+                    }
+                }
+                filled += n;
+            }
+
+            if (filled == buffer.length || eof && filled > 0)
+            {
+                int length = filled;
+
+                if (!eof)
+                {
+                    for (int i = filled - 1; i >= 0; i--)
+                    {
+                        if (buffer[i] == '\n')
+                        {
+                            length = i + 1;
+                            break;
+                        }
+                    }
+                }
+
+                writeEntry(zip, getChunkName(chunk), buffer, length);
+                index.append(chunk).append(',').append(offset).append(',').append(length).append(",,,\n");
+                System.arraycopy(buffer, length, buffer, 0, filled - length);
+                filled -= length;
+                offset += length;
+                chunk++;
+            }
+        }
+
+        byte[] indexBytes = index.toString().getBytes(StandardCharsets.US_ASCII);
+        writeEntry(zip, INDEX_ENTRY, indexBytes, indexBytes.length);
+    }   //compressText
+
+    /**
+     * This method compresses a binary log. The log is parsed entry by entry so that chunks are cut at entry
+     * boundaries and the string and format entries are collected into the dictionary.
+     *
+     * @param in specifies the input stream of the log.
+     * @param zip specifies the archive.
+     * @throws IOException if the log cannot be read or the archive cannot be written.
+     */
+    private static void compressBinary(InputStream in, ZipOutputStream zip) throws IOException
+    {
+        StringBuilder index = new StringBuilder(INDEX_HEADER).append('\n');
+        ChunkBuffer chunkBuffer = new ChunkBuffer(CHUNK_SIZE + READ_BUFFER_SIZE);
+        ChunkBuffer dictionary = new ChunkBuffer(READ_BUFFER_SIZE);
+        TrcBinaryTraceLogDecoder decoder = new TrcBinaryTraceLogDecoder(new CapturingInputStream(in, chunkBuffer));
+        long offset = 0;
+        int chunk = 0;
+        long baseTime = 0;
+        long startTime = -1;
+        long endTime = 0;
+        int tag;
+        //
+        // The header has been read by the decoder, it goes into both the first chunk and the dictionary.
+        //
+        dictionary.write(chunkBuffer.getBuffer(), 0, chunkBuffer.size());
+        do
+        {
+            int entryStart = chunkBuffer.size();
+
+            tag = decoder.readEntry();
+            if (tag == TrcBinaryTraceLog.TAG_STRING || tag == TrcBinaryTraceLog.TAG_FORMAT)
+            {
+                dictionary.write(chunkBuffer.getBuffer(), entryStart, chunkBuffer.size() - entryStart);
+            }
+            else if (tag == TrcBinaryTraceLog.TAG_RECORD || tag == TrcBinaryTraceLog.TAG_MESSAGE)
+            {
+                endTime = decoder.getElapsedTimeMicros();
+                if (startTime < 0)
+                {
+                    startTime = endTime;
+                }
+            }
+
+            //
+            // At the end of the log, the chunk buffer may also hold a partial entry. It is kept so that the archive
+            // has the exact content of the log. The zero padding of a log segment that was never closed is not.
+            //
+            if (tag == -1 && chunkBuffer.size() > entryStart &&
+                chunkBuffer.getBuffer()[entryStart] == TrcBinaryTraceLog.TAG_END)
+            {
+                chunkBuffer.truncate(entryStart);
+            }
+
+            if (chunkBuffer.size() >= CHUNK_SIZE || tag == -1 && chunkBuffer.size() > 0)
+            {
+                int length = chunkBuffer.size();
+
+                if (startTime < 0)
+                {
+                    startTime = endTime = baseTime;
+                }
+                writeEntry(zip, getChunkName(chunk), chunkBuffer.getBuffer(), length);
+                index.append(chunk).append(',').append(offset).append(',').append(length).append(',')
+                     .append(baseTime).append(',').append(startTime).append(',').append(endTime).append('\n');
+                chunkBuffer.reset();
+                offset += length;
+                chunk++;
+                baseTime = decoder.getElapsedTimeMicros();
+                startTime = -1;
+            }
+        } while (tag != -1);
+
+        writeEntry(zip, DICTIONARY_ENTRY, dictionary.getBuffer(), dictionary.size());
+        byte[] indexBytes = index.toString().getBytes(StandardCharsets.US_ASCII);
+        writeEntry(zip, INDEX_ENTRY, indexBytes, indexBytes.length);
+    }   //compressBinary
+
+    /**
+     * This method writes an entry into the archive.
+     *
+     * @param zip specifies the archive.
+     * @param name specifies the entry name.
+     * @param data specifies the buffer holding the entry data.
+     * @param length specifies the length of the entry data.
+     * @throws IOException if the archive cannot be written.
+     */
+    private static void writeEntry(ZipOutputStream zip, final String name, byte[] data, int length) throws IOException
+    {
+        waitWhileRobotEnabled();
+        zip.putNextEntry(new ZipEntry(name));
+        //
+        // Deflate the data in pieces, checking the robot enabled state before each one.
+        //
+        for (int offset = 0; offset < length; offset += READ_BUFFER_SIZE)
+        {
+            waitWhileRobotEnabled();
+            zip.write(data, offset, Math.min(READ_BUFFER_SIZE, length - offset));
+        }
+        zip.closeEntry();
+    }   //writeEntry
+
+    /**
+     * This method returns the entry name of a chunk.
+     *
+     * @param chunk specifies the chunk number.
+     * @return chunk entry name.
+     */
+    private static String getChunkName(int chunk)
+    {
+        return String.format("chunk%05d", chunk);
+    }   //getChunkName
+
+    /**
+     * This method reads the index of an archive.
+     *
+     * @param zip specifies the archive.
+     * @return list of chunks in the archive.
+     * @throws IOException if the index is missing or corrupted.
+     */
+    private static List<ChunkInfo> readIndex(ZipFile zip) throws IOException
+    {
+        ZipEntry entry = zip.getEntry(INDEX_ENTRY);
+        List<ChunkInfo> chunks = new ArrayList<>();
+
+        if (entry == null)
+        {
+            throw new IOException("Archive has no index.");
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zip.getInputStream(entry), StandardCharsets.US_ASCII)))
+        {
+            String line = reader.readLine();
+
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = line.split(",", -1);
+
+                try
+                {
+                    chunks.add(new ChunkInfo(
+                        Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+                        fields[3].isEmpty()? -1: Long.parseLong(fields[3]),
+                        fields[4].isEmpty()? -1: Long.parseLong(fields[4]),
+                        fields[5].isEmpty()? -1: Long.parseLong(fields[5])));
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+                {
+                    throw new IOException("Corrupted index line: " + line);
+                }
+            }
+        }
+
+        return chunks;
+    }   //readIndex
+
+    /**
+     * This method opens an archive and returns the content of the original log.
+     *
+     * @param archivePath specifies the path of the archive.
+     * @return input stream of the original log.
+     * @throws IOException if the archive cannot be opened.
+     */
+    public static InputStream openArchive(final String archivePath) throws IOException
+    {
+        final ZipFile zip = new ZipFile(archivePath);
+        List<InputStream> streams = new ArrayList<>();
+
+        try
+        {
+            for (ChunkInfo info: readIndex(zip))
+            {
+                streams.add(zip.getInputStream(zip.getEntry(getChunkName(info.chunk))));
+            }
+        }
+        catch (IOException | NullPointerException e)
+        {
+            zip.close();
+            throw new IOException("Corrupted archive " + archivePath + ".");
+        }
+
+        return new SequenceInputStream(Collections.enumeration(streams))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                super.close();
+                zip.close();
+            }   //close
+        };
+    }   //openArchive
+
+    /**
+     * This method extracts a range of chunks from an archive. For a binary log, the output is a valid binary log: it
+     * starts with the dictionary and the time base of the first chunk unless the first chunk is extracted.
+     *
+     * @param archivePath specifies the path of the archive.
+     * @param firstChunk specifies the first chunk to extract.
+     * @param lastChunk specifies the last chunk to extract.
+     * @param out specifies the output stream to write the extracted log to.
+     * @throws IOException if the archive cannot be read or the output cannot be written.
+     */
+    public static void extract(final String archivePath, int firstChunk, int lastChunk, OutputStream out)
+        throws IOException
+    {
+        try (ZipFile zip = new ZipFile(archivePath))
+        {
+            extract(zip, readIndex(zip), firstChunk, lastChunk, out);
+        }
+    }   //extract
+
+    /**
+     * This method extracts the part of a binary log archive covering the given time range. Since the log is
+     * extracted in whole chunks, the output may contain entries outside of the time range.
+     *
+     * @param archivePath specifies the path of the archive.
+     * @param startTime specifies the start of the time range in seconds since the log was opened.
+     * @param endTime specifies the end of the time range in seconds since the log was opened.
+     * @param out specifies the output stream to write the extracted log to.
+     * @throws IOException if the archive is not a binary log archive, cannot be read or the output cannot be written.
+     */
+    public static void extract(final String archivePath, double startTime, double endTime, OutputStream out)
+        throws IOException
+    {
+        try (ZipFile zip = new ZipFile(archivePath))
+        {
+            List<ChunkInfo> chunks = readIndex(zip);
+            long startMicros = (long)(startTime*1000000.0);
+            long endMicros = (long)(endTime*1000000.0);
+            int firstChunk = -1;
+            int lastChunk = -1;
+
+            if (zip.getEntry(DICTIONARY_ENTRY) == null)
+            {
+                throw new IOException("Text log archives have no time index.");
+            }
+
+            for (ChunkInfo info: chunks)
+            {
+                if (info.endTime >= startMicros && info.startTime <= endMicros)
+                {
+                    if (firstChunk == -1)
+                    {
+                        firstChunk = info.chunk;
+                    }
+                    lastChunk = info.chunk;
+                }
+            }
+
+            if (firstChunk == -1)
+            {
+                //
+                // Nothing in the time range, write just the dictionary so the output is still a valid empty log.
+                //
+                copyEntry(zip, DICTIONARY_ENTRY, out);
+            }
+            else
+            {
+                extract(zip, chunks, firstChunk, lastChunk, out);
+            }
+        }
+    }   //extract
+
+    /**
+     * This method extracts a range of chunks from an opened archive.
+     *
+     * @param zip specifies the archive.
+     * @param chunks specifies the index of the archive.
+     * @param firstChunk specifies the first chunk to extract.
+     * @param lastChunk specifies the last chunk to extract.
+     * @param out specifies the output stream to write the extracted log to.
+     * @throws IOException if the archive cannot be read or the output cannot be written.
+     */
+    private static void extract(ZipFile zip, List<ChunkInfo> chunks, int firstChunk, int lastChunk, OutputStream out)
+        throws IOException
+    {
+        if (firstChunk < 0 || lastChunk >= chunks.size() || firstChunk > lastChunk)
+        {
+            throw new IllegalArgumentException("Invalid chunk range " + firstChunk + "-" + lastChunk + ".");
+        }
+
+        if (firstChunk > 0 && zip.getEntry(DICTIONARY_ENTRY) != null)
+        {
+            copyEntry(zip, DICTIONARY_ENTRY, out);
+            out.write(TrcBinaryTraceLog.TAG_TIME);
+            for (long value = chunks.get(firstChunk).baseTime; ; value >>>= 7)
+            {
+                if ((value & ~0x7fL) == 0)
+                {
+                    out.write((int)value);
+                    break;
+                }
+                out.write((int)((value & 0x7f) | 0x80));
+            }
+        }
+
+        for (int i = firstChunk; i <= lastChunk; i++)
+        {
+            copyEntry(zip, getChunkName(chunks.get(i).chunk), out);
+        }
+        out.flush();
+    }   //extract
+
+    /**
+     * This method copies the content of an archive entry to the output stream.
+     *
+     * @param zip specifies the archive.
+     * @param name specifies the entry name.
+     * @param out specifies the output stream.
+     * @throws IOException if the entry is missing or cannot be read, or the output cannot be written.
+     */
+    private static void copyEntry(ZipFile zip, final String name, OutputStream out) throws IOException
+    {
+        ZipEntry entry = zip.getEntry(name);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int n;
+
+        if (entry == null)
+        {
+            throw new IOException("Archive has no " + name + " entry.");
+        }
+
+        try (InputStream in = zip.getInputStream(entry))
+        {
+            while ((n = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, n);
+            }
+        }
+    }   //copyEntry
+
+    /**
+     * This method compresses a log or extracts a log from an archive from the command line.
+     *
+     * @param args specifies the command line arguments: logFile to compress, or -x archiveFile outFile to extract
+     *        the whole log, or -x archiveFile outFile startTime endTime to extract part of a binary log.
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            if (args.length == 1)
+            {
+                compress(args[0]);
+            }
+            else if (args.length >= 3 && args[0].equals("-x"))
+            {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[2])))
+                {
+                    if (args.length == 5)
+                    {
+                        extract(args[1], Double.parseDouble(args[3]), Double.parseDouble(args[4]), out);
+                    }
+                    else
+                    {
+                        try (InputStream in = openArchive(args[1]))
+                        {
+                            byte[] buffer = new byte[READ_BUFFER_SIZE];
+                            int n;
+
+                            while ((n = in.read(buffer)) > 0)
+                            {
+                                out.write(buffer, 0, n);
+                            }
+                        }
+                    }
+                }
+            }
+            else
+            {
+                System.err.println(
+                    "Usage: TrcLogArchiver logFile | -x archiveFile outFile [startTime endTime]");
+                System.exit(1);
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            System.err.println("Failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }   //main
+
+}   //class TrcLogArchiver
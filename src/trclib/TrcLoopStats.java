@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+/**
+ * This class collects timing statistics of the robot loop. It counts the periodic and continuous passes, keeps
+ * histograms of the pass periods, the jitter of the continuous pass start times, the pass execution times and the
+ * age of the control data (e.g. the Driver Station packet) seen by each pass. It also keeps the slowest passes.
+ * Recording never allocates memory so it can be done on every pass. The statistics are recorded by the robot loop
+ * thread and can be read by any thread.
+ */
+public class TrcLoopStats
+{
+    /**
+     * These are the bucket limits for loop periods and control data ages in nano seconds, from 50 usec to 1 sec.
+     */
+    public static final long[] LOOP_TIME_LIMITS =
+        {
+            50000L, 100000L, 200000L, 500000L, 1000000L, 2000000L, 3000000L, 4000000L, 5000000L, 6000000L,
+            8000000L, 10000000L, 15000000L, 20000000L, 25000000L, 30000000L, 40000000L, 50000000L, 100000000L,
+            200000000L, 500000000L, 1000000000L
+        };
+
+    private static final int MAX_SLOW_PASSES = 5;
+
+    private final String instanceName;
+    private final TrcHistogram continuousPeriods;
+    private final TrcHistogram continuousJitters;
+    private final TrcHistogram periodicPeriods;
+    private final TrcHistogram passTimes;
+    private final TrcHistogram controlDataAges;
+    private final long[] slowPassTimes = new long[MAX_SLOW_PASSES];
+    private final double[] slowPassTimestamps = new double[MAX_SLOW_PASSES];
+    private volatile int numSlowPasses = 0;
+    private volatile long continuousPassCount = 0;
+    private volatile long periodicPassCount = 0;
+    private long prevContinuousStartNanos = 0;
+    private long prevContinuousPeriod = 0;
+    private long prevPeriodicStartNanos = 0;
+    private long lastControlDataNanos = 0;
+    private long passStartNanos = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     */
+    public TrcLoopStats(final String instanceName)
+    {
+        this.instanceName = instanceName;
+        continuousPeriods = new TrcHistogram(instanceName + ".continuousPeriod", LOOP_TIME_LIMITS);
+        continuousJitters = new TrcHistogram(instanceName + ".continuousJitter", TrcHistogram.EXEC_TIME_LIMITS);
+        periodicPeriods = new TrcHistogram(instanceName + ".periodicPeriod", LOOP_TIME_LIMITS);
+        passTimes = new TrcHistogram(instanceName + ".passTime", LOOP_TIME_LIMITS);
+        controlDataAges = new TrcHistogram(instanceName + ".controlDataAge", LOOP_TIME_LIMITS);
+    }   //TrcLoopStats
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method clears all the statistics. It should be called by the robot loop thread, typically when a robot
+     * mode starts.
+     */
+    public void reset()
+    {
+        continuousPeriods.reset();
+        continuousJitters.reset();
+        periodicPeriods.reset();
+        passTimes.reset();
+        controlDataAges.reset();
+        numSlowPasses = 0;
+        continuousPassCount = 0;
+        periodicPassCount = 0;
+        prevContinuousStartNanos = 0;
+        prevContinuousPeriod = 0;
+        prevPeriodicStartNanos = 0;
+    }   //reset
+
+    /**
+     * This method is called at the start of each continuous pass. It records the period since the previous pass,
+     * its jitter and the age of the last control data.
+     *
+     * @param currNanos specifies the start time of the pass in nano seconds.
+     * @param targetPeriod specifies the target period of the loop in nano seconds, 0 if the loop is not paced in
+     *        which case the jitter is measured against the previous period.
+     */
+    public void startContinuousPass(long currNanos, long targetPeriod)
+    {
+        passStartNanos = currNanos;
+        continuousPassCount = continuousPassCount + 1;
+
+        if (prevContinuousStartNanos != 0)
+        {
+            long period = currNanos - prevContinuousStartNanos;
+            long nominal = targetPeriod > 0? targetPeriod: prevContinuousPeriod;
+
+            continuousPeriods.record(period);
+            if (nominal > 0)
+            {
+                continuousJitters.record(Math.abs(period - nominal));
+            }
+            prevContinuousPeriod = period;
+        }
+        prevContinuousStartNanos = currNanos;
+
+        if (lastControlDataNanos != 0)
+        {
+            controlDataAges.record(currNanos - lastControlDataNanos);
+        }
+    }   //startContinuousPass
+
+    /**
+     * This method is called when a periodic pass is run. Periodic passes are triggered by new control data so this
+     * also marks the arrival time of the control data.
+     *
+     * @param currNanos specifies the start time of the periodic pass in nano seconds.
+     */
+    public void startPeriodicPass(long currNanos)
+    {
+        periodicPassCount = periodicPassCount + 1;
+        if (prevPeriodicStartNanos != 0)
+        {
+            periodicPeriods.record(currNanos - prevPeriodicStartNanos);
+        }
+        prevPeriodicStartNanos = currNanos;
+        lastControlDataNanos = currNanos;
+    }   //startPeriodicPass
+
+    /**
+     * This method is called at the end of each continuous pass before the loop sleeps. It records the execution
+     * time of the pass and keeps it if it is one of the slowest passes.
+     *
+     * @param currNanos specifies the end time of the pass in nano seconds.
+     */
+    public void endContinuousPass(long currNanos)
+    {
+        long elapsedNanos = currNanos - passStartNanos;
+        int i = numSlowPasses;
+
+        passTimes.record(elapsedNanos);
+        if (i < MAX_SLOW_PASSES || elapsedNanos > slowPassTimes[MAX_SLOW_PASSES - 1])
+        {
+            if (i == MAX_SLOW_PASSES)
+            {
+                i--;
+            }
+            else
+            {
+                numSlowPasses++;
+            }
+            //
+            // Insertion sort the new entry into the list.
+            //
+            while (i > 0 && slowPassTimes[i - 1] < elapsedNanos)
+            {
+                slowPassTimes[i] = slowPassTimes[i - 1];
+                slowPassTimestamps[i] = slowPassTimestamps[i - 1];
+                i--;
+            }
+            slowPassTimes[i] = elapsedNanos;
+            slowPassTimestamps[i] = passStartNanos/1000000000.0;
+        }
+    }   //endContinuousPass
+
+    /**
+     * This method returns the number of continuous passes since the statistics were reset.
+     *
+     * @return number of continuous passes.
+     */
+    public long getContinuousPassCount()
+    {
+        return continuousPassCount;
+    }   //getContinuousPassCount
+
+    /**
+     * This method returns the number of periodic passes since the statistics were reset.
+     *
+     * @return number of periodic passes.
+     */
+    public long getPeriodicPassCount()
+    {
+        return periodicPassCount;
+    }   //getPeriodicPassCount
+
+    /**
+     * This method returns the histogram of the periods between continuous passes.
+     *
+     * @return continuous period histogram in nano seconds.
+     */
+    public TrcHistogram getContinuousPeriods()
+    {
+        return continuousPeriods;
+    }   //getContinuousPeriods
+
+    /**
+     * This method returns the histogram of the jitter of the continuous pass start times.
+     *
+     * @return continuous jitter histogram in nano seconds.
+     */
+    public TrcHistogram getContinuousJitters()
+    {
+        return continuousJitters;
+    }   //getContinuousJitters
+
+    /**
+     * This method returns the histogram of the periods between periodic passes.
+     *
+     * @return periodic period histogram in nano seconds.
+     */
+    public TrcHistogram getPeriodicPeriods()
+    {
+        return periodicPeriods;
+    }   //getPeriodicPeriods
+
+    /**
+     * This method returns the histogram of the execution times of the continuous passes.
+     *
+     * @return pass time histogram in nano seconds.
+     */
+    public TrcHistogram getPassTimes()
+    {
+        return passTimes;
+    }   //getPassTimes
+
+    /**
+     * This method returns the histogram of the age of the last control data at the start of each continuous pass.
+     *
+     * @return control data age histogram in nano seconds.
+     */
+    public TrcHistogram getControlDataAges()
+    {
+        return controlDataAges;
+    }   //getControlDataAges
+
+    /**
+     * This method returns the number of slowest passes kept.
+     *
+     * @return number of slowest passes.
+     */
+    public int getNumSlowPasses()
+    {
+        return numSlowPasses;
+    }   //getNumSlowPasses
+
+    /**
+     * This method returns the execution time of one of the slowest passes, sorted in descending order.
+     *
+     * @param index specifies the index of the slow pass, 0 being the slowest.
+     * @return execution time of the pass in nano seconds.
+     */
+    public long getSlowPassTime(int index)
+    {
+        return slowPassTimes[index];
+    }   //getSlowPassTime
+
+    /**
+     * This method returns the start time of one of the slowest passes, sorted in descending order of execution time.
+     *
+     * @param index specifies the index of the slow pass, 0 being the slowest.
+     * @return start time of the pass in seconds.
+     */
+    public double getSlowPassTimestamp(int index)
+    {
+        return slowPassTimestamps[index];
+    }   //getSlowPassTimestamp
+
+    /**
+     * This method prints the statistics to the given tracer.
+     *
+     * @param tracer specifies the tracer to print to.
+     * @param title specifies the title of the statistics, typically the run mode.
+     */
+    public void traceStats(TrcDbgTrace tracer, final String title)
+    {
+        final String funcName = "traceStats";
+
+        tracer.traceInfo(funcName, "%s: %s continuousPasses=%d, periodicPasses=%d",
+            instanceName, title, continuousPassCount, periodicPassCount);
+        traceHistogram(tracer, continuousPeriods);
+        traceHistogram(tracer, continuousJitters);
+        traceHistogram(tracer, periodicPeriods);
+        traceHistogram(tracer, passTimes);
+        traceHistogram(tracer, controlDataAges);
+        for (int i = 0; i < numSlowPasses; i++)
+        {
+            tracer.traceInfo(funcName, "  slowPass[%d] %.3f: %.3fms",
+                i, slowPassTimestamps[i], slowPassTimes[i]/1000000.0);
+        }
+    }   //traceStats
+
+    /**
+     * This method prints a histogram in milliseconds to the given tracer.
+     *
+     * @param tracer specifies the tracer to print to.
+     * @param histogram specifies the histogram in nano seconds.
+     */
+    private void traceHistogram(TrcDbgTrace tracer, TrcHistogram histogram)
+    {
+        final String funcName = "traceStats";
+
+        tracer.traceInfo(funcName, "  %s: n=%d, avg=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms",
+            histogram.getName(), histogram.getCount(), histogram.getAverage()/1000000.0,
+            histogram.getPercentile(50.0)/1000000.0, histogram.getPercentile(90.0)/1000000.0,
+            histogram.getPercentile(99.0)/1000000.0, histogram.getMax()/1000000.0);
+    }   //traceHistogram
+
+}   //class TrcLoopStats
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+/**
+ * This class implements an output stream writing into memory-mapped log segments. Each segment is a preallocated
+ * file mapped into memory, so writing to the stream is a memory copy and never a system call. When a segment fills
+ * up, the stream rolls over to a new segment file. The first segment has the given path, the following ones have
+ * the segment number appended (e.g. match.log, match.log.1, match.log.2).
+ *
+ * Since the data is in the page cache as soon as it is written, it survives the robot program crashing. To make it
+ * survive a power loss, flush() forces the mapped segment to the storage, but at most once per force interval, so
+ * callers can flush after every message without paying for a sync every time. The last segment is forced and
+ * truncated to the data written when the stream is closed. If the stream is never closed (e.g. power loss), the
+ * last segment keeps its zero padding after the data. Readers of the log treat the first NUL byte where a text line
+ * or a binary log entry is expected as the end of the data (see TrcBinaryTraceLog.TAG_END).
+ */
+public class TrcMappedLogOutputStream extends OutputStream
+{
+    private final String basePath;
+    private final int segmentSize;
+    private final long forceIntervalNanos;
+    private int segmentIndex = -1;
+    private RandomAccessFile segmentFile = null;
+    private FileChannel segmentChannel = null;
+    private MappedByteBuffer segmentBuffer = null;
+    private long bytesWritten = 0;
+    private long lastForceTime;
+    private boolean dirty = false;
+
+    /**
+     * Constructor: Create an instance of the object and open the first segment.
+     *
+     * @param basePath specifies the path of the first segment.
+     * @param segmentSize specifies the size of each segment in bytes.
+     * @param forceInterval specifies the minimum interval in seconds between forcing the segment to storage.
+     * @throws IOException if the segment cannot be created.
+     */
+    public TrcMappedLogOutputStream(final String basePath, int segmentSize, double forceInterval) throws IOException
+    {
+        if (segmentSize <= 0)
+        {
+            throw new IllegalArgumentException("Segment size must be positive.");
+        }
+
+        this.basePath = basePath;
+        this.segmentSize = segmentSize;
+        this.forceIntervalNanos = (long)(forceInterval*1000000000.0);
+        this.lastForceTime = System.nanoTime();
+        openSegment(0);
+    }   //TrcMappedLogOutputStream
+
+    /**
+     * This method returns the path of the first segment.
+     *
+     * @return base path.
+     */
+    @Override
+    public String toString()
+    {
+        return basePath;
+    }   //toString
+
+    /**
+     * This method returns the path of the given segment.
+     *
+     * @param basePath specifies the path of the first segment.
+     * @param index specifies the segment index.
+     * @return segment path.
+     */
+    public static String getSegmentPath(final String basePath, int index)
+    {
+        return index == 0? basePath: basePath + "." + index;
+    }   //getSegmentPath
+
+    /**
+     * This method opens all the segments of a log as one input stream, in order.
+     *
+     * @param basePath specifies the path of the first segment.
+     * @return input stream of the whole log.
+     * @throws FileNotFoundException if the first segment does not exist.
+     */
+    public static InputStream openSegments(final String basePath) throws FileNotFoundException
+    {
+        Vector<InputStream> segments = new Vector<>();
+
+        segments.add(new FileInputStream(basePath));
+        for (int i = 1; new File(getSegmentPath(basePath, i)).isFile(); i++)
+        {
+            segments.add(new FileInputStream(getSegmentPath(basePath, i)));
+        }
+
+        return new SequenceInputStream(segments.elements());
+    }   //openSegments
+
+    /**
+     * This method returns the number of segments created so far.
+     *
+     * @return number of segments.
+     */
+    public synchronized int getSegmentCount()
+    {
+        return segmentIndex + 1;
+    }   //getSegmentCount
+
+    /**
+     * This method returns the total number of bytes written to the stream.
+     *
+     * @return number of bytes written.
+     */
+    public synchronized long getBytesWritten()
+    {
+        return bytesWritten;
+    }   //getBytesWritten
+
+    /**
+     * This method writes a byte to the stream.
+     *
+     * @param b specifies the byte to write.
+     * @throws IOException if the stream is closed or a new segment cannot be created.
+     */
+    @Override
+    public synchronized void write(int b) throws IOException
+    {
+        ensureSpace();
+        segmentBuffer.put((byte)b);
+        bytesWritten++;
+        dirty = true;
+    }   //write
+
+    /**
+     * This method writes a range of bytes to the stream, rolling over to new segments as necessary.
+     *
+     * @param b specifies the byte array.
+     * @param off specifies the offset of the first byte to write.
+     * @param len specifies the number of bytes to write.
+     * @throws IOException if the stream is closed or a new segment cannot be created.
+     */
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || off + len > b.length)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0)
+        {
+            ensureSpace();
+            int n = Math.min(len, segmentBuffer.remaining());
+            segmentBuffer.put(b, off, n);
+            off += n;
+            len -= n;
+            bytesWritten += n;
+            dirty = true;
+        }
+    }   //write
+
+    /**
+     * This method forces the current segment to storage if the force interval has passed since the last time.
+     * Otherwise, the data stays in the page cache until a later flush.
+     *
+     * @throws IOException if the stream is closed.
+     */
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        if (segmentBuffer == null)
+        {
+            throw new IOException("Stream is closed.");
+        }
+
+        if (dirty && System.nanoTime() - lastForceTime >= forceIntervalNanos)
+        {
+            force();
+        }
+    }   //flush
+
+    /**
+     * This method forces the current segment to storage regardless of the force interval.
+     */
+    public synchronized void force()
+    {
+        if (segmentBuffer != null)
+        {
+            segmentBuffer.force();
+            lastForceTime = System.nanoTime();
+            dirty = false;
+        }
+    }   //force
+
+    /**
+     * This method forces the current segment to storage, truncates it to the data written and closes it.
+     *
+     * @throws IOException if the segment cannot be truncated or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        closeSegment();
+    }   //close
+
+    /**
+     * This method makes sure the current segment has room for at least one byte, rolling over to a new segment if
+     * it is full.
+     *
+     * @throws IOException if the stream is closed or a new segment cannot be created.
+     */
+    private void ensureSpace() throws IOException
+    {
+        if (segmentBuffer == null)
+        {
+            throw new IOException("Stream is closed.");
+        }
+
+        if (!segmentBuffer.hasRemaining())
+        {
+            int nextIndex = segmentIndex + 1;
+
+            closeSegment();
+            openSegment(nextIndex);
+        }
+    }   //ensureSpace
+
+    /**
+     * This method creates and maps a new segment.
+     *
+     * @param index specifies the segment index.
+     * @throws IOException if the segment cannot be created.
+     */
+    private void openSegment(int index) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(getSegmentPath(basePath, index), "rw");
+
+        try
+        {
+            FileChannel channel = file.getChannel();
+
+            channel.truncate(0);
+            segmentBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segmentChannel = channel;
+            segmentFile = file;
+            segmentIndex = index;
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }   //openSegment
+
+    /**
+     * This method forces the current segment to storage, truncates it to the data written and closes it.
+     *
+     * @throws IOException if the segment cannot be truncated or closed.
+     */
+    private void closeSegment() throws IOException
+    {
+        if (segmentBuffer != null)
+        {
+            int length = segmentBuffer.position();
+
+            force();
+            segmentBuffer = null;
+            try
+            {
+                segmentChannel.truncate(length);
+            }
+            finally
+            {
+                segmentChannel = null;
+                segmentFile.close();
+                segmentFile = null;
+            }
+        }
+    }   //closeSegment
+
+}   //class TrcMappedLogOutputStream
@@ -89,6 +89,14 @@ public class TrcPidController
     private double dTerm;
     private double fTerm;
 
+    private final int pidInfoFormatId;
+    private final int pidInfoBatteryFormatId;
+    private final double[] pidInfoFields = new double[12];
+    private final TrcFlightRecorder.Channel targetChannel;
+    private final TrcFlightRecorder.Channel inputChannel;
+    private final TrcFlightRecorder.Channel errorChannel;
+    private final TrcFlightRecorder.Channel outputChannel;
+
     /**
      * Constructor: Create an instance of the object.
      *
@@ -125,6 +133,20 @@ public class TrcPidController
         this.tolerance = Math.abs(tolerance);
         this.settlingTime = Math.abs(settlingTime);
         this.pidInput = pidInput;
+        //
+        // The PID info is printed every loop while tuning, so it is traced as typed records with the instance name
+        // baked into the format to avoid generating garbage.
+        //
+        String pidInfoFormat =
+            instanceName.replace("%", "%%") + ": Target=%6.1f, Input=%6.1f, Error=%6.1f, " +
+            "PIDTerms=%6.3f/%6.3f/%6.3f/%6.3f, Output=%6.3f(%6.3f/%5.3f)";
+        pidInfoFormatId = TrcDbgTrace.registerFormat("printPidInfo", TrcDbgTrace.MsgLevel.INFO, pidInfoFormat);
+        pidInfoBatteryFormatId = TrcDbgTrace.registerFormat(
+            "printPidInfo", TrcDbgTrace.MsgLevel.INFO, pidInfoFormat + ", Volt=%.1f (%.1f)");
+        targetChannel = TrcFlightRecorder.createChannel(instanceName + ".target");
+        inputChannel = TrcFlightRecorder.createChannel(instanceName + ".input");
+        errorChannel = TrcFlightRecorder.createChannel(instanceName + ".error");
+        outputChannel = TrcFlightRecorder.createChannel(instanceName + ".output");
     }   //TrcPidController
 
     /**
@@ -196,8 +218,6 @@ public class TrcPidController
      */
     public void printPidInfo(TrcDbgTrace tracer, TrcRobotBattery battery)
     {
-        final String funcName = "printPidInfo";
-
         if (tracer == null)
         {
             tracer = dbgTrace;
@@ -205,22 +225,26 @@ public class TrcPidController
 
         if (tracer != null)
         {
+            pidInfoFields[0] = setPoint;
+            pidInfoFields[1] = input;
+            pidInfoFields[2] = currError;
+            pidInfoFields[3] = pTerm;
+            pidInfoFields[4] = iTerm;
+            pidInfoFields[5] = dTerm;
+            pidInfoFields[6] = fTerm;
+            pidInfoFields[7] = output;
+            pidInfoFields[8] = minOutput;
+            pidInfoFields[9] = maxOutput;
+
             if (battery != null)
             {
-                tracer.traceInfo(
-                    funcName,
-                    "%s: Target=%6.1f, Input=%6.1f, Error=%6.1f, PIDTerms=%6.3f/%6.3f/%6.3f/%6.3f, " +
-                    "Output=%6.3f(%6.3f/%5.3f), Volt=%.1f (%.1f)",
-                    instanceName, setPoint, input, currError, pTerm, iTerm, dTerm, fTerm, output, minOutput, maxOutput,
-                    battery.getVoltage(), battery.getLowestVoltage());
+                pidInfoFields[10] = battery.getVoltage();
+                pidInfoFields[11] = battery.getLowestVoltage();
+                tracer.traceRecord(pidInfoBatteryFormatId, pidInfoFields, 12);
             }
             else
             {
-                tracer.traceInfo(
-                    funcName,
-                    "%s: Target=%6.1f, Input=%6.1f, Error=%6.1f, PIDTerms=%6.3f/%6.3f/%6.3f/%6.3f, " +
-                    "Output=%6.3f(%6.3f/%5.3f)",
-                    instanceName, setPoint, input, currError, pTerm, iTerm, dTerm, fTerm, output, minOutput, maxOutput);
+                tracer.traceRecord(pidInfoFormatId, pidInfoFields, 10);
             }
         }
     }   //printPidInfo
@@ -779,6 +803,10 @@ public class TrcPidController
             output = minOutput;
         }
 
+        targetChannel.record(setPoint);
+        inputChannel.record(input);
+        errorChannel.record(currError);
+        outputChannel.record(output);
         if (debugTracer != null)
         {
             printPidInfo(debugTracer);
@@ -502,7 +502,8 @@ public class TrcPidDrive implements TrcTaskMgr.Task
         if (enabled)
         {
             taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.STOP_TASK);
-            taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK);
+            taskMgr.registerTask(
+                instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK, TrcTaskMgr.TaskPriority.HIGH);
         }
         else
         {
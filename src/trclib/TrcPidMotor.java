@@ -772,7 +772,8 @@ public class TrcPidMotor implements TrcTaskMgr.Task
         if (enabled)
         {
             taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.STOP_TASK);
-            taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK);
+            taskMgr.registerTask(
+                instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK, TrcTaskMgr.TaskPriority.HIGH);
         }
         else
         {
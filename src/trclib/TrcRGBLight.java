@@ -22,6 +22,7 @@
 
 package trclib;
 
+import trclib.TrcTaskMgr.TaskPriority;
 import trclib.TrcTaskMgr.TaskType;
 
 /**
@@ -209,7 +210,8 @@ public abstract class TrcRGBLight implements TrcTaskMgr.Task
 
         if (enabled)
         {
-            TrcTaskMgr.getInstance().registerTask(moduleName, this, TaskType.POSTCONTINUOUS_TASK);
+            TrcTaskMgr.getInstance().registerTask(
+                moduleName, this, TaskType.POSTCONTINUOUS_TASK, TaskPriority.LOW);
         }
         else
         {
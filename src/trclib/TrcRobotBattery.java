@@ -65,6 +65,9 @@ public abstract class TrcRobotBattery implements TrcTaskMgr.Task
     private double lowestPower = 0.0;
     private double highestPower = 0.0;
     private boolean powerSupported = true;
+    private final TrcFlightRecorder.Channel voltageChannel = TrcFlightRecorder.createChannel("Battery.voltage");
+    private final TrcFlightRecorder.Channel currentChannel = TrcFlightRecorder.createChannel("Battery.current");
+    private final TrcFlightRecorder.Channel powerChannel = TrcFlightRecorder.createChannel("Battery.power");
 
     /**
      * Constructor: create an instance of the object.
@@ -131,7 +134,7 @@ public abstract class TrcRobotBattery implements TrcTaskMgr.Task
                 }
             }
 
-            TrcTaskMgr.getInstance().registerTask(moduleName, this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK);
+            TrcTaskMgr.getInstance().registerTask(moduleName, this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK, true);
         }
         else
         {
@@ -279,6 +282,7 @@ public abstract class TrcRobotBattery implements TrcTaskMgr.Task
         if (voltageSupported)
         {
             double voltage = getVoltage();
+            voltageChannel.record(voltage);
             if (voltage < lowestVoltage)
             {
                 lowestVoltage = voltage;
@@ -292,6 +296,7 @@ public abstract class TrcRobotBattery implements TrcTaskMgr.Task
         if (currentSupported)
         {
             double current = getCurrent();
+            currentChannel.record(current);
             if (current < lowestCurrent)
             {
                 lowestCurrent = current;
@@ -305,6 +310,7 @@ public abstract class TrcRobotBattery implements TrcTaskMgr.Task
         if (powerSupported)
         {
             double power = getPower();
+            powerChannel.record(power);
             if (power < lowestPower)
             {
                 lowestPower = power;
@@ -23,7 +23,6 @@
 package trclib;
 
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import trclib.TrcDbgTrace;
 import trclib.TrcEvent;
@@ -33,7 +32,9 @@ import trclib.TrcUtil;
  * This class implements a platform independent serial bus device. This class is intended to be inherited by a
  * platform dependent serial bus device such as I2C device or Serial Port device that provides synchronous methods
  * to access the device. It creates a request queue to allow both synchronous and asynchronous requests to be queued
- * for processing. The request queue is processed by a separate thread for asynchronous access.
+ * for processing. The request queue is processed by a separate thread for asynchronous access. Requests are queued
+ * by priority class. Urgent requests are processed before normal requests which are processed before background
+ * requests, but a lower class is never passed over more than a bounded number of times in a row.
  *
  * @param <T> specifies the request tag type.
  */
@@ -94,12 +95,27 @@ public abstract class TrcSerialBusDevice implements Runnable
 
     }   //interface CompletionHandler
 
+    /**
+     * This enum specifies the priority classes of requests. Each class has its own FIFO queue.
+     */
+    public enum RequestPriority
+    {
+        URGENT,
+        NORMAL,
+        BACKGROUND
+    }   //enum RequestPriority
+
     /**
      * This class implements a request. Typically, a request will be put in the request queue so that each request
-     * will be processed in the order they came in.
+     * will be processed in the order they came in. Requests are recycled through a free list so that steady state
+     * bus traffic doesn't generate garbage. The request queue and the free list are linked through the next field.
      */
     private class Request
     {
+        public final TrcEvent syncEvent;
+        public final byte[] commandBuffer = new byte[2];
+        public Request next;
+        public RequestPriority priority;
         public Object requestTag;
         public boolean readRequest;
         public int address;
@@ -113,6 +129,16 @@ public abstract class TrcSerialBusDevice implements Runnable
         /**
          * Constructor: Create an instance of the object.
          *
+         * @param id specifies the request ID used to name the synchronous event of the request.
+         */
+        public Request(int id)
+        {
+            syncEvent = new TrcEvent(instanceName + ".request" + id);
+        }   //Request
+
+        /**
+         * This method initializes the request for reuse.
+         *
          * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
          * @param readRequest specifies true for a read request, false for a write request.
          * @param address specifies the data address if any, can be -1 if no address is required.
@@ -123,10 +149,12 @@ public abstract class TrcSerialBusDevice implements Runnable
          * @param handler specifies the completion handler to call when the request is completed, can be null if none
          *                specified.
          */
-        public Request(
+        public void init(
             Object requestTag, boolean readRequest, int address, byte[] buffer, int length, boolean repeat,
             TrcEvent event, CompletionHandler handler)
         {
+            this.next = null;
+            this.priority = RequestPriority.NORMAL;
             this.requestTag = requestTag;
             this.readRequest = readRequest;
             this.address = address;
@@ -136,19 +164,36 @@ public abstract class TrcSerialBusDevice implements Runnable
             this.event = event;
             this.handler = handler;
             this.error = false;
-        }   //Request
+        }   //init
 
     }   //class Request
 
     private TrcDbgTrace perfTracer = null;
     private double totalTime = 0.0;
     private int totalRequests = 0;
+    private volatile long coalescedRequests = 0;
+    //
+    // These are only accessed by the device thread.
+    //
+    private Request[] batch = new Request[8];
+    private byte[] combineBuffer = null;
 
     private final String instanceName;
-    private ConcurrentLinkedQueue<Request> requestQueue;
+    //
+    // The request queues and the request free list are guarded by the device object monitor. There is one queue per
+    // request priority class, indexed by the ordinal of the priority.
+    //
+    private final Request[] queueHeads = new Request[RequestPriority.values().length];
+    private final Request[] queueTails = new Request[queueHeads.length];
+    private final int[] bypassCounts = new int[queueHeads.length];
+    private int maxBypassCount = 8;
+    private Request freeList = null;
+    private int numRequests = 0;
     private Thread deviceTask;
     private volatile long processingInterval = 0;    // in msec
     private volatile boolean taskEnabled = false;
+    private volatile long syncTimeout = 0;          // in msec
+    private volatile int maxCoalescedLength = 0;    // 0 if coalescing is disabled
 
     /**
      * Constructor: Creates an instance of the object.
@@ -163,7 +208,6 @@ public abstract class TrcSerialBusDevice implements Runnable
         }
 
         this.instanceName = instanceName;
-        requestQueue = new ConcurrentLinkedQueue<>();
         deviceTask = new Thread(this, instanceName);
         deviceTask.start();
     }   //TrcSerialBusDevice
@@ -225,13 +269,17 @@ public abstract class TrcSerialBusDevice implements Runnable
                 totalRequests = 0;
             }
             taskEnabled = enabled;
+            if (enabled)
+            {
+                notifyAll();
+            }
         }
     }   //setTaskEnabled
 
     /**
      * This method sets the device task processing interval.
      *
-     * @param interval specifies the processing interval in msec. If 0, process as fast as the CPU can run.
+     * @param interval specifies the processing interval in msec. If 0, process requests as soon as they come in.
      */
     public synchronized void setProcessingInterval(long interval)
     {
@@ -275,7 +323,421 @@ public abstract class TrcSerialBusDevice implements Runnable
     }   //setPerformanceTracer
 
     /**
-     * This method is doing a synchronous read from the device with the specified length to read.
+     * This method sets the maximum time a synchronous read or write waits for the request to complete. A request
+     * that times out is canceled, so it is skipped if the device thread hasn't started it yet.
+     *
+     * @param timeout specifies the timeout in msec, 0 to wait forever.
+     */
+    public void setSyncTimeout(long timeout)
+    {
+        syncTimeout = timeout;
+    }   //setSyncTimeout
+
+    /**
+     * This method enables/disables request coalescing. When enabled, the device thread merges consecutive queued
+     * reads of adjacent data into a single read and consecutive queued writes of adjacent data into a single write,
+     * then splits the result back to each request. Data is adjacent if the requests have no address (i.e. a byte
+     * stream such as a serial port) or if a request starts at the address where the previous one ends. Only enable
+     * this if the device treats a large transfer the same as a sequence of small ones.
+     *
+     * @param enabled specifies true to enable coalescing, false to disable.
+     * @param maxTransactionLength specifies the maximum number of bytes of a merged transaction.
+     */
+    public void setCoalescingEnabled(boolean enabled, int maxTransactionLength)
+    {
+        final String funcName = "setCoalescingEnabled";
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "enabled=%s,maxLen=%d",
+                Boolean.toString(enabled), maxTransactionLength);
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+
+        maxCoalescedLength = enabled? maxTransactionLength: 0;
+    }   //setCoalescingEnabled
+
+    /**
+     * This method returns the number of requests that have been performed as part of a merged transaction.
+     *
+     * @return number of coalesced requests.
+     */
+    public long getCoalescedRequestCount()
+    {
+        return coalescedRequests;
+    }   //getCoalescedRequestCount
+
+    /**
+     * This method sets the maximum number of times in a row a non-empty request queue can be passed over in favor
+     * of a higher priority queue. Once the limit is reached, the request at the head of the starving queue is
+     * processed next. This bounds the waiting time of normal and background requests when urgent requests keep
+     * coming in.
+     *
+     * @param count specifies the maximum number of times a queue can be passed over.
+     */
+    public synchronized void setMaxBypassCount(int count)
+    {
+        final String funcName = "setMaxBypassCount";
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "count=%d", count);
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+
+        maxBypassCount = count;
+    }   //setMaxBypassCount
+
+    /**
+     * This method returns the number of request objects allocated by the device. Requests are recycled, so this
+     * is the highest number of requests outstanding at the same time.
+     *
+     * @return number of request objects allocated.
+     */
+    public synchronized int getRequestPoolSize()
+    {
+        return numRequests;
+    }   //getRequestPoolSize
+
+    /**
+     * This method takes a request from the free list, or creates one if the free list is empty, and initializes it.
+     *
+     * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
+     * @param readRequest specifies true for a read request, false for a write request.
+     * @param address specifies the data address if any, can be -1 if no address is required.
+     * @param buffer specifies the buffer that contains data for a write request, ignored for read request.
+     * @param length specifies the number of bytes to read or write.
+     * @param repeat specifies true to re-queue the request when completed.
+     * @param event specifies the event to signal when the request is completed, can be null if none specified.
+     * @param handler specifies the completion handler to call when the request is completed, can be null if none
+     *                specified.
+     * @return initialized request.
+     */
+    private synchronized Request allocRequest(
+        Object requestTag, boolean readRequest, int address, byte[] buffer, int length, boolean repeat,
+        TrcEvent event, CompletionHandler handler)
+    {
+        Request request = freeList;
+
+        if (request != null)
+        {
+            freeList = request.next;
+        }
+        else
+        {
+            request = new Request(numRequests);
+            numRequests++;
+        }
+        request.init(requestTag, readRequest, address, buffer, length, repeat, event, handler);
+        request.syncEvent.clear();
+
+        return request;
+    }   //allocRequest
+
+    /**
+     * This method returns a request to the free list. The references held by the request are dropped so that they
+     * don't linger in the pool.
+     *
+     * @param request specifies the request to be recycled.
+     */
+    private synchronized void freeRequest(Request request)
+    {
+        request.requestTag = null;
+        request.buffer = null;
+        request.event = null;
+        request.handler = null;
+        request.next = freeList;
+        freeList = request;
+    }   //freeRequest
+
+    /**
+     * This method adds a request to the tail of the queue of its priority class and wakes up the device thread if
+     * it is parked.
+     *
+     * @param request specifies the request to be queued.
+     */
+    private synchronized void enqueueRequest(Request request)
+    {
+        int queue = request.priority.ordinal();
+
+        request.next = null;
+        if (queueTails[queue] == null)
+        {
+            queueHeads[queue] = request;
+        }
+        else
+        {
+            queueTails[queue].next = request;
+        }
+        queueTails[queue] = request;
+        notifyAll();
+    }   //enqueueRequest
+
+    /**
+     * This method checks if all request queues are empty.
+     *
+     * @return true if there is no queued request, false otherwise.
+     */
+    private synchronized boolean isQueueEmpty()
+    {
+        for (Request head: queueHeads)
+        {
+            if (head != null)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }   //isQueueEmpty
+
+    /**
+     * This method selects the request to be processed next without removing it from its queue. It is the request
+     * at the head of the highest priority queue that is not empty, unless a lower priority queue has been passed
+     * over too many times in a row, in which case the request at the head of that queue is selected.
+     *
+     * @return selected request, null if all queues are empty.
+     */
+    private synchronized Request selectRequest()
+    {
+        int selected = -1;
+
+        for (int i = 0; i < queueHeads.length; i++)
+        {
+            if (queueHeads[i] != null)
+            {
+                if (selected == -1)
+                {
+                    selected = i;
+                }
+                else if (bypassCounts[i] >= maxBypassCount)
+                {
+                    selected = i;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < queueHeads.length; i++)
+        {
+            if (i == selected)
+            {
+                bypassCounts[i] = 0;
+            }
+            else if (queueHeads[i] != null)
+            {
+                bypassCounts[i]++;
+            }
+        }
+
+        return selected == -1? null: queueHeads[selected];
+    }   //selectRequest
+
+    /**
+     * This method removes the request at the head of the queue of the given priority class.
+     *
+     * @param priority specifies the priority class of the queue.
+     * @return request removed from the head of the queue, null if the queue is empty.
+     */
+    private synchronized Request pollRequest(RequestPriority priority)
+    {
+        int queue = priority.ordinal();
+        Request request = queueHeads[queue];
+
+        if (request != null)
+        {
+            queueHeads[queue] = request.next;
+            if (queueHeads[queue] == null)
+            {
+                queueTails[queue] = null;
+            }
+            request.next = null;
+        }
+
+        return request;
+    }   //pollRequest
+
+    /**
+     * This method puts a request back to the head of the queue of its priority class.
+     *
+     * @param request specifies the request to be put back.
+     */
+    private synchronized void pushRequest(Request request)
+    {
+        int queue = request.priority.ordinal();
+
+        request.next = queueHeads[queue];
+        queueHeads[queue] = request;
+        if (queueTails[queue] == null)
+        {
+            queueTails[queue] = request;
+        }
+    }   //pushRequest
+
+    /**
+     * This method determines if a queued request can be merged into the same transaction as the previous request.
+     *
+     * @param prev specifies the previous request in the transaction.
+     * @param next specifies the request following it in the queue.
+     * @param totalLength specifies the total length of the transaction so far.
+     * @return true if the request can be merged, false otherwise.
+     */
+    private boolean canCoalesce(Request prev, Request next, int totalLength)
+    {
+        return next != null && next.readRequest == prev.readRequest && next.length > 0 &&
+               (next.readRequest || next.buffer != null) &&
+               (next.event != next.syncEvent || !next.event.isCanceled()) &&
+               totalLength + next.length <= maxCoalescedLength &&
+               (prev.address == -1? next.address == -1: next.address == prev.address + prev.length);
+    }   //canCoalesce
+
+    /**
+     * This method finds the run of requests starting from the head of a queue that can be merged into a single
+     * transaction. A run never spans more than one priority class.
+     *
+     * @param first specifies the request at the head of the queue.
+     * @return last request of the run, first if there is nothing to merge.
+     */
+    private synchronized Request findCoalescingRun(Request first)
+    {
+        Request last = first;
+
+        if (first.length > 0 && (first.readRequest || first.buffer != null))
+        {
+            int totalLength = first.length;
+
+            while (canCoalesce(last, last.next, totalLength))
+            {
+                last = last.next;
+                totalLength += last.length;
+            }
+        }
+
+        return last;
+    }   //findCoalescingRun
+
+    /**
+     * This method removes the requests from the head of the queue of the given request up to the given request and
+     * puts them in the batch array.
+     *
+     * @param last specifies the last request to be removed.
+     * @return number of requests removed.
+     */
+    private synchronized int detachRequests(Request last)
+    {
+        int numRequests = 0;
+        Request request;
+
+        do
+        {
+            request = pollRequest(last.priority);
+            if (numRequests == batch.length)
+            {
+                batch = Arrays.copyOf(batch, numRequests*2);
+            }
+            batch[numRequests++] = request;
+        } while (request != last);
+
+        return numRequests;
+    }   //detachRequests
+
+    /**
+     * This method is called by the device thread to park until there is work to do. There is work to do when the
+     * task is enabled, the request queue is not empty and the next processing deadline is due. The thread is woken
+     * up by enqueueRequest and setTaskEnabled, so an idle device takes no CPU time.
+     *
+     * @param deadline specifies the time in msec the next request can be processed, 0 if no deadline.
+     * @return true if there is work to do, false if the device thread is interrupted.
+     */
+    private synchronized boolean waitForWork(long deadline)
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                if (!taskEnabled || isQueueEmpty())
+                {
+                    wait();
+                }
+                else
+                {
+                    long waitTime = deadline - TrcUtil.getCurrentTimeMillis();
+
+                    if (waitTime <= 0)
+                    {
+                        return true;
+                    }
+                    wait(waitTime);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }   //waitForWork
+
+    /**
+     * This method queues a synchronous request and waits for it to complete. The calling thread blocks on the
+     * request event instead of spinning so it doesn't compete with the device thread for the CPU.
+     *
+     * If the request completed, the caller owns the request and must recycle it with freeRequest after picking up
+     * the result. If it timed out, the request is canceled and the device thread recycles it.
+     *
+     * @param request specifies the request to be performed.
+     * @return true if the request completed, false if it timed out.
+     */
+    private boolean performSyncRequest(Request request)
+    {
+        TrcEvent event = request.syncEvent;
+        boolean completed;
+
+        request.event = event;
+        enqueueRequest(request);
+        event.await(syncTimeout);
+        //
+        // Cancel the request unless the device thread completed it in the meantime. This is done while holding the
+        // event monitor so that the device thread sees either a completed or a canceled request, never both.
+        //
+        synchronized (event)
+        {
+            event.cancel();
+            completed = event.isSignaled();
+        }
+
+        return completed;
+    }   //performSyncRequest
+
+    /**
+     * This method is called by the device thread when it is done with a synchronous request. It signals the waiting
+     * caller, or recycles the request if the caller has given up on it.
+     *
+     * @param request specifies the completed request.
+     */
+    private void completeSyncRequest(Request request)
+    {
+        TrcEvent event = request.syncEvent;
+
+        synchronized (event)
+        {
+            if (!event.isCanceled())
+            {
+                //
+                // The caller owns the request from here on.
+                //
+                event.set(true);
+                return;
+            }
+        }
+
+        freeRequest(request);
+    }   //completeSyncRequest
+
+    /**
+     * This method is doing a synchronous read from the device with the specified length to read. It returns null
+     * if the request timed out.
      *
      * @param address specifies the data address if any, can be -1 if no address is required.
      * @param length specifies the number of bytes to read.
@@ -296,19 +758,14 @@ public abstract class TrcSerialBusDevice implements Runnable
             throw new RuntimeException("Must call setTaskEnabled first.");
         }
 
-        TrcEvent event = new TrcEvent(instanceName + "." + funcName + "." + length);
-        Request request = new Request(null, true, address, null, length, false, event, null);
-
-        requestQueue.add(request);
+        Request request = allocRequest(null, true, address, null, length, false, null, null);
 
-        while (!event.isSignaled())
+        if (performSyncRequest(request))
         {
-            Thread.yield();
+            data = request.buffer;
+            freeRequest(request);
         }
 
-        data = request.buffer;
-        request.buffer = null;
-
         if (debugEnabled)
         {
             dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%s",
@@ -330,7 +787,8 @@ public abstract class TrcSerialBusDevice implements Runnable
     }   //syncRead
 
     /**
-     * This method is doing a synchronous write to the device with the specified data and length.
+     * This method is doing a synchronous write to the device with the specified data and length. It returns 0 if the
+     * request timed out.
      *
      * @param address specifies the data address if any, can be -1 if no address is required.
      * @param data specifies the data to write to the device.
@@ -353,16 +811,17 @@ public abstract class TrcSerialBusDevice implements Runnable
             throw new RuntimeException("Must call setTaskEnabled first.");
         }
 
-        TrcEvent event = new TrcEvent(instanceName + "." + funcName + "." + length);
-        Request request = new Request(null, false, address, data, length, false, event, null);
+        Request request = allocRequest(null, false, address, data, length, false, null, null);
 
-        requestQueue.add(request);
-
-        while (!event.isSignaled())
+        if (performSyncRequest(request))
+        {
+            bytesWritten = request.length;
+            freeRequest(request);
+        }
+        else
         {
-            Thread.yield();
+            bytesWritten = 0;
         }
-        bytesWritten = request.length;
 
         if (debugEnabled)
         {
@@ -387,6 +846,7 @@ public abstract class TrcSerialBusDevice implements Runnable
     /**
      * This method is doing an asynchronous read from the device with the specified length to read.
      *
+     * @param priority specifies the priority class of the request.
      * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
      * @param address specifies the data address if any, can be -1 if no address is required.
      * @param length specifies the number of bytes to read.
@@ -396,18 +856,23 @@ public abstract class TrcSerialBusDevice implements Runnable
      *                specified.
      */
     public void asyncRead(
-        Object requestTag, int address, int length, boolean repeat, TrcEvent event, CompletionHandler handler)
+        RequestPriority priority, Object requestTag, int address, int length, boolean repeat, TrcEvent event,
+        CompletionHandler handler)
     {
         final String funcName = "asyncRead";
+        Request request;
 
         if (debugEnabled)
         {
-            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "tag=%s,addr=%d,len=%d,repeat=%s,event=%s",
-                requestTag != null? requestTag: "null", address, length, Boolean.toString(repeat),
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API,
+                "priority=%s,tag=%s,addr=%d,len=%d,repeat=%s,event=%s",
+                priority, requestTag != null? requestTag: "null", address, length, Boolean.toString(repeat),
                 event == null? "null": event.toString());
         }
 
-        requestQueue.add(new Request(requestTag, true, address, null, length, repeat, event, handler));
+        request = allocRequest(requestTag, true, address, null, length, repeat, event, handler);
+        request.priority = priority;
+        enqueueRequest(request);
 
         if (debugEnabled)
         {
@@ -415,6 +880,23 @@ public abstract class TrcSerialBusDevice implements Runnable
         }
     }   //asyncRead
 
+    /**
+     * This method is doing an asynchronous read from the device with the specified length to read.
+     *
+     * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
+     * @param address specifies the data address if any, can be -1 if no address is required.
+     * @param length specifies the number of bytes to read.
+     * @param repeat specifies true to re-queue the request when completed.
+     * @param event specifies the event to signal when the request is completed, can be null if none specified.
+     * @param handler specifies the completion handler to call when the request is completed, can be null if none
+     *                specified.
+     */
+    public void asyncRead(
+        Object requestTag, int address, int length, boolean repeat, TrcEvent event, CompletionHandler handler)
+    {
+        asyncRead(RequestPriority.NORMAL, requestTag, address, length, repeat, event, handler);
+    }   //asyncRead
+
     /**
      * This method is doing an asynchronous read from the device with the specified length to read.
      *
@@ -462,6 +944,7 @@ public abstract class TrcSerialBusDevice implements Runnable
     /**
      * This method is doing an asynchronous write to the device with the specified data and length
      *
+     * @param priority specifies the priority class of the request.
      * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
      * @param address specifies the data address if any, can be -1 if no address is required.
      * @param data specifies the buffer containing the data to write to the device.
@@ -471,18 +954,23 @@ public abstract class TrcSerialBusDevice implements Runnable
      *                specified.
      */
     public void asyncWrite(
-        Object requestTag, int address, byte[] data, int length, TrcEvent event, CompletionHandler handler)
+        RequestPriority priority, Object requestTag, int address, byte[] data, int length, TrcEvent event,
+        CompletionHandler handler)
     {
         final String funcName = "asyncWrite";
+        Request request;
 
         if (debugEnabled)
         {
-            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "tag=%s,addr=%d,data=%s,length=%d,event=%s",
-                requestTag != null? requestTag: "null", address, Arrays.toString(data), length,
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API,
+                "priority=%s,tag=%s,addr=%d,data=%s,length=%d,event=%s",
+                priority, requestTag != null? requestTag: "null", address, Arrays.toString(data), length,
                 event == null? "null": event.toString());
         }
 
-        requestQueue.add(new Request(requestTag, false, address, data, length, false, event, handler));
+        request = allocRequest(requestTag, false, address, data, length, false, event, handler);
+        request.priority = priority;
+        enqueueRequest(request);
 
         if (debugEnabled)
         {
@@ -490,9 +978,35 @@ public abstract class TrcSerialBusDevice implements Runnable
         }
     }   //asyncWrite
 
+    /**
+     * This method is doing an asynchronous write to the device with the specified data and length
+     *
+     * @param requestTag specifies the tag to identify the request. Can be null if none was provided.
+     * @param address specifies the data address if any, can be -1 if no address is required.
+     * @param data specifies the buffer containing the data to write to the device.
+     * @param length specifies the number of bytes to write.
+     * @param event specifies the event to signal when the request is completed, can be null if none specified.
+     * @param handler specifies the completion handler to call when the request is completed, can be null if none
+     *                specified.
+     */
+    public void asyncWrite(
+        Object requestTag, int address, byte[] data, int length, TrcEvent event, CompletionHandler handler)
+    {
+        asyncWrite(RequestPriority.NORMAL, requestTag, address, data, length, event, handler);
+    }   //asyncWrite
+
+    /**
+     * This method writes the data to the device ahead of all queued requests. The write is still performed by the
+     * device thread, so it never interrupts a transaction in progress. It is queued as an urgent request and
+     * processed right after the current transaction.
+     *
+     * @param address specifies the data address if any, can be -1 if no address is required.
+     * @param data specifies the buffer containing the data to write to the device.
+     * @param length specifies the number of bytes to write.
+     */
     public void preemptiveWrite(int address, byte[] data, int length)
     {
-        writeData(address, data, data.length);
+        asyncWrite(RequestPriority.URGENT, null, address, data, length, null, null);
     }   //preemptiveWrite
 
     /**
@@ -510,6 +1024,32 @@ public abstract class TrcSerialBusDevice implements Runnable
         asyncWrite(requestTag, -1, data, length, event, handler);
     }   //asyncWrite
 
+    /**
+     * This method sends a command of one or two bytes already stored in the command buffer of the request. The
+     * command buffer belongs to the pooled request, so no data buffer is allocated per command.
+     *
+     * @param request specifies the write request containing the command.
+     * @param waitForCompletion specifies true to wait for write completion.
+     */
+    private void sendCommand(Request request, boolean waitForCompletion)
+    {
+        request.buffer = request.commandBuffer;
+        if (waitForCompletion)
+        {
+            if (performSyncRequest(request))
+            {
+                freeRequest(request);
+            }
+        }
+        else
+        {
+            //
+            // Fire and forget.
+            //
+            enqueueRequest(request);
+        }
+    }   //sendCommand
+
     /**
      * This method sends a byte command to the device.
      *
@@ -520,7 +1060,7 @@ public abstract class TrcSerialBusDevice implements Runnable
     public void sendByteCommand(int address, byte command, boolean waitForCompletion)
     {
         final String funcName = "sendByteCommand";
-        byte[] data = new byte[1];
+        Request request;
 
         if (debugEnabled)
         {
@@ -528,18 +1068,9 @@ public abstract class TrcSerialBusDevice implements Runnable
                 address, command, Boolean.toString(waitForCompletion));
         }
 
-        data[0] = command;
-        if (waitForCompletion)
-        {
-            syncWrite(address, data, data.length);
-        }
-        else
-        {
-            //
-            // Fire and forget.
-            //
-            asyncWrite(null, address, data, data.length, null, null);
-        }
+        request = allocRequest(null, false, address, null, 1, false, null, null);
+        request.commandBuffer[0] = command;
+        sendCommand(request, waitForCompletion);
 
         if (debugEnabled)
         {
@@ -557,7 +1088,7 @@ public abstract class TrcSerialBusDevice implements Runnable
     public void sendWordCommand(int address, short command, boolean waitForCompletion)
     {
         final String funcName = "sendWordCommand";
-        byte[] data = new byte[2];
+        Request request;
 
         if (debugEnabled)
         {
@@ -565,25 +1096,206 @@ public abstract class TrcSerialBusDevice implements Runnable
                 address, command, Boolean.toString(waitForCompletion));
         }
 
-        data[0] = (byte)(command & 0xff);
-        data[1] = (byte)(command >> 8);
-        if (waitForCompletion)
+        request = allocRequest(null, false, address, null, 2, false, null, null);
+        request.commandBuffer[0] = (byte)(command & 0xff);
+        request.commandBuffer[1] = (byte)(command >> 8);
+        sendCommand(request, waitForCompletion);
+
+        if (debugEnabled)
         {
-            syncWrite(address, data, data.length);
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //sendWordCommand
+
+    /**
+     * This method updates the request time statistics.
+     *
+     * @param funcName specifies the name of the calling method for the performance trace.
+     * @param elapsedTime specifies the time spent on the last transaction in msec.
+     */
+    private void updatePerformance(String funcName, double elapsedTime)
+    {
+        totalTime += elapsedTime;
+        totalRequests++;
+        if (perfTracer != null)
+        {
+            perfTracer.traceInfo(funcName, "Average request time = %.3f msec", totalTime/totalRequests);
+        }
+    }   //updatePerformance
+
+    /**
+     * This method performs a single request on the device.
+     *
+     * @param request specifies the request to be performed.
+     */
+    private void performRequest(Request request)
+    {
+        if (request.readRequest)
+        {
+            request.buffer = readData(request.address, request.length);
+            request.error = request.buffer == null;
         }
         else
         {
-            //
-            // Fire and forget.
-            //
-            asyncWrite(null, address, data, data.length, null, null);
+            int length = writeData(request.address, request.buffer, request.length);
+            request.error = length != request.length;
+            request.length = length;
         }
+    }   //performRequest
 
-        if (debugEnabled)
+    /**
+     * This method performs the requests in the batch array as a single transaction and splits the result back to
+     * each request. If a merged read returns less data than requested, the requests that got no data are put back
+     * to the head of the queue to be read again, so are the requests whose handler rejected the data.
+     *
+     * @param funcName specifies the name of the calling method for the performance trace.
+     * @param numRequests specifies the number of requests in the batch array.
+     */
+    private void performCoalescedRequests(String funcName, int numRequests)
+    {
+        Request first = batch[0];
+        double startTime = TrcUtil.getCurrentTime();
+        int numCompleted = numRequests;
+        int totalLength = 0;
+        int numRetries = 0;
+
+        for (int i = 0; i < numRequests; i++)
         {
-            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+            totalLength += batch[i].length;
         }
-    }   //sendWordCommand
+
+        if (first.readRequest)
+        {
+            byte[] data = readData(first.address, totalLength);
+
+            for (int i = 0, offset = 0; i < numRequests; offset += batch[i].length, i++)
+            {
+                Request request = batch[i];
+
+                if (data == null)
+                {
+                    request.buffer = null;
+                    request.error = true;
+                }
+                else if (i == 0 || offset < data.length)
+                {
+                    request.buffer = Arrays.copyOfRange(data, offset, Math.min(offset + request.length, data.length));
+                    request.error = false;
+                }
+                else
+                {
+                    numCompleted = i;
+                    break;
+                }
+            }
+        }
+        else
+        {
+            int length;
+
+            if (combineBuffer == null || combineBuffer.length < totalLength)
+            {
+                combineBuffer = new byte[totalLength];
+            }
+
+            for (int i = 0, offset = 0; i < numRequests; offset += batch[i].length, i++)
+            {
+                System.arraycopy(batch[i].buffer, 0, combineBuffer, offset, batch[i].length);
+            }
+            length = writeData(first.address, combineBuffer, totalLength);
+
+            for (int i = 0, offset = 0; i < numRequests; offset += batch[i].length, i++)
+            {
+                Request request = batch[i];
+                int written = Math.max(Math.min(length - offset, request.length), 0);
+
+                request.error = written != request.length;
+                request.length = written;
+            }
+        }
+        updatePerformance(funcName, TrcUtil.getCurrentTime() - startTime);
+        coalescedRequests += numCompleted;
+
+        for (int i = 0; i < numRequests; i++)
+        {
+            Request request = batch[i];
+
+            batch[i] = null;
+            if (i >= numCompleted || notifyCompletion(request))
+            {
+                //
+                // Retry this request. Retries are collected at the front of the batch array in their original order.
+                //
+                batch[numRetries++] = request;
+            }
+            else
+            {
+                recycleRequest(request);
+            }
+        }
+
+        while (numRetries > 0)
+        {
+            numRetries--;
+            pushRequest(batch[numRetries]);
+            batch[numRetries] = null;
+        }
+    }   //performCoalescedRequests
+
+    /**
+     * This method notifies the completion of a request to its event and its completion handler. The event of a
+     * synchronous request is signaled later by recycleRequest.
+     *
+     * @param request specifies the performed request.
+     * @return true if the handler rejected the read data and wants to retry the request, false otherwise.
+     */
+    private boolean notifyCompletion(Request request)
+    {
+        boolean retry = false;
+
+        if (request.event != null && request.event != request.syncEvent)
+        {
+            request.event.set(true);
+        }
+
+        if (request.handler != null)
+        {
+            if (request.readRequest)
+            {
+                retry = request.handler.readCompletion(
+                    request.requestTag, request.address, request.buffer, request.error);
+            }
+            else
+            {
+                request.handler.writeCompletion(request.requestTag, request.address, request.length, request.error);
+            }
+        }
+
+        return retry;
+    }   //notifyCompletion
+
+    /**
+     * This method is called when the device thread is done with a request that has been removed from the queue.
+     * A repeat request is added back to the tail of the queue, a synchronous request is handed back to the waiting
+     * caller and any other request is recycled.
+     *
+     * @param request specifies the completed request.
+     */
+    private void recycleRequest(Request request)
+    {
+        if (request.readRequest && request.repeat)
+        {
+            enqueueRequest(request);
+        }
+        else if (request.event == request.syncEvent)
+        {
+            completeSyncRequest(request);
+        }
+        else
+        {
+            freeRequest(request);
+        }
+    }   //recycleRequest
 
     //
     // Implements Runnable interface.
@@ -597,12 +1309,15 @@ public abstract class TrcSerialBusDevice implements Runnable
     {
         final String funcName = "run";
 
+        TrcDbgTrace.setThreadTag(instanceName);
         if (debugEnabled)
         {
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.CALLBK);
         }
 
-        while (!Thread.interrupted())
+        long deadline = 0;
+
+        while (waitForWork(deadline))
         {
             long requestStartTime = TrcUtil.getCurrentTimeMillis();
 
@@ -612,88 +1327,43 @@ public abstract class TrcSerialBusDevice implements Runnable
                 // Don't remove the request yet. If it is a read request and the handler is rejecting the data, let
                 // the request stays at the head of the queue so it can retry the read request.
                 //
-                Request request = requestQueue.peek();
+                Request request = selectRequest();
 
-                if (request != null)
+                if (request != null && request.event == request.syncEvent && request.event.isCanceled())
                 {
-                    double startTime;
-                    double elapsedTime;
+                    //
+                    // The synchronous caller has timed out and given up on this request, drop it.
+                    //
+                    freeRequest(pollRequest(request.priority));
+                }
+                else if (request != null)
+                {
+                    Request last = maxCoalescedLength > 0? findCoalescingRun(request): request;
 
-                    startTime = TrcUtil.getCurrentTime();
-                    if (request.readRequest)
+                    if (last == request)
                     {
-                        request.buffer = readData(request.address, request.length);
-                        request.error = request.buffer == null;
-                    }
-                    else
-                    {
-                        int length = writeData(request.address, request.buffer, request.length);
-                        request.error = length != request.length;
-                        request.length = length;
-                    }
-                    elapsedTime = TrcUtil.getCurrentTime() - startTime;
-                    totalTime += elapsedTime;
-                    totalRequests++;
-                    if (perfTracer != null)
-                    {
-                        perfTracer.traceInfo(funcName, "Average request time = %.3f msec", totalTime/totalRequests);
-                    }
+                        double startTime = TrcUtil.getCurrentTime();
 
-                    if (request.event != null)
-                    {
-                        request.event.set(true);
-                    }
-
-                    if (request.handler != null)
-                    {
-                        if (request.readRequest)
-                        {
-                            if (!request.handler.readCompletion(
-                                    request.requestTag, request.address, request.buffer, request.error))
-                            {
-                                //
-                                // The handler accepted the data, so remove the request from the head of the queue.
-                                //
-                                request = requestQueue.poll();
-                            }
-                        }
-                        else
+                        performRequest(request);
+                        updatePerformance(funcName, TrcUtil.getCurrentTime() - startTime);
+                        if (!notifyCompletion(request))
                         {
-                            request.handler.writeCompletion(
-                                request.requestTag, request.address, request.length, request.error);
                             //
-                            // Write request completed, remove it from head of the queue.
+                            // The request is completed, so remove it from the head of the queue. Otherwise, the
+                            // handler rejected the data and the request stays at the head of the queue for retry.
                             //
-                            request = requestQueue.poll();
+                            pollRequest(request.priority);
+                            recycleRequest(request);
                         }
                     }
                     else
                     {
-                        //
-                        // There is no handler, we are done. Remove the request from the head of the queue.
-                        //
-                        request = requestQueue.poll();
-                    }
-
-                    if (request.readRequest && request.repeat)
-                    {
-                        //
-                        // This is a repeat request, add it back to the tail of the queue.
-                        //
-                        requestQueue.add(request);
+                        performCoalescedRequests(funcName, detachRequests(last));
                     }
                 }
             }
 
-            if (processingInterval > 0)
-            {
-                long sleepTime = processingInterval - (TrcUtil.getCurrentTimeMillis() - requestStartTime);
-                TrcUtil.sleep(sleepTime);
-            }
-            else
-            {
-                Thread.yield();
-            }
+            deadline = processingInterval > 0? requestStartTime + processingInterval: 0;
         }
 
         if (debugEnabled)
@@ -87,7 +87,8 @@ public class TrcSongPlayer implements TrcTaskMgr.Task
         if (enabled)
         {
             taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.STOP_TASK);
-            taskMgr.registerTask(instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK);
+            taskMgr.registerTask(
+                instanceName, this, TrcTaskMgr.TaskType.POSTCONTINUOUS_TASK, TrcTaskMgr.TaskPriority.LOW);
         }
         else
         {
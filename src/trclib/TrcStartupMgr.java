@@ -0,0 +1,659 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class orchestrates the robot startup. The robot initialization is broken up into named steps, each may
+ * depend on other steps. Steps that don't depend on each other are run in parallel on a small pool of worker threads
+ * so that slow device initialization such as gyro calibration or camera setup overlap. Optional devices can be
+ * added as deferred steps which are not run at startup but the first time they are needed. The start time, duration
+ * and thread of each step are recorded so the startup timeline can be printed.
+ *
+ * Steps run in parallel so they must only initialize their own objects. Objects created by a step are visible to
+ * the thread calling run() or ensureStep() once it returns.
+ */
+public class TrcStartupMgr
+{
+    private static final String moduleName = "TrcStartupMgr";
+    private static final boolean debugEnabled = false;
+    private static final boolean tracingEnabled = false;
+    private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
+    private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private TrcDbgTrace dbgTrace = null;
+
+    /**
+     * These are the states of a startup step.
+     */
+    public enum StepState
+    {
+        /**
+         * The step has not run yet.
+         */
+        PENDING,
+
+        /**
+         * The step is queued or running.
+         */
+        RUNNING,
+
+        /**
+         * The step has completed successfully.
+         */
+        DONE,
+
+        /**
+         * The step has thrown an exception.
+         */
+        FAILED,
+
+        /**
+         * The step was not run because one of its dependencies did not complete successfully.
+         */
+        SKIPPED
+
+    }   //enum StepState
+
+    /**
+     * This class keeps the information of a startup step.
+     */
+    private class Step implements Runnable
+    {
+        private final String name;
+        private final Runnable init;
+        private final boolean deferred;
+        private final String[] dependencies;
+        private final ArrayList<Step> dependents = new ArrayList<>();
+        private int pendingDependencies = 0;
+        private StepState state = StepState.PENDING;
+        private double startTime = 0.0;
+        private double endTime = 0.0;
+        private String threadName = null;
+        private Throwable error = null;
+
+        /**
+         * Constructor: Create an instance of the object.
+         *
+         * @param name specifies the name of the step.
+         * @param init specifies the initialization code of the step.
+         * @param deferred specifies true if the step is only run when needed, false if it is run at startup.
+         * @param dependencies specifies the names of the steps that must complete before this step.
+         */
+        public Step(final String name, Runnable init, boolean deferred, String[] dependencies)
+        {
+            this.name = name;
+            this.init = init;
+            this.deferred = deferred;
+            this.dependencies = dependencies;
+        }   //Step
+
+        @Override
+        public void run()
+        {
+            execute(this);
+        }   //run
+
+    }   //class Step
+
+    private static final int DEF_NUM_THREADS = 4;
+
+    private final String instanceName;
+    private final int numThreads;
+    private final LinkedHashMap<String, Step> steps = new LinkedHashMap<>();
+    private ExecutorService executor = null;
+    private boolean started = false;
+    private int numRequiredPending = 0;
+    private double startupStartTime = 0.0;
+    private double startupEndTime = 0.0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param numThreads specifies the number of worker threads running the steps in parallel.
+     */
+    public TrcStartupMgr(final String instanceName, int numThreads)
+    {
+        if (debugEnabled)
+        {
+            dbgTrace = new TrcDbgTrace(moduleName + "." + instanceName, tracingEnabled, traceLevel, msgLevel);
+        }
+
+        this.instanceName = instanceName;
+        this.numThreads = numThreads;
+    }   //TrcStartupMgr
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     */
+    public TrcStartupMgr(final String instanceName)
+    {
+        this(instanceName, DEF_NUM_THREADS);
+    }   //TrcStartupMgr
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method adds a step that is run at startup. The step is run as soon as all its dependencies have
+     * completed.
+     *
+     * @param name specifies the name of the step.
+     * @param init specifies the initialization code of the step.
+     * @param dependencies specifies the names of the steps that must complete before this step.
+     */
+    public synchronized void addStep(final String name, Runnable init, String... dependencies)
+    {
+        addStep(name, init, false, dependencies);
+    }   //addStep
+
+    /**
+     * This method adds a deferred step. A deferred step is not run at startup, it is run by ensureStep the first
+     * time the device it initializes is needed, or started in the background by startStep.
+     *
+     * @param name specifies the name of the step.
+     * @param init specifies the initialization code of the step.
+     * @param dependencies specifies the names of the steps that must complete before this step.
+     */
+    public synchronized void addDeferredStep(final String name, Runnable init, String... dependencies)
+    {
+        addStep(name, init, true, dependencies);
+    }   //addDeferredStep
+
+    /**
+     * This method adds a step.
+     *
+     * @param name specifies the name of the step.
+     * @param init specifies the initialization code of the step.
+     * @param deferred specifies true if the step is only run when needed, false if it is run at startup.
+     * @param dependencies specifies the names of the steps that must complete before this step.
+     */
+    private void addStep(final String name, Runnable init, boolean deferred, String[] dependencies)
+    {
+        if (started)
+        {
+            throw new IllegalStateException("Cannot add steps after startup has started.");
+        }
+
+        if (steps.containsKey(name))
+        {
+            throw new IllegalArgumentException("Startup step " + name + " already exists.");
+        }
+
+        steps.put(name, new Step(name, init, deferred, dependencies));
+    }   //addStep
+
+    /**
+     * This method runs all the startup steps that are not deferred and waits for them to complete. Independent
+     * steps are run in parallel.
+     *
+     * @throws IllegalArgumentException if a dependency doesn't exist, a startup step depends on a deferred step or
+     *         the dependencies are circular.
+     * @throws RuntimeException if a startup step failed. The exception of the step is the cause.
+     */
+    public void run()
+    {
+        final String funcName = "run";
+        Step failedStep = null;
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+
+        synchronized (this)
+        {
+            if (started)
+            {
+                throw new IllegalStateException("Startup has already been run.");
+            }
+
+            resolveDependencies();
+            started = true;
+            startupStartTime = TrcUtil.getCurrentTime();
+
+            for (Step step: steps.values())
+            {
+                if (!step.deferred && step.pendingDependencies == 0)
+                {
+                    submit(step);
+                }
+            }
+
+            while (numRequiredPending > 0)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            startupEndTime = TrcUtil.getCurrentTime();
+
+            for (Step step: steps.values())
+            {
+                if (step.state == StepState.FAILED)
+                {
+                    failedStep = step;
+                    break;
+                }
+            }
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%.3f", startupEndTime - startupStartTime);
+        }
+
+        if (failedStep != null)
+        {
+            throw new RuntimeException("Startup step " + failedStep.name + " failed.", failedStep.error);
+        }
+    }   //run
+
+    /**
+     * This method makes sure the given step has completed, running it on the caller's thread if it hasn't been run
+     * yet. It is typically called before the first use of a device initialized by a deferred step. If the step is
+     * running on another thread, it waits for it to complete.
+     *
+     * @param name specifies the name of the step.
+     * @return true if the step has completed successfully, false otherwise.
+     * @throws IllegalStateException if the step is a startup step and run() has not been called.
+     */
+    public boolean ensureStep(final String name)
+    {
+        Step step = getStep(name);
+        boolean runHere = false;
+
+        synchronized (this)
+        {
+            if (!started && !step.deferred)
+            {
+                throw new IllegalStateException("Startup step " + name + " is only run by run().");
+            }
+        }
+
+        for (String dependency: step.dependencies)
+        {
+            if (!ensureStep(dependency))
+            {
+                synchronized (this)
+                {
+                    if (step.state == StepState.PENDING)
+                    {
+                        step.state = StepState.SKIPPED;
+                    }
+                }
+                break;
+            }
+        }
+
+        synchronized (this)
+        {
+            while (step.state == StepState.RUNNING || !step.deferred && step.state == StepState.PENDING)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            if (step.state == StepState.PENDING)
+            {
+                step.state = StepState.RUNNING;
+                runHere = true;
+            }
+        }
+
+        if (runHere)
+        {
+            execute(step);
+        }
+
+        synchronized (this)
+        {
+            return step.state == StepState.DONE;
+        }
+    }   //ensureStep
+
+    /**
+     * This method starts a deferred step on a worker thread if it hasn't been run yet. This allows a deferred step
+     * to be started ahead of its first use. The caller can then call ensureStep to wait for it.
+     *
+     * @param name specifies the name of the step.
+     */
+    public void startStep(final String name)
+    {
+        final Step step = getStep(name);
+
+        synchronized (this)
+        {
+            if (step.state == StepState.PENDING)
+            {
+                getExecutor().execute(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            ensureStep(step.name);
+                        }
+                    });
+            }
+        }
+    }   //startStep
+
+    /**
+     * This method returns the state of the given step.
+     *
+     * @param name specifies the name of the step.
+     * @return state of the step.
+     */
+    public synchronized StepState getStepState(final String name)
+    {
+        return getStep(name).state;
+    }   //getStepState
+
+    /**
+     * This method returns the time it took to run the given step.
+     *
+     * @param name specifies the name of the step.
+     * @return elapsed time of the step in seconds, 0 if the step has not completed.
+     */
+    public synchronized double getStepElapsedTime(final String name)
+    {
+        Step step = getStep(name);
+        return step.endTime > 0.0? step.endTime - step.startTime: 0.0;
+    }   //getStepElapsedTime
+
+    /**
+     * This method returns the time it took to run all the startup steps.
+     *
+     * @return elapsed time of the startup in seconds.
+     */
+    public synchronized double getStartupElapsedTime()
+    {
+        return startupEndTime - startupStartTime;
+    }   //getStartupElapsedTime
+
+    /**
+     * This method prints the startup timeline to the given tracer. Each step is printed with its start time
+     * relative to the start of the startup, its duration and the thread it ran on.
+     *
+     * @param tracer specifies the tracer to print to.
+     */
+    public synchronized void traceTimeline(TrcDbgTrace tracer)
+    {
+        final String funcName = "traceTimeline";
+        double totalStepTime = 0.0;
+
+        for (Step step: steps.values())
+        {
+            if (step.endTime > 0.0)
+            {
+                totalStepTime += step.endTime - step.startTime;
+            }
+        }
+
+        tracer.traceInfo(funcName, "%s: startup took %.3fs, steps took %.3fs on %d threads",
+            instanceName, startupEndTime - startupStartTime, totalStepTime, numThreads);
+        for (Step step: steps.values())
+        {
+            if (step.endTime > 0.0)
+            {
+                tracer.traceInfo(funcName, "  %-20s %-8s start=%+.3fs, duration=%.3fs, thread=%s%s",
+                    step.name, step.state, step.startTime - startupStartTime, step.endTime - step.startTime,
+                    step.threadName, step.error != null? ", error=" + step.error: "");
+            }
+            else
+            {
+                tracer.traceInfo(funcName, "  %-20s %s%s", step.name, step.state, step.deferred? " (deferred)": "");
+            }
+        }
+    }   //traceTimeline
+
+    /**
+     * This method returns the step of the given name.
+     *
+     * @param name specifies the name of the step.
+     * @return step of the given name.
+     * @throws IllegalArgumentException if the step doesn't exist.
+     */
+    private synchronized Step getStep(final String name)
+    {
+        Step step = steps.get(name);
+
+        if (step == null)
+        {
+            throw new IllegalArgumentException("Startup step " + name + " doesn't exist.");
+        }
+
+        return step;
+    }   //getStep
+
+    /**
+     * This method links every startup step to the steps depending on it and checks that all the startup steps can
+     * be run. It must be called with the lock held.
+     */
+    private void resolveDependencies()
+    {
+        ArrayList<Step> ready = new ArrayList<>();
+        int numOrdered = 0;
+
+        for (Step step: steps.values())
+        {
+            for (String dependency: step.dependencies)
+            {
+                Step depStep = getStep(dependency);
+
+                if (!step.deferred)
+                {
+                    if (depStep.deferred)
+                    {
+                        throw new IllegalArgumentException(
+                            "Startup step " + step.name + " cannot depend on deferred step " + dependency + ".");
+                    }
+                    depStep.dependents.add(step);
+                    step.pendingDependencies++;
+                }
+            }
+
+            if (!step.deferred)
+            {
+                numRequiredPending++;
+                if (step.pendingDependencies == 0)
+                {
+                    ready.add(step);
+                }
+            }
+        }
+        //
+        // Make sure there is no circular dependency by walking the steps in dependency order.
+        //
+        int[] pending = new int[steps.size()];
+        ArrayList<Step> stepList = new ArrayList<>(steps.values());
+        for (int i = 0; i < pending.length; i++)
+        {
+            pending[i] = stepList.get(i).pendingDependencies;
+        }
+
+        while (!ready.isEmpty())
+        {
+            Step step = ready.remove(ready.size() - 1);
+            numOrdered++;
+            for (Step dependent: step.dependents)
+            {
+                int index = stepList.indexOf(dependent);
+                if (--pending[index] == 0)
+                {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (numOrdered != numRequiredPending)
+        {
+            throw new IllegalArgumentException("Startup steps have circular dependencies.");
+        }
+    }   //resolveDependencies
+
+    /**
+     * This method queues a step to run on a worker thread. It must be called with the lock held.
+     *
+     * @param step specifies the step to run.
+     */
+    private void submit(Step step)
+    {
+        step.state = StepState.RUNNING;
+        getExecutor().execute(step);
+    }   //submit
+
+    /**
+     * This method runs a step that has been claimed by the caller and records its timing. When a startup step
+     * completes, the steps depending on it are queued if they have no more pending dependency, or skipped if the
+     * step has failed.
+     *
+     * @param step specifies the step to run.
+     */
+    private void execute(Step step)
+    {
+        final String funcName = "execute";
+        Throwable error = null;
+
+        synchronized (this)
+        {
+            step.startTime = TrcUtil.getCurrentTime();
+            step.threadName = Thread.currentThread().getName();
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceInfo(funcName, "Starting step %s on %s.", step.name, step.threadName);
+        }
+
+        try
+        {
+            step.init.run();
+        }
+        catch (Throwable e)
+        {
+            error = e;
+        }
+
+        synchronized (this)
+        {
+            step.endTime = TrcUtil.getCurrentTime();
+            step.error = error;
+            step.state = error == null? StepState.DONE: StepState.FAILED;
+
+            if (!step.deferred)
+            {
+                numRequiredPending--;
+                for (Step dependent: step.dependents)
+                {
+                    if (error != null)
+                    {
+                        skip(dependent);
+                    }
+                    else if (--dependent.pendingDependencies == 0 && dependent.state == StepState.PENDING)
+                    {
+                        submit(dependent);
+                    }
+                }
+            }
+            notifyAll();
+        }
+    }   //execute
+
+    /**
+     * This method skips a startup step and all the steps depending on it because one of its dependencies has failed.
+     * It must be called with the lock held.
+     *
+     * @param step specifies the step to skip.
+     */
+    private void skip(Step step)
+    {
+        if (step.state == StepState.PENDING)
+        {
+            step.state = StepState.SKIPPED;
+            numRequiredPending--;
+            for (Step dependent: step.dependents)
+            {
+                skip(dependent);
+            }
+        }
+    }   //skip
+
+    /**
+     * This method returns the executor of the worker threads, creating it if necessary. The worker threads are
+     * daemon threads so they don't keep the program alive.
+     *
+     * @return executor of the worker threads.
+     */
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(
+                numThreads,
+                new ThreadFactory()
+                {
+                    private int threadCount = 0;
+
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, instanceName + ".worker" + threadCount++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+
+        return executor;
+    }   //getExecutor
+
+}   //class TrcStartupMgr
@@ -23,11 +23,21 @@
 package trclib;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class provides methods for the callers to register/unregister cooperative multi-tasking tasks. It manages
- * these tasks and will work with the cooperative multi-tasking scheduler to run these tasks.
+ * these tasks and will work with the cooperative multi-tasking scheduler to run these tasks. Tasks may be registered
+ * and unregistered from any thread, for example by subsystems initialized in parallel at startup. A registration
+ * from another thread while tasks are being dispatched waits for the dispatch to finish.
  */
 public class TrcTaskMgr
 {
@@ -38,6 +48,19 @@ public class TrcTaskMgr
     private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
     private TrcDbgTrace dbgTrace = null;
 
+    /**
+     * This is the set of all run modes. Tasks registered without a set of run modes are run in all modes.
+     */
+    public static final Set<TrcRobot.RunMode> ALL_MODES =
+        Collections.unmodifiableSet(EnumSet.allOf(TrcRobot.RunMode.class));
+
+    /**
+     * This is the set of run modes in which the robot is enabled. Tasks that do nothing while the robot is disabled
+     * should be registered with this set so they are not dispatched in DISABLED_MODE.
+     */
+    public static final Set<TrcRobot.RunMode> ENABLED_MODES = Collections.unmodifiableSet(
+        EnumSet.of(TrcRobot.RunMode.AUTO_MODE, TrcRobot.RunMode.TELEOP_MODE, TrcRobot.RunMode.TEST_MODE));
+
     /**
      * These are the task type TrcTaskMgr supports:
      */
@@ -77,6 +100,30 @@ public class TrcTaskMgr
 
     }   //enum TaskType
 
+    /**
+     * These are the priority classes of tasks within a task type. Tasks of a higher priority class are run before
+     * tasks of a lower priority class. LOW priority tasks may be deferred to the next pass when the pass is running
+     * over its time budget.
+     */
+    public enum TaskPriority
+    {
+        /**
+         * HIGH priority is for control critical tasks such as PID control loops that program the motors.
+         */
+        HIGH,
+
+        /**
+         * NORMAL priority is the default priority of a task.
+         */
+        NORMAL,
+
+        /**
+         * LOW priority is for tasks that can tolerate running late such as LED patterns and song players.
+         */
+        LOW
+
+    }   //enum TaskPriority
+
     /**
      * Any class that is registering as a cooperative multi-tasking task must implement this interface.
      */
@@ -138,73 +185,98 @@ public class TrcTaskMgr
 
     }   //interface Task
 
+    /**
+     * This class keeps the statistics and the time budget of a task. They are keyed by task name so they survive
+     * tasks that register and unregister themselves repeatedly such as TrcPidDrive.
+     */
+    private static class TaskStats
+    {
+        private final TrcHistogram[] execTimes = new TrcHistogram[TaskType.values().length];
+        private final long[] shedCounts = new long[TaskType.values().length];
+        private final int[] consecutiveSheds = new int[TaskType.values().length];
+        private volatile long budgetNanos = 0;
+        private long budgetOverruns = 0;
+
+    }   //class TaskStats
+
     /**
      * This class implements TaskObject that will be created whenever a class is registered as a cooperative
-     * multi-tasking task. The created task objects will be entered into an array list of task objects to be
-     * scheduled by the scheduler.
+     * multi-tasking task. The created task objects will be entered into the dispatch table of each run mode and task
+     * type it is registered for. The task object remembers its slot in each dispatch table so that it can be removed
+     * without searching the table.
      */
     private static class TaskObject
     {
-        private HashSet<TaskType> taskTypes;
         private final String taskName;
-        private Task task;
+        private final Task task;
+        private final int[][] tableSlots;
+        private final TaskPriority[] priorities;
+        private final TaskStats stats;
+        private final ParallelAction[] parallelActions;
+        private int numTypes;
 
         /**
-         * Constructor: Creates an instgance of the task object with the given name
-         * and the given task type.
+         * Constructor: Creates an instance of the task object with the given name.
          *
          * @param taskName specifies the instance name of the task.
          * @param task specifies the object that implements the TrcTaskMgr.Task interface.
+         * @param stats specifies the statistics of the task.
          */
-        public TaskObject(final String taskName, Task task)
+        public TaskObject(final String taskName, Task task, TaskStats stats)
         {
-            taskTypes = new HashSet<>();
             this.taskName = taskName;
             this.task = task;
+            this.tableSlots = new int[TrcRobot.RunMode.values().length][TaskType.values().length];
+            for (int[] slots: tableSlots)
+            {
+                Arrays.fill(slots, -1);
+            }
+            this.priorities = new TaskPriority[TaskType.values().length];
+            Arrays.fill(priorities, TaskPriority.NORMAL);
+            this.stats = stats;
+            this.parallelActions = new ParallelAction[TaskType.values().length];
+            this.numTypes = 0;
         }   //TaskObject
 
         /**
-         * This method adds the given task type to the task object.
+         * This method returns the priority class of the task for the given task type.
          *
          * @param type specifies the task type.
-         * @return true if successful, false if the task with that task type is already registered in the task list.
+         * @return priority class of the task.
          */
-        public boolean addTaskType(TaskType type)
+        public TaskPriority getPriority(TaskType type)
         {
-            return taskTypes.add(type);
-        }   //addTaskType
+            return priorities[type.ordinal()];
+        }   //getPriority
 
         /**
-         * This method removes the given task type from the task object.
+         * This method checks if the task is registered as parallel safe for the given task type.
          *
-         * @param type specifies the task type.
-         * @return true if successful, false if the task with that type is not found the task list.
-         */
-        public boolean removeTaskType(TaskType type)
-        {
-            return taskTypes.remove(type);
-        }   //removeTaskType
-
-        /**
-         * This method checks if the given task is associated with this task object.
-         *
-         * @param task specifies the task to be checked against.
-         * @return true if it is the same task, false otherwise.
+         * @param type specifies the task type to be checked against.
+         * @return true if the task can run on the worker pool for the given type, false otherwise.
          */
-        public boolean isSame(Task task)
+        public boolean isParallel(TaskType type)
         {
-            return task == this.task;
-        }   //isSame
+            return parallelActions[type.ordinal()] != null;
+        }   //isParallel
 
         /**
-         * This method checks if the given task type is registered with this task object.
+         * This method checks if the given task type is registered with this task object in any run mode.
          *
          * @param type specifies the task type to be checked against.
          * @return true if this task is registered as the given type, false otherwise.
          */
         public boolean hasType(TaskType type)
         {
-            return taskTypes.contains(type);
+            for (int[] slots: tableSlots)
+            {
+                if (slots[type.ordinal()] != -1)
+                {
+                    return true;
+                }
+            }
+
+            return false;
         }   //hasType
 
         /**
@@ -214,9 +286,35 @@ public class TrcTaskMgr
          */
         public boolean hasNoType()
         {
-            return taskTypes.isEmpty();
+            return numTypes == 0;
         }   //hasNoType
 
+        /**
+         * This method returns the slot index of this task object in its priority lane of the dispatch table of the
+         * given run mode and task type.
+         *
+         * @param mode specifies the run mode.
+         * @param type specifies the task type.
+         * @return slot index in the dispatch table, -1 if not registered for the run mode and type.
+         */
+        public int getSlot(TrcRobot.RunMode mode, TaskType type)
+        {
+            return tableSlots[mode.ordinal()][type.ordinal()];
+        }   //getSlot
+
+        /**
+         * This method records the slot index of this task object in the dispatch table of the given run mode and
+         * task type.
+         *
+         * @param mode specifies the run mode.
+         * @param type specifies the task type.
+         * @param slot specifies the slot index, -1 if the task is being removed from the table.
+         */
+        public void setSlot(TrcRobot.RunMode mode, TaskType type, int slot)
+        {
+            tableSlots[mode.ordinal()][type.ordinal()] = slot;
+        }   //setSlot
+
         /**
          * This method returns the instance name of the task.
          *
@@ -239,8 +337,216 @@ public class TrcTaskMgr
 
     }   //class TaskObject
 
+    /**
+     * This class implements the dispatch table of a run mode and task type. It keeps a flat array of task objects for
+     * each priority class so that dispatching the type only touches the tasks interested in it in the current run
+     * mode, in priority order. Within a priority class, tasks are run in the order they were registered. Removing a
+     * task shifts the tasks after it down by one slot, which is cheap for the handful of tasks in a lane.
+     */
+    private static class DispatchTable
+    {
+        private final TrcRobot.RunMode runMode;
+        private final TaskType taskType;
+        private final TaskObject[][] lanes;
+        private final int[] laneSizes;
+        private int numTasks;
+        private int numParallel;
+
+        /**
+         * Constructor: Creates an instance of the dispatch table.
+         *
+         * @param runMode specifies the run mode of the table.
+         * @param taskType specifies the task type of the table.
+         * @param initialCapacity specifies the initial size of each priority lane of the table.
+         */
+        public DispatchTable(TrcRobot.RunMode runMode, TaskType taskType, int initialCapacity)
+        {
+            this.runMode = runMode;
+            this.taskType = taskType;
+            this.lanes = new TaskObject[TaskPriority.values().length][];
+            for (int i = 0; i < lanes.length; i++)
+            {
+                lanes[i] = new TaskObject[initialCapacity];
+            }
+            this.laneSizes = new int[lanes.length];
+            this.numTasks = 0;
+            this.numParallel = 0;
+        }   //DispatchTable
+
+        /**
+         * This method adds a task object to the end of its priority lane, growing the lane if necessary.
+         *
+         * @param taskObj specifies the task object to be added.
+         */
+        public void add(TaskObject taskObj)
+        {
+            int lane = taskObj.getPriority(taskType).ordinal();
+
+            if (laneSizes[lane] == lanes[lane].length)
+            {
+                lanes[lane] = Arrays.copyOf(lanes[lane], lanes[lane].length*2);
+            }
+            lanes[lane][laneSizes[lane]] = taskObj;
+            taskObj.setSlot(runMode, taskType, laneSizes[lane]);
+            laneSizes[lane]++;
+            numTasks++;
+            if (taskObj.isParallel(taskType))
+            {
+                numParallel++;
+            }
+        }   //add
+
+        /**
+         * This method removes a task object from the table, keeping the registration order of the rest of its lane.
+         *
+         * @param taskObj specifies the task object to be removed.
+         */
+        public void remove(TaskObject taskObj)
+        {
+            int lane = taskObj.getPriority(taskType).ordinal();
+            int slot = taskObj.getSlot(runMode, taskType);
+            TaskObject[] taskObjs = lanes[lane];
+            int last = --laneSizes[lane];
+
+            for (int i = slot; i < last; i++)
+            {
+                taskObjs[i] = taskObjs[i + 1];
+                taskObjs[i].setSlot(runMode, taskType, i);
+            }
+            taskObjs[last] = null;
+            taskObj.setSlot(runMode, taskType, -1);
+            numTasks--;
+            if (taskObj.isParallel(taskType))
+            {
+                numParallel--;
+            }
+        }   //remove
+
+    }   //class DispatchTable
+
+    /**
+     * This class implements the action that runs a parallel safe task on the worker pool. There is one action per
+     * task object and task type. It is reinitialized and forked on every pass so dispatching to the worker pool
+     * doesn't allocate.
+     */
+    private class ParallelAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final TaskObject taskObj;
+        private final TaskType taskType;
+        private TrcRobot.RunMode runMode;
+        private long elapsedNanos;
+
+        /**
+         * Constructor: Creates an instance of the object.
+         *
+         * @param taskObj specifies the task object to run.
+         * @param taskType specifies the task type to run.
+         */
+        public ParallelAction(TaskObject taskObj, TaskType taskType)
+        {
+            this.taskObj = taskObj;
+            this.taskType = taskType;
+        }   //ParallelAction
+
+        @Override
+        protected void compute()
+        {
+            elapsedNanos = runTask(taskObj, taskType, runMode);
+        }   //compute
+
+    }   //class ParallelAction
+
+    /**
+     * This class implements a registration change that is requested while the task manager is dispatching tasks.
+     * The change is staged and applied after the dispatch is done so that every task in the dispatch table is run
+     * exactly once per pass. The change objects are preallocated and reused.
+     */
+    private static class TaskChange
+    {
+        private boolean register;
+        private String taskName;
+        private Task task;
+        private TaskType taskType;
+        private Set<TrcRobot.RunMode> runModes;
+        private TaskPriority priority;
+        private boolean parallelSafe;
+
+        /**
+         * This method sets the content of the change.
+         *
+         * @param register specifies true for registration, false for unregistration.
+         * @param taskName specifies the instance name of the task, ignored for unregistration.
+         * @param task specifies the class object associated with the task.
+         * @param taskType specifies the task type.
+         * @param runModes specifies the run modes the task is registered for, ignored for unregistration.
+         * @param priority specifies the priority class of the task, ignored for unregistration.
+         * @param parallelSafe specifies true if the task can run concurrently with other tasks.
+         */
+        public void set(
+            boolean register, String taskName, Task task, TaskType taskType, Set<TrcRobot.RunMode> runModes,
+            TaskPriority priority, boolean parallelSafe)
+        {
+            this.register = register;
+            this.taskName = taskName;
+            this.task = task;
+            this.taskType = taskType;
+            this.runModes = runModes;
+            this.priority = priority;
+            this.parallelSafe = parallelSafe;
+        }   //set
+
+        /**
+         * This method clears the references held by the change so that it doesn't keep the task alive.
+         */
+        public void clear()
+        {
+            taskName = null;
+            task = null;
+            taskType = null;
+            runModes = null;
+            priority = null;
+        }   //clear
+
+    }   //class TaskChange
+
+    private static final int INITIAL_TABLE_CAPACITY = 32;
+    private static final int MAX_PASS_OFFENDERS = 5;
+    private static final int MAX_PARALLEL_WORKERS = 3;
+    private static final int MAX_CONSECUTIVE_SHEDS = 5;
+
     private static TrcTaskMgr instance = null;
-    private ArrayList<TaskObject> taskList = new ArrayList<>();
+    private final IdentityHashMap<Task, TaskObject> taskMap = new IdentityHashMap<>();
+    //
+    // There is a set of dispatch tables for each run mode so switching modes just switches to a different set and the
+    // tasks not registered for the current mode cost nothing.
+    //
+    private final EnumMap<TrcRobot.RunMode, EnumMap<TaskType, DispatchTable>> dispatchTables =
+        new EnumMap<>(TrcRobot.RunMode.class);
+    private final HashMap<String, TaskStats> taskStatsMap = new HashMap<>();
+    //
+    // Time budget of a pass. When a pass has used up its budget, LOW priority tasks are deferred.
+    //
+    private long passBudgetNanos = 0;
+    private long passStartNanos = 0;
+    //
+    // Slowest callbacks of the current pass sorted in descending order of execution time.
+    //
+    private final String[] passOffenderNames = new String[MAX_PASS_OFFENDERS];
+    private final TaskType[] passOffenderTypes = new TaskType[MAX_PASS_OFFENDERS];
+    private final long[] passOffenderTimes = new long[MAX_PASS_OFFENDERS];
+    private int numPassOffenders = 0;
+    //
+    // Worker pool for parallel safe tasks, created when the first one is registered.
+    //
+    private ForkJoinPool parallelPool = null;
+    private ParallelAction[] forkedActions = new ParallelAction[INITIAL_TABLE_CAPACITY];
+    //
+    // Registration changes made while dispatching are staged here and applied when the dispatch is done.
+    //
+    private boolean dispatching = false;
+    private TaskChange[] pendingChanges = new TaskChange[INITIAL_TABLE_CAPACITY];
+    private int numPendingChanges = 0;
 
     /**
      * Constructor: Creates an instance of the task manager. Typically, there is only one global instance of
@@ -253,6 +559,21 @@ public class TrcTaskMgr
             dbgTrace = new TrcDbgTrace(moduleName, tracingEnabled, traceLevel, msgLevel);
         }
 
+        for (TrcRobot.RunMode mode: TrcRobot.RunMode.values())
+        {
+            EnumMap<TaskType, DispatchTable> modeTables = new EnumMap<>(TaskType.class);
+            for (TaskType type: TaskType.values())
+            {
+                modeTables.put(type, new DispatchTable(mode, type, INITIAL_TABLE_CAPACITY));
+            }
+            dispatchTables.put(mode, modeTables);
+        }
+
+        for (int i = 0; i < pendingChanges.length; i++)
+        {
+            pendingChanges[i] = new TaskChange();
+        }
+
         instance = this;
     }   //TrcTaskMgr
 
@@ -267,161 +588,726 @@ public class TrcTaskMgr
     }   //getInstance
 
     /**
-     * This method registers a class object as a cooperative multi-tasking task with the given task type.
+     * This method registers a class object as a cooperative multi-tasking task with the given task type for the given
+     * run modes. The task is only dispatched in the run modes it is registered for. Tasks of a type are run in the
+     * order of their priority classes. A task registered as parallel safe is run on a worker pool concurrently with the
+     * other tasks of the same type and all of them are joined before executeTaskType returns. A parallel safe task must
+     * not share unsynchronized state with other tasks and must not register or unregister tasks from its callback. In
+     * particular, no serial task of the same type may read its output, because the serial tasks run while the parallel
+     * tasks are still updating it. If the task is already registered with the type, it is added to the run modes it is
+     * not yet registered for, keeping its original priority class. If this is called while the task manager is
+     * dispatching tasks, the registration takes effect after the dispatch is done.
      *
      * @param taskName specifies the instance name of the task.
      * @param task specifies the class object associated with the task.
      * @param type specifies the task type.
+     * @param runModes specifies the run modes the task is run in (e.g. ALL_MODES, ENABLED_MODES).
+     * @param priority specifies the priority class of the task.
+     * @param parallelSafe specifies true if the task can run concurrently with other tasks, false otherwise.
      */
-    public void registerTask(final String taskName, Task task, TaskType type)
+    public synchronized void registerTask(
+        final String taskName, Task task, TaskType type, Set<TrcRobot.RunMode> runModes, TaskPriority priority,
+        boolean parallelSafe)
     {
         final String funcName = "registerTask";
 
         if (debugEnabled)
         {
-            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "task=%s,type=%s", taskName, type.toString());
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API,
+                "task=%s,type=%s,modes=%s,priority=%s,parallel=%s", taskName, type.toString(), runModes.toString(),
+                priority.toString(), Boolean.toString(parallelSafe));
             dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
         }
 
-        //
-        // Check if the task object already exist. If not, create a new task object and add it to the task object list.
-        //
-        TaskObject taskObj = findTask(task);
-        if (taskObj == null)
+        if (dispatching)
         {
-            taskObj = new TaskObject(taskName, task);
-            taskList.add(taskObj);
+            stageChange(true, taskName, task, type, runModes, priority, parallelSafe);
         }
+        else
+        {
+            addTask(taskName, task, type, runModes, priority, parallelSafe);
+        }
+    }   //registerTask
 
-        //
-        // Register the task type with the task object.
-        //
-        taskObj.addTaskType(type);
+    /**
+     * This method registers a class object as a cooperative multi-tasking task with the given task type for the
+     * given run modes with NORMAL priority.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param runModes specifies the run modes the task is run in (e.g. ALL_MODES, ENABLED_MODES).
+     */
+    public void registerTask(final String taskName, Task task, TaskType type, Set<TrcRobot.RunMode> runModes)
+    {
+        registerTask(taskName, task, type, runModes, TaskPriority.NORMAL, false);
+    }   //registerTask
+
+    /**
+     * This method registers a class object as a cooperative multi-tasking task with the given task type for all run
+     * modes.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param priority specifies the priority class of the task.
+     * @param parallelSafe specifies true if the task can run concurrently with other tasks, false otherwise.
+     */
+    public void registerTask(
+        final String taskName, Task task, TaskType type, TaskPriority priority, boolean parallelSafe)
+    {
+        registerTask(taskName, task, type, ALL_MODES, priority, parallelSafe);
     }   //registerTask
 
     /**
-     * This method unregisters a task type from a task object associated with the given task class.
+     * This method registers a class object as a cooperative multi-tasking task with the given task type and
+     * priority class.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param priority specifies the priority class of the task.
+     */
+    public void registerTask(final String taskName, Task task, TaskType type, TaskPriority priority)
+    {
+        registerTask(taskName, task, type, ALL_MODES, priority, false);
+    }   //registerTask
+
+    /**
+     * This method registers a class object as a cooperative multi-tasking task with the given task type and NORMAL
+     * priority.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param parallelSafe specifies true if the task can run concurrently with other tasks, false otherwise.
+     */
+    public void registerTask(final String taskName, Task task, TaskType type, boolean parallelSafe)
+    {
+        registerTask(taskName, task, type, ALL_MODES, TaskPriority.NORMAL, parallelSafe);
+    }   //registerTask
+
+    /**
+     * This method registers a class object as a cooperative multi-tasking task with the given task type.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     */
+    public void registerTask(final String taskName, Task task, TaskType type)
+    {
+        registerTask(taskName, task, type, ALL_MODES, TaskPriority.NORMAL, false);
+    }   //registerTask
+
+    /**
+     * This method unregisters a task type from a task object associated with the given task class in all run modes.
+     * If this is called while the task manager is dispatching tasks, the unregistration takes effect after the
+     * dispatch is done.
      *
      * @param task specifies the class objhect associated with the task.
      * @param type specifies the task type.
      */
-    public void unregisterTask(Task task, TaskType type)
+    public synchronized void unregisterTask(Task task, TaskType type)
     {
         final String funcName = "unregisterTask";
-        TaskObject taskObj = findTask(task);
 
         if (debugEnabled)
         {
+            TaskObject taskObj = taskMap.get(task);
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API,
                                 "task=%s,type=%s", taskObj != null ? taskObj.toString() : "unknown", type.toString());
         }
 
+        if (dispatching)
+        {
+            stageChange(false, null, task, type, null, null, false);
+        }
+        else
+        {
+            removeTask(task, type);
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //unregisterTask
+
+    /**
+     * This method stages a registration change requested during a dispatch.
+     *
+     * @param register specifies true for registration, false for unregistration.
+     * @param taskName specifies the instance name of the task, ignored for unregistration.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param runModes specifies the run modes the task is registered for, ignored for unregistration.
+     * @param priority specifies the priority class of the task, ignored for unregistration.
+     * @param parallelSafe specifies true if the task can run concurrently with other tasks.
+     */
+    private void stageChange(
+        boolean register, final String taskName, Task task, TaskType type, Set<TrcRobot.RunMode> runModes,
+        TaskPriority priority, boolean parallelSafe)
+    {
+        if (numPendingChanges == pendingChanges.length)
+        {
+            pendingChanges = Arrays.copyOf(pendingChanges, pendingChanges.length*2);
+            for (int i = numPendingChanges; i < pendingChanges.length; i++)
+            {
+                pendingChanges[i] = new TaskChange();
+            }
+        }
+        pendingChanges[numPendingChanges++].set(register, taskName, task, type, runModes, priority, parallelSafe);
+    }   //stageChange
+
+    /**
+     * This method applies all the registration changes staged during a dispatch in the order they were requested.
+     */
+    private void applyPendingChanges()
+    {
+        for (int i = 0; i < numPendingChanges; i++)
+        {
+            TaskChange change = pendingChanges[i];
+
+            if (change.register)
+            {
+                addTask(
+                    change.taskName, change.task, change.taskType, change.runModes, change.priority,
+                    change.parallelSafe);
+            }
+            else
+            {
+                removeTask(change.task, change.taskType);
+            }
+            change.clear();
+        }
+        numPendingChanges = 0;
+    }   //applyPendingChanges
+
+    /**
+     * This method adds a task to the dispatch tables of the given task type for the given run modes.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     * @param runModes specifies the run modes the task is run in.
+     * @param priority specifies the priority class of the task.
+     * @param parallelSafe specifies true if the task can run concurrently with other tasks, false otherwise.
+     */
+    private void addTask(
+        final String taskName, Task task, TaskType type, Set<TrcRobot.RunMode> runModes, TaskPriority priority,
+        boolean parallelSafe)
+    {
+        if (runModes.isEmpty())
+        {
+            return;
+        }
+
         //
-        // If we found the task object associated with the given task, unregister the task type from it and if the
-        // task object has no more task type, remove it from the task list.
+        // Check if the task object already exist. If not, create a new task object and add it to the task map.
         //
-        if (taskObj != null)
+        TaskObject taskObj = taskMap.get(task);
+        if (taskObj == null)
         {
-            taskObj.removeTaskType(type);
-            if (taskObj.hasNoType())
+            taskObj = new TaskObject(taskName, task, getTaskStats(taskName));
+            taskMap.put(task, taskObj);
+        }
+
+        if (taskObj.stats.execTimes[type.ordinal()] == null)
+        {
+            taskObj.stats.execTimes[type.ordinal()] = new TrcHistogram(taskName + "." + type);
+        }
+
+        //
+        // The priority class and parallel safety of a task type are set by its first registration.
+        //
+        if (!taskObj.hasType(type))
+        {
+            if (parallelSafe && type != TaskType.START_TASK && type != TaskType.STOP_TASK)
             {
-                taskList.remove(taskObj);
+                if (parallelPool == null)
+                {
+                    parallelPool = new ForkJoinPool(
+                        Math.max(1, Math.min(MAX_PARALLEL_WORKERS, Runtime.getRuntime().availableProcessors() - 1)));
+                }
+                taskObj.parallelActions[type.ordinal()] = new ParallelAction(taskObj, type);
             }
+            taskObj.priorities[type.ordinal()] = priority;
+            taskObj.numTypes++;
         }
 
-        if (debugEnabled)
+        //
+        // Add the task object to the dispatch table of each run mode if it is not already there.
+        //
+        for (TrcRobot.RunMode mode: runModes)
         {
-            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+            if (taskObj.getSlot(mode, type) == -1)
+            {
+                dispatchTables.get(mode).get(type).add(taskObj);
+            }
         }
-    }   //unregisterTask
+    }   //addTask
+
+    /**
+     * This method removes a task from the dispatch tables of the given task type in all run modes.
+     *
+     * @param task specifies the class object associated with the task.
+     * @param type specifies the task type.
+     */
+    private void removeTask(Task task, TaskType type)
+    {
+        TaskObject taskObj = taskMap.get(task);
+
+        //
+        // If we found the task object associated with the given task, remove it from the dispatch tables of the
+        // task type and if the task object has no more task type, remove it from the task map.
+        //
+        if (taskObj != null && taskObj.hasType(type))
+        {
+            for (TrcRobot.RunMode mode: TrcRobot.RunMode.values())
+            {
+                if (taskObj.getSlot(mode, type) != -1)
+                {
+                    dispatchTables.get(mode).get(type).remove(taskObj);
+                }
+            }
+            taskObj.parallelActions[type.ordinal()] = null;
+            taskObj.numTypes--;
+            if (taskObj.hasNoType())
+            {
+                taskMap.remove(task);
+            }
+        }
+    }   //removeTask
 
     /**
-     * This method enumerates the task list and calls all the tasks that matches the given task type.
+     * This method calls all the tasks in the dispatch table of the given task type for the given run mode. Tasks not
+     * registered for the run mode are not visited at all. Parallel safe tasks are forked to the worker pool first,
+     * then the rest of the tasks are run on the caller's thread. This method returns only after all the forked tasks
+     * have completed. Any registration change made by the tasks during the dispatch is applied after the dispatch so
+     * the set of tasks run is fixed for the pass.
      *
      * @param type specifies the task type to be executed.
      * @param mode specifies the robot run mode.
      */
-    public void executeTaskType(TaskType type, TrcRobot.RunMode mode)
+    public synchronized void executeTaskType(TaskType type, TrcRobot.RunMode mode)
     {
-        final String funcName = "executeTaskType";
+        DispatchTable table = dispatchTables.get(mode).get(type);
+        int numForked = 0;
 
-        for (int i = 0; i < taskList.size(); i++)
+        dispatching = true;
+        try
         {
-            TaskObject taskObj = taskList.get(i);
-            if (taskObj.hasType(type))
+            numForked = forkParallelTasks(table, type, mode);
+
+            for (int lane = 0; lane < table.lanes.length; lane++)
             {
-                Task task = taskObj.getTask();
-                switch (type)
+                for (int i = 0; i < table.laneSizes[lane]; i++)
                 {
-                    case START_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing StartTask %s", taskObj.toString());
-                        }
-                        task.startTask(mode);
-                        break;
-
-                    case STOP_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing StopTask %s", taskObj.toString());
-                        }
-                        task.stopTask(mode);
-                        break;
-
-                    case PREPERIODIC_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing PrePeriodicTask %s", taskObj.toString());
-                        }
-                        task.prePeriodicTask(mode);
-                        break;
-
-                    case POSTPERIODIC_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing PostPeriodicTask %s", taskObj.toString());
-                        }
-                        task.postPeriodicTask(mode);
-                        break;
-
-                    case PRECONTINUOUS_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing PreContinuousTask %s", taskObj.toString());
-                        }
-                        task.preContinuousTask(mode);
-                        break;
-
-                    case POSTCONTINUOUS_TASK:
-                        if (debugEnabled)
-                        {
-                            dbgTrace.traceInfo(funcName, "Executing PostContinuousTask %s", taskObj.toString());
-                        }
-                        task.postContinuousTask(mode);
-                        break;
+                    TaskObject taskObj = table.lanes[lane][i];
+                    if (!taskObj.isParallel(type) && !shouldDefer(taskObj, type))
+                    {
+                        recordPassTime(taskObj.taskName, type, runTask(taskObj, type, mode));
+                    }
                 }
             }
         }
+        finally
+        {
+            //
+            // Wait for all forked tasks to complete before applying the staged changes.
+            //
+            for (int i = 0; i < numForked; i++)
+            {
+                ParallelAction action = forkedActions[i];
+                forkedActions[i] = null;
+                action.join();
+                recordPassTime(action.taskObj.taskName, type, action.elapsedNanos);
+            }
+            dispatching = false;
+            applyPendingChanges();
+        }
     }   //executeTaskType
 
     /**
-     * This method finds the given task in the task list and return it.
+     * This method forks all the parallel safe tasks of the dispatch table to the worker pool.
+     *
+     * @param table specifies the dispatch table.
+     * @param type specifies the task type to be executed.
+     * @param mode specifies the robot run mode.
+     * @return number of tasks forked.
+     */
+    private int forkParallelTasks(DispatchTable table, TaskType type, TrcRobot.RunMode mode)
+    {
+        int numForked = 0;
+
+        if (table.numParallel > 0)
+        {
+            if (forkedActions.length < table.numParallel)
+            {
+                forkedActions = new ParallelAction[table.numParallel*2];
+            }
+
+            for (int lane = 0; lane < table.lanes.length; lane++)
+            {
+                for (int i = 0; i < table.laneSizes[lane]; i++)
+                {
+                    TaskObject taskObj = table.lanes[lane][i];
+                    ParallelAction action = taskObj.parallelActions[type.ordinal()];
+                    if (action != null && !shouldDefer(taskObj, type))
+                    {
+                        action.reinitialize();
+                        action.runMode = mode;
+                        forkedActions[numForked++] = action;
+                        parallelPool.execute(action);
+                    }
+                }
+            }
+        }
+
+        return numForked;
+    }   //forkParallelTasks
+
+    /**
+     * This method calls the callback of the given task type of a task and records its execution time.
+     *
+     * @param taskObj specifies the task object.
+     * @param type specifies the task type to be executed.
+     * @param mode specifies the robot run mode.
+     * @return execution time in nano seconds.
+     */
+    private long runTask(TaskObject taskObj, TaskType type, TrcRobot.RunMode mode)
+    {
+        final String funcName = "runTask";
+        Task task = taskObj.getTask();
+        long startNanos = TrcUtil.getCurrentTimeNanos();
+
+        switch (type)
+        {
+            case START_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing StartTask %s", taskObj.toString());
+                }
+                task.startTask(mode);
+                break;
+
+            case STOP_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing StopTask %s", taskObj.toString());
+                }
+                task.stopTask(mode);
+                break;
+
+            case PREPERIODIC_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing PrePeriodicTask %s", taskObj.toString());
+                }
+                task.prePeriodicTask(mode);
+                break;
+
+            case POSTPERIODIC_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing PostPeriodicTask %s", taskObj.toString());
+                }
+                task.postPeriodicTask(mode);
+                break;
+
+            case PRECONTINUOUS_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing PreContinuousTask %s", taskObj.toString());
+                }
+                task.preContinuousTask(mode);
+                break;
+
+            case POSTCONTINUOUS_TASK:
+                if (debugEnabled)
+                {
+                    dbgTrace.traceInfo(funcName, "Executing PostContinuousTask %s", taskObj.toString());
+                }
+                task.postContinuousTask(mode);
+                break;
+        }
+
+        long elapsedNanos = TrcUtil.getCurrentTimeNanos() - startNanos;
+        TaskStats stats = taskObj.stats;
+        stats.execTimes[type.ordinal()].record(elapsedNanos);
+        if (stats.budgetNanos > 0 && elapsedNanos > stats.budgetNanos)
+        {
+            stats.budgetOverruns++;
+        }
+
+        return elapsedNanos;
+    }   //runTask
+
+    /**
+     * This method determines if a task should be deferred to the next pass. Only LOW priority tasks are deferred
+     * and only if running them would exceed the time budget of the pass, taking the task's own time budget into
+     * account. A task is never deferred more than MAX_CONSECUTIVE_SHEDS passes in a row so it can't starve.
+     *
+     * @param taskObj specifies the task object.
+     * @param type specifies the task type to be executed.
+     * @return true if the task should be deferred, false if it should run now.
+     */
+    private boolean shouldDefer(TaskObject taskObj, TaskType type)
+    {
+        boolean defer = false;
+
+        if (passBudgetNanos > 0 && taskObj.getPriority(type) == TaskPriority.LOW)
+        {
+            TaskStats stats = taskObj.stats;
+            int index = type.ordinal();
+            long usedNanos = TrcUtil.getCurrentTimeNanos() - passStartNanos;
+
+            if (usedNanos + stats.budgetNanos > passBudgetNanos &&
+                stats.consecutiveSheds[index] < MAX_CONSECUTIVE_SHEDS)
+            {
+                stats.shedCounts[index]++;
+                stats.consecutiveSheds[index]++;
+                defer = true;
+            }
+            else
+            {
+                stats.consecutiveSheds[index] = 0;
+            }
+        }
+
+        return defer;
+    }   //shouldDefer
+
+    /**
+     * This method returns the statistics object of the given task name, creating it if necessary.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @return statistics object of the task.
+     */
+    private TaskStats getTaskStats(final String taskName)
+    {
+        TaskStats stats = taskStatsMap.get(taskName);
+
+        if (stats == null)
+        {
+            stats = new TaskStats();
+            taskStatsMap.put(taskName, stats);
+        }
+
+        return stats;
+    }   //getTaskStats
+
+    /**
+     * This method returns the number of tasks that will be run for the given task type in the given run mode.
+     *
+     * @param type specifies the task type.
+     * @param mode specifies the run mode.
+     * @return number of tasks in the dispatch table.
+     */
+    public synchronized int getNumTasks(TaskType type, TrcRobot.RunMode mode)
+    {
+        return dispatchTables.get(mode).get(type).numTasks;
+    }   //getNumTasks
+
+    /**
+     * This method sets the time budget of a pass. When the time used by a pass exceeds the budget, LOW priority
+     * tasks are deferred to the next pass and counted as shed work.
+     *
+     * @param budget specifies the pass time budget in seconds, 0 to disable deferring tasks.
+     */
+    public void setPassBudget(double budget)
+    {
+        passBudgetNanos = (long)(budget*1000000000.0);
+    }   //setPassBudget
+
+    /**
+     * This method checks if the current pass has used up its time budget. The scheduler may use this to defer its
+     * own low priority work such as updating the dashboard.
      *
-     * @param task specifies the task to look for.
-     * @return true if found, false otherwise.
+     * @return true if the pass is over budget, false otherwise or if there is no pass budget.
      */
-    private TaskObject findTask(Task task)
+    public boolean isPassOverBudget()
     {
-        for (int i = 0; i < taskList.size(); i++)
+        return passBudgetNanos > 0 && TrcUtil.getCurrentTimeNanos() - passStartNanos > passBudgetNanos;
+    }   //isPassOverBudget
+
+    /**
+     * This method sets the time budget of a task. The budget is the expected worst case execution time of a task
+     * callback. A LOW priority task is deferred if there isn't enough budget left in the pass to run it. Callbacks
+     * exceeding the budget are counted as budget overruns.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param budget specifies the task time budget in seconds, 0 for no budget.
+     */
+    public synchronized void setTaskBudget(final String taskName, double budget)
+    {
+        getTaskStats(taskName).budgetNanos = (long)(budget*1000000000.0);
+    }   //setTaskBudget
+
+    /**
+     * This method returns the number of times the task was deferred because the pass was over budget.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param type specifies the task type.
+     * @return number of times the task was deferred.
+     */
+    public synchronized long getTaskShedCount(final String taskName, TaskType type)
+    {
+        TaskStats stats = taskStatsMap.get(taskName);
+        return stats != null? stats.shedCounts[type.ordinal()]: 0;
+    }   //getTaskShedCount
+
+    /**
+     * This method returns the number of times a callback of the task exceeded the task time budget.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @return number of budget overruns.
+     */
+    public synchronized long getTaskBudgetOverruns(final String taskName)
+    {
+        TaskStats stats = taskStatsMap.get(taskName);
+        return stats != null? stats.budgetOverruns: 0;
+    }   //getTaskBudgetOverruns
+
+    /**
+     * This method marks the beginning of a robot loop pass. It starts the pass time budget and clears the slowest
+     * callbacks recorded for the previous pass. It is called by the scheduler at the beginning of each pass.
+     */
+    public void startPass()
+    {
+        passStartNanos = TrcUtil.getCurrentTimeNanos();
+        for (int i = 0; i < numPassOffenders; i++)
         {
-            TaskObject taskObj = taskList.get(i);
-            if (taskObj.isSame(task))
+            passOffenderNames[i] = null;
+            passOffenderTypes[i] = null;
+        }
+        numPassOffenders = 0;
+    }   //startPass
+
+    /**
+     * This method records the execution time of a callback in the current pass and keeps it if it is one of the
+     * slowest of the pass. The scheduler may call this to account for callbacks that are not tasks such as the
+     * RobotMode methods.
+     *
+     * @param name specifies the name of the callback.
+     * @param type specifies the task type of the callback, null if it is not a task.
+     * @param elapsedNanos specifies the execution time in nano seconds.
+     */
+    public void recordPassTime(final String name, TaskType type, long elapsedNanos)
+    {
+        int i = numPassOffenders;
+
+        if (i < MAX_PASS_OFFENDERS || elapsedNanos > passOffenderTimes[MAX_PASS_OFFENDERS - 1])
+        {
+            if (i == MAX_PASS_OFFENDERS)
+            {
+                i--;
+            }
+            else
+            {
+                numPassOffenders++;
+            }
+            //
+            // Insertion sort the new entry into the list.
+            //
+            while (i > 0 && passOffenderTimes[i - 1] < elapsedNanos)
             {
-                return taskObj;
+                passOffenderNames[i] = passOffenderNames[i - 1];
+                passOffenderTypes[i] = passOffenderTypes[i - 1];
+                passOffenderTimes[i] = passOffenderTimes[i - 1];
+                i--;
+            }
+            passOffenderNames[i] = name;
+            passOffenderTypes[i] = type;
+            passOffenderTimes[i] = elapsedNanos;
+        }
+    }   //recordPassTime
+
+    /**
+     * This method prints the slowest callbacks of the current pass to the given tracer. It is typically called by
+     * the scheduler when the pass has exceeded its time slice.
+     *
+     * @param tracer specifies the tracer to print to.
+     * @param funcName specifies the calling method name.
+     */
+    public void tracePassTimes(TrcDbgTrace tracer, final String funcName)
+    {
+        for (int i = 0; i < numPassOffenders; i++)
+        {
+            tracer.traceWarn(funcName, "  [%d] %s%s%s: %.3fms", i, passOffenderNames[i],
+                passOffenderTypes[i] != null? ".": "", passOffenderTypes[i] != null? passOffenderTypes[i]: "",
+                passOffenderTimes[i]/1000000.0);
+        }
+    }   //tracePassTimes
+
+    /**
+     * This method returns the execution time histogram of the given task and task type.
+     *
+     * @param taskName specifies the instance name of the task.
+     * @param type specifies the task type.
+     * @return execution time histogram in nano seconds, null if the task was never registered with the type.
+     */
+    public synchronized TrcHistogram getTaskExecTimes(final String taskName, TaskType type)
+    {
+        TaskStats stats = taskStatsMap.get(taskName);
+        return stats != null? stats.execTimes[type.ordinal()]: null;
+    }   //getTaskExecTimes
+
+    /**
+     * This method returns the execution time histograms of all tasks that have run.
+     *
+     * @return list of execution time histograms in nano seconds.
+     */
+    public synchronized ArrayList<TrcHistogram> getAllTaskExecTimes()
+    {
+        ArrayList<TrcHistogram> list = new ArrayList<>();
+
+        for (TaskStats stats: taskStatsMap.values())
+        {
+            for (TrcHistogram histogram: stats.execTimes)
+            {
+                if (histogram != null && histogram.getCount() > 0)
+                {
+                    list.add(histogram);
+                }
+            }
+        }
+
+        return list;
+    }   //getAllTaskExecTimes
+
+    /**
+     * This method prints the execution time statistics of all tasks to the given tracer.
+     *
+     * @param tracer specifies the tracer to print to.
+     */
+    public void traceTaskExecTimes(TrcDbgTrace tracer)
+    {
+        final String funcName = "traceTaskExecTimes";
+
+        for (TrcHistogram histogram: getAllTaskExecTimes())
+        {
+            tracer.traceInfo(funcName, "%s", histogram.toString());
+        }
+    }   //traceTaskExecTimes
+
+    /**
+     * This method clears the execution time statistics and the shed work counters of all tasks.
+     */
+    public synchronized void resetTaskExecTimes()
+    {
+        for (TaskStats stats: taskStatsMap.values())
+        {
+            for (TrcHistogram histogram: stats.execTimes)
+            {
+                if (histogram != null)
+                {
+                    histogram.reset();
+                }
             }
+            Arrays.fill(stats.shedCounts, 0);
+            stats.budgetOverruns = 0;
         }
-        return null;
-    }   //findTask
+    }   //resetTaskExecTimes
 
 }   //class TaskMgr
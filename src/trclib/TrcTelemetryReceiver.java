@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class implements the receiving end of TrcTelemetryStreamer, typically running on the driver station or a
+ * laptop on the robot network. It receives the telemetry datagrams on a dedicated thread and keeps a history of the
+ * most recent samples of every channel in preallocated rings that a viewer can copy out of at its own pace. When the
+ * robot restarts or adds channels, the history starts over with the new channel names.
+ */
+public class TrcTelemetryReceiver implements Runnable
+{
+    private static final int MAX_DATAGRAM_SIZE = 65536;
+
+    private final int port;
+    private final int historySize;
+    private DatagramSocket socket = null;
+    private Thread receiverThread = null;
+    private volatile boolean running = false;
+
+    private String[] channelNames = new String[0];
+    private int sessionId = 0;
+    private int schemaId = 0;
+    private boolean haveSchema = false;
+    private double[] times;
+    private float[][] values = new float[0][];
+    private int head = 0;
+    private int numSamples = 0;
+    private int nextSequence = 0;
+    private boolean haveSequence = false;
+    private long datagramCount = 0;
+    private long lostCount = 0;
+    private long unknownSchemaCount = 0;
+    private int schemaChangeCount = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param port specifies the UDP port to listen on.
+     * @param historySize specifies the number of samples kept per channel.
+     */
+    public TrcTelemetryReceiver(int port, int historySize)
+    {
+        this.port = port;
+        this.historySize = historySize;
+        this.times = new double[historySize];
+    }   //TrcTelemetryReceiver
+
+    /**
+     * This method starts the receiver thread.
+     *
+     * @throws SocketException if the port cannot be bound.
+     */
+    public synchronized void start() throws SocketException
+    {
+        if (!running)
+        {
+            socket = new DatagramSocket(port);
+            running = true;
+            receiverThread = new Thread(this, "TelemetryReceiver");
+            receiverThread.setDaemon(true);
+            receiverThread.start();
+        }
+    }   //start
+
+    /**
+     * This method stops the receiver thread and closes the socket.
+     */
+    public synchronized void stop()
+    {
+        if (running)
+        {
+            running = false;
+            //
+            // Closing the socket unblocks the receive call.
+            //
+            socket.close();
+            try
+            {
+                receiverThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            receiverThread = null;
+            socket = null;
+        }
+    }   //stop
+
+    /**
+     * This method runs the receiver thread.
+     */
+    @Override
+    public void run()
+    {
+        DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+        DatagramSocket socket = this.socket;
+
+        while (running)
+        {
+            try
+            {
+                packet.setLength(MAX_DATAGRAM_SIZE);
+                socket.receive(packet);
+                processDatagram(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            }
+            catch (IOException e)
+            {
+                //
+                // The socket is closed by stop.
+                //
+            }
+        }
+    }   //run
+
+    /**
+     * This method decodes a datagram. Datagrams that are malformed or from another protocol are ignored.
+     *
+     * @param buffer specifies the buffer holding the datagram.
+     */
+    private synchronized void processDatagram(ByteBuffer buffer)
+    {
+        try
+        {
+            byte[] magic = new byte[TrcTelemetryStreamer.MAGIC.length];
+
+            buffer.get(magic);
+            if (!Arrays.equals(magic, TrcTelemetryStreamer.MAGIC) || buffer.get() != TrcTelemetryStreamer.VERSION)
+            {
+                return;
+            }
+
+            int type = buffer.get();
+            int session = buffer.getInt();
+            int schema = buffer.getInt();
+
+            datagramCount++;
+            if (type == TrcTelemetryStreamer.TYPE_SCHEMA)
+            {
+                if (!haveSchema || session != sessionId || schema != schemaId)
+                {
+                    setSchema(buffer, session, schema);
+                }
+            }
+            else if (type == TrcTelemetryStreamer.TYPE_DATA)
+            {
+                if (!haveSchema || session != sessionId || schema != schemaId)
+                {
+                    //
+                    // We don't know the channel names of this data yet, wait for the schema.
+                    //
+                    unknownSchemaCount++;
+                    return;
+                }
+
+                int sequence = buffer.getInt();
+                int count = buffer.getShort() & 0xffff;
+                int numChannels = buffer.getShort() & 0xffff;
+
+                if (numChannels != channelNames.length)
+                {
+                    return;
+                }
+
+                if (haveSequence && sequence - nextSequence > 0)
+                {
+                    lostCount += sequence - nextSequence;
+                }
+                nextSequence = sequence + 1;
+                haveSequence = true;
+
+                for (int i = 0; i < count; i++)
+                {
+                    times[head] = buffer.getDouble();
+                    for (int j = 0; j < numChannels; j++)
+                    {
+                        values[j][head] = buffer.getFloat();
+                    }
+                    head = head + 1 == historySize? 0: head + 1;
+                    if (numSamples < historySize)
+                    {
+                        numSamples++;
+                    }
+                }
+            }
+        }
+        catch (BufferUnderflowException e)
+        {
+            //
+            // Truncated datagram, drop the rest of it.
+            //
+        }
+    }   //processDatagram
+
+    /**
+     * This method sets a new schema and clears the history.
+     *
+     * @param buffer specifies the buffer positioned at the channel count of the schema datagram.
+     * @param session specifies the session ID of the schema.
+     * @param schema specifies the schema ID.
+     */
+    private void setSchema(ByteBuffer buffer, int session, int schema)
+    {
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()));
+
+        try
+        {
+            int numChannels = in.readUnsignedShort();
+            String[] names = new String[numChannels];
+
+            for (int i = 0; i < numChannels; i++)
+            {
+                names[i] = in.readUTF();
+            }
+
+            channelNames = names;
+            values = new float[numChannels][historySize];
+            sessionId = session;
+            schemaId = schema;
+            haveSchema = true;
+            head = 0;
+            numSamples = 0;
+            haveSequence = false;
+            schemaChangeCount++;
+        }
+        catch (IOException e)
+        {
+            //
+            // Truncated schema, wait for the next one.
+            //
+        }
+    }   //setSchema
+
+    /**
+     * This method returns the names of the channels.
+     *
+     * @return channel names.
+     */
+    public synchronized String[] getChannelNames()
+    {
+        return channelNames.clone();
+    }   //getChannelNames
+
+    /**
+     * This method returns a number that changes whenever the channel names change, so a viewer can cheaply find out
+     * that it must update its channel list.
+     *
+     * @return schema change count.
+     */
+    public synchronized int getSchemaChangeCount()
+    {
+        return schemaChangeCount;
+    }   //getSchemaChangeCount
+
+    /**
+     * This method returns the number of samples in the history.
+     *
+     * @return number of samples.
+     */
+    public synchronized int getNumSamples()
+    {
+        return numSamples;
+    }   //getNumSamples
+
+    /**
+     * This method returns the number of datagrams received.
+     *
+     * @return number of datagrams received.
+     */
+    public synchronized long getDatagramCount()
+    {
+        return datagramCount;
+    }   //getDatagramCount
+
+    /**
+     * This method returns the number of data datagrams lost, detected by gaps in the sequence numbers.
+     *
+     * @return number of datagrams lost.
+     */
+    public synchronized long getLostCount()
+    {
+        return lostCount;
+    }   //getLostCount
+
+    /**
+     * This method returns the number of data datagrams dropped because their schema was not received yet.
+     *
+     * @return number of datagrams with unknown schema.
+     */
+    public synchronized long getUnknownSchemaCount()
+    {
+        return unknownSchemaCount;
+    }   //getUnknownSchemaCount
+
+    /**
+     * This method copies the history of a channel, oldest sample first.
+     *
+     * @param channel specifies the channel index.
+     * @param timeBuffer specifies the array to receive the time stamps, must hold the history size.
+     * @param valueBuffer specifies the array to receive the values, must hold the history size.
+     * @return number of samples copied, 0 if the channel doesn't exist (e.g. the channels have just changed).
+     */
+    public synchronized int copyHistory(int channel, double[] timeBuffer, double[] valueBuffer)
+    {
+        int first = (head - numSamples + historySize)%historySize;
+
+        if (channel < 0 || channel >= values.length)
+        {
+            return 0;
+        }
+
+        for (int i = 0, index = first; i < numSamples; i++, index = index + 1 == historySize? 0: index + 1)
+        {
+            timeBuffer[i] = times[index];
+            valueBuffer[i] = values[channel][index];
+        }
+
+        return numSamples;
+    }   //copyHistory
+
+}   //class TrcTelemetryReceiver
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * This class implements a telemetry streamer. It samples the numeric channels of the flight recorder (see
+ * TrcFlightRecorder) at a fixed rate on a dedicated thread and sends them in batches as compact UDP datagrams to a
+ * receiver on the robot network or on the loopback interface, e.g. TrcTelemetryReceiver. Compared to publishing each
+ * value as a dashboard string, it costs the robot loop nothing and allows much higher sample rates.
+ *
+ * There are two kinds of datagrams. All integers are big endian.
+ *
+ *  Header:  MAGIC (4 bytes), VERSION (1 byte), type (1 byte), session ID (4 bytes), schema ID (4 bytes).
+ *  Schema:  Header, number of channels (2 bytes), channel names as modified UTF-8 strings.
+ *  Data:    Header, sequence number (4 bytes), number of samples (2 bytes), number of channels (2 bytes), then each
+ *           sample as its time stamp in seconds (8-byte double) followed by the channel values (4-byte floats).
+ *
+ * The session ID is chosen randomly when the streamer starts and the schema ID changes whenever channels are added,
+ * so the receiver can tell which channel names a data datagram refers to. The schema is repeated once a second so
+ * that a receiver started late picks it up. Data datagrams are kept below the usual MTU so they are not fragmented.
+ */
+public class TrcTelemetryStreamer implements Runnable
+{
+    private static final String moduleName = "TrcTelemetryStreamer";
+    private static final boolean debugEnabled = false;
+    private static final boolean tracingEnabled = false;
+    private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
+    private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private TrcDbgTrace dbgTrace = null;
+
+    static final byte[] MAGIC = {'T', 'R', 'C', 'T'};
+    static final int VERSION = 1;
+    static final int TYPE_SCHEMA = 1;
+    static final int TYPE_DATA = 2;
+    static final int HEADER_SIZE = 14;
+    static final int DATA_HEADER_SIZE = HEADER_SIZE + 8;
+    static final int SAMPLE_TIME_SIZE = 8;
+    static final int SAMPLE_VALUE_SIZE = 4;
+    private static final int MAX_PAYLOAD_SIZE = 1400;
+    private static final long SCHEMA_INTERVAL_NANOS = 1000000000L;
+
+    private final String instanceName;
+    private final InetSocketAddress destination;
+    private final long sampleIntervalNanos;
+    private final int batchSize;
+    private DatagramSocket socket = null;
+    private Thread streamerThread = null;
+    private volatile boolean running = false;
+    private volatile long datagramCount = 0;
+    private volatile long sendErrorCount = 0;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param host specifies the host name or address of the receiver, can be a broadcast address.
+     * @param port specifies the UDP port of the receiver.
+     * @param sampleRate specifies the number of samples per second.
+     * @param sendRate specifies the number of data datagrams per second, samples are batched in between.
+     */
+    public TrcTelemetryStreamer(final String instanceName, final String host, int port, double sampleRate,
+                                double sendRate)
+    {
+        if (debugEnabled)
+        {
+            dbgTrace = new TrcDbgTrace(moduleName + "." + instanceName, tracingEnabled, traceLevel, msgLevel);
+        }
+
+        if (sampleRate <= 0.0 || sendRate <= 0.0)
+        {
+            throw new IllegalArgumentException("Sample and send rates must be positive.");
+        }
+
+        this.instanceName = instanceName;
+        this.destination = new InetSocketAddress(host, port);
+        this.sampleIntervalNanos = (long)(1000000000.0/sampleRate);
+        this.batchSize = Math.max(1, (int)Math.round(sampleRate/sendRate));
+    }   //TrcTelemetryStreamer
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    @Override
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method starts the streamer thread.
+     *
+     * @return true if the streamer is started, false if the socket cannot be created.
+     */
+    public synchronized boolean start()
+    {
+        final String funcName = "start";
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+
+        if (!running)
+        {
+            try
+            {
+                socket = new DatagramSocket();
+                socket.setBroadcast(true);
+                running = true;
+                streamerThread = new Thread(this, instanceName);
+                streamerThread.setDaemon(true);
+                streamerThread.setPriority(Thread.MIN_PRIORITY);
+                streamerThread.start();
+            }
+            catch (SocketException e)
+            {
+                TrcDbgTrace.getGlobalTracer().traceErr(
+                    funcName, "Failed to create telemetry socket (%s).", e.getMessage());
+                if (socket != null)
+                {
+                    socket.close();
+                    socket = null;
+                }
+            }
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%s", Boolean.toString(running));
+        }
+
+        return running;
+    }   //start
+
+    /**
+     * This method stops the streamer thread and closes the socket.
+     */
+    public synchronized void stop()
+    {
+        final String funcName = "stop";
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+
+        if (running)
+        {
+            running = false;
+            streamerThread.interrupt();
+            try
+            {
+                streamerThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            streamerThread = null;
+            socket.close();
+            socket = null;
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //stop
+
+    /**
+     * This method checks if the streamer is running.
+     *
+     * @return true if the streamer is running, false otherwise.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }   //isRunning
+
+    /**
+     * This method returns the number of datagrams sent.
+     *
+     * @return number of datagrams sent.
+     */
+    public long getDatagramCount()
+    {
+        return datagramCount;
+    }   //getDatagramCount
+
+    /**
+     * This method returns the number of datagrams that failed to be sent.
+     *
+     * @return number of send errors.
+     */
+    public long getSendErrorCount()
+    {
+        return sendErrorCount;
+    }   //getSendErrorCount
+
+    /**
+     * This method runs the streamer thread. It samples the channels at the sample rate and sends a data datagram when
+     * the batch is full. The data buffer and the packet are only reallocated when channels are added.
+     */
+    @Override
+    public void run()
+    {
+        final int sessionId = new Random().nextInt();
+        DatagramSocket socket = this.socket;
+        TrcFlightRecorder.Channel[] channels = null;
+        ByteBuffer buffer = null;
+        DatagramPacket packet = null;
+        int schemaId = 0;
+        int samplesPerDatagram = 0;
+        int numSamples = 0;
+        int sequence = 0;
+        long nextSchemaTime = 0;
+        long nextSampleTime = TrcUtil.getCurrentTimeNanos();
+
+        TrcDbgTrace.setThreadTag(instanceName);
+        while (running)
+        {
+            TrcFlightRecorder.Channel[] currChannels = TrcFlightRecorder.getGlobalChannels();
+            long currTime = TrcUtil.getCurrentTimeNanos();
+
+            if (currChannels != channels)
+            {
+                //
+                // Channels were added, send what we have under the old schema and start a new one.
+                //
+                if (numSamples > 0)
+                {
+                    sendData(socket, buffer, packet, sessionId, schemaId, sequence++, numSamples, channels.length);
+                    numSamples = 0;
+                }
+
+                int sampleSize = SAMPLE_TIME_SIZE + SAMPLE_VALUE_SIZE*currChannels.length;
+
+                channels = currChannels;
+                schemaId++;
+                samplesPerDatagram = Math.max(1, Math.min(batchSize, (MAX_PAYLOAD_SIZE - DATA_HEADER_SIZE)/sampleSize));
+                buffer = ByteBuffer.allocate(DATA_HEADER_SIZE + samplesPerDatagram*sampleSize);
+                packet = new DatagramPacket(buffer.array(), buffer.capacity(), destination);
+                nextSchemaTime = currTime;
+            }
+
+            if (currTime - nextSchemaTime >= 0)
+            {
+                sendSchema(socket, sessionId, schemaId, channels);
+                nextSchemaTime = currTime + SCHEMA_INTERVAL_NANOS;
+            }
+
+            if (numSamples == 0)
+            {
+                buffer.position(DATA_HEADER_SIZE);
+            }
+            buffer.putDouble(currTime/1000000000.0);
+            for (TrcFlightRecorder.Channel channel: channels)
+            {
+                buffer.putFloat((float)channel.getValue());
+            }
+            numSamples++;
+
+            if (numSamples == samplesPerDatagram)
+            {
+                sendData(socket, buffer, packet, sessionId, schemaId, sequence++, numSamples, channels.length);
+                numSamples = 0;
+            }
+
+            //
+            // Pace by absolute deadlines. If we fell behind, start over from now instead of bursting.
+            //
+            nextSampleTime += sampleIntervalNanos;
+            if (nextSampleTime - TrcUtil.getCurrentTimeNanos() < 0)
+            {
+                nextSampleTime = TrcUtil.getCurrentTimeNanos();
+            }
+            else
+            {
+                TrcUtil.sleepUntil(nextSampleTime, 0);
+            }
+        }
+    }   //run
+
+    /**
+     * This method writes the common header of a datagram.
+     *
+     * @param buffer specifies the buffer to write to.
+     * @param type specifies the datagram type.
+     * @param sessionId specifies the session ID.
+     * @param schemaId specifies the schema ID.
+     */
+    private void putHeader(ByteBuffer buffer, int type, int sessionId, int schemaId)
+    {
+        buffer.put(MAGIC);
+        buffer.put((byte)VERSION);
+        buffer.put((byte)type);
+        buffer.putInt(sessionId);
+        buffer.putInt(schemaId);
+    }   //putHeader
+
+    /**
+     * This method fills in the header of the data datagram in the buffer and sends it.
+     *
+     * @param socket specifies the socket to send with.
+     * @param buffer specifies the buffer holding the samples.
+     * @param packet specifies the packet wrapping the buffer.
+     * @param sessionId specifies the session ID.
+     * @param schemaId specifies the schema ID.
+     * @param sequence specifies the sequence number of the datagram.
+     * @param numSamples specifies the number of samples in the buffer.
+     * @param numChannels specifies the number of channels per sample.
+     */
+    private void sendData(
+        DatagramSocket socket, ByteBuffer buffer, DatagramPacket packet, int sessionId, int schemaId, int sequence,
+        int numSamples, int numChannels)
+    {
+        int length = buffer.position();
+
+        buffer.position(0);
+        putHeader(buffer, TYPE_DATA, sessionId, schemaId);
+        buffer.putInt(sequence);
+        buffer.putShort((short)numSamples);
+        buffer.putShort((short)numChannels);
+        packet.setLength(length);
+        send(socket, packet);
+    }   //sendData
+
+    /**
+     * This method sends a schema datagram. It is not time critical so it is built with a data stream.
+     *
+     * @param socket specifies the socket to send with.
+     * @param sessionId specifies the session ID.
+     * @param schemaId specifies the schema ID.
+     * @param channels specifies the channels of the schema.
+     */
+    private void sendSchema(DatagramSocket socket, int sessionId, int schemaId, TrcFlightRecorder.Channel[] channels)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        try
+        {
+            putHeader(header, TYPE_SCHEMA, sessionId, schemaId);
+            out.write(header.array());
+            out.writeShort(channels.length);
+            for (TrcFlightRecorder.Channel channel: channels)
+            {
+                out.writeUTF(channel.getName());
+            }
+            send(socket, new DatagramPacket(bytes.toByteArray(), bytes.size(), destination));
+        }
+        catch (IOException e)
+        {
+            sendErrorCount++;
+        }
+    }   //sendSchema
+
+    /**
+     * This method sends a datagram and keeps the statistics. Send errors are expected when the robot network is not
+     * up yet and are only counted.
+     *
+     * @param socket specifies the socket to send with.
+     * @param packet specifies the datagram to send.
+     */
+    private void send(DatagramSocket socket, DatagramPacket packet)
+    {
+        try
+        {
+            socket.send(packet);
+            datagramCount++;
+        }
+        catch (IOException e)
+        {
+            sendErrorCount++;
+        }
+    }   //send
+
+}   //class TrcTelemetryStreamer
@@ -319,6 +319,7 @@ public class TrcThread<T> implements Runnable
     {
         final String funcName = "run";
 
+        TrcDbgTrace.setThreadTag(instanceName);
         if (debugEnabled)
         {
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.CALLBK);
@@ -24,9 +24,9 @@ package trclib;
 
 /**
  * This class implements a timer that will generate an event when the time has expired. This is useful for doing
- * delays in autonomous.
+ * delays in autonomous. Armed timers are kept by the global TrcTimerMgr which checks them once per loop pass.
  */
-public class TrcTimer implements TrcTaskMgr.Task
+public class TrcTimer
 {
     private static final String moduleName = "TrcTimer";
     private static final boolean debugEnabled = false;
@@ -36,8 +36,13 @@ public class TrcTimer implements TrcTaskMgr.Task
     private TrcDbgTrace dbgTrace = null;
 
     private final String instanceName;
-    private double expiredTime;
-    private boolean enabled;
+    //
+    // These are maintained by TrcTimerMgr while the timer is armed.
+    //
+    double expiredTime;
+    long armSequence;
+    int heapIndex;
+
     private boolean expired;
     private boolean canceled;
     private TrcEvent notifyEvent;
@@ -56,7 +61,8 @@ public class TrcTimer implements TrcTaskMgr.Task
 
         this.instanceName = instanceName;
         this.expiredTime = 0.0;
-        this.enabled = false;
+        this.armSequence = 0;
+        this.heapIndex = -1;
         this.expired = false;
         this.canceled = false;
         this.notifyEvent = null;
@@ -79,7 +85,7 @@ public class TrcTimer implements TrcTaskMgr.Task
      * @param time specifies the expire time in seconds relative to the current time.
      * @param event specifies the event to signal when time has expired.
      */
-    public void set(double time, TrcEvent event)
+    public synchronized void set(double time, TrcEvent event)
     {
         final String funcName = "set";
 
@@ -91,13 +97,12 @@ public class TrcTimer implements TrcTaskMgr.Task
 
         expired = false;
         canceled = false;
-        expiredTime = TrcUtil.getCurrentTime() + time;
         if (event != null)
         {
             event.clear();
         }
         notifyEvent = event;
-        setTaskEnabled(true);
+        TrcTimerMgr.getInstance().add(this, TrcUtil.getCurrentTime() + time);
 
         if (debugEnabled)
         {
@@ -110,7 +115,7 @@ public class TrcTimer implements TrcTaskMgr.Task
      *
      * @return true if the timer has expired, false otherwise.
      */
-    public boolean isExpired()
+    public synchronized boolean isExpired()
     {
         final String funcName = "isExpired";
 
@@ -128,7 +133,7 @@ public class TrcTimer implements TrcTaskMgr.Task
      *
      * @return true if the timer was canceled, false otherwise.
      */
-    public boolean isCanceled()
+    public synchronized boolean isCanceled()
     {
         final String funcName = "isCanceled";
 
@@ -144,7 +149,7 @@ public class TrcTimer implements TrcTaskMgr.Task
     /**
      * This method cancels the timer if it's set but has not expired. If the timer is canceled, the event is signaled.
      */
-    public void cancel()
+    public synchronized void cancel()
     {
         final String funcName = "cancel";
 
@@ -153,13 +158,16 @@ public class TrcTimer implements TrcTaskMgr.Task
             dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API);
         }
 
-        if (enabled)
+        if (TrcTimerMgr.getInstance().remove(this))
         {
-            setTaskEnabled(false);
             expiredTime = 0.0;
             expired = false;
-            notifyEvent.cancel();
-            notifyEvent = null;
+            canceled = true;
+            if (notifyEvent != null)
+            {
+                notifyEvent.cancel();
+                notifyEvent = null;
+            }
         }
 
         if (debugEnabled)
@@ -169,79 +177,17 @@ public class TrcTimer implements TrcTaskMgr.Task
     }   //cancel
 
     /**
-     * This private method enables/disables the task that checks for timer expiration.
-     *
-     * @param enabled specifies if the timer task is enabled.
-     */
-    private void setTaskEnabled(boolean enabled)
-    {
-        final String funcName = "setTaskEnabled";
-
-        if (debugEnabled)
-        {
-            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.FUNC, "enabled=%s", Boolean.toString(enabled));
-        }
-
-        if (enabled)
-        {
-            TrcTaskMgr.getInstance().registerTask(instanceName, this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK);
-        }
-        else
-        {
-            TrcTaskMgr.getInstance().unregisterTask(this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK);
-        }
-        this.enabled = enabled;
-
-        if (debugEnabled)
-        {
-            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.FUNC);
-        }
-    }   //setTaskEnabled
-
-    //
-    // Implements TrcTaskMgr.Task
-    //
-
-    @Override
-    public void startTask(TrcRobot.RunMode runMode)
-    {
-    }   //startTask
-
-    @Override
-    public void stopTask(TrcRobot.RunMode runMode)
-    {
-    }   //stopTask
-
-    @Override
-    public void prePeriodicTask(TrcRobot.RunMode runMode)
-    {
-    }   //prePeriodicTask
-
-    @Override
-    public void postPeriodicTask(TrcRobot.RunMode runMode)
-    {
-    }   //postPeriodicTask
-
-    /**
-     * This method runs periodically at the fastest rate and checks if the timer has expired. After the timer expired,
-     * the task is disabled and if there is an event object, it will be signaled.
-     *
-     * @param runMode specifies the current robot run mode.
+     * This method is called by the timer manager when the timer has expired. It signals the event if there is one.
      */
-    @Override
-    public void preContinuousTask(TrcRobot.RunMode runMode)
+    synchronized void setExpired()
     {
-        final String funcName = "preContinuousTask";
-
-        if (debugEnabled)
-        {
-            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.TASK, "mode=%s", runMode.toString());
-        }
+        final String funcName = "setExpired";
 
-        if (enabled && !expired && TrcUtil.getCurrentTime() >= expiredTime)
+        //
+        // If the timer was re-armed after the timer manager took it off the heap, it hasn't really expired.
+        //
+        if (heapIndex == -1)
         {
-            setTaskEnabled(false);
-
             if (debugEnabled)
             {
                 dbgTrace.traceInfo(funcName, "Time expired, notifying %s.",
@@ -256,16 +202,6 @@ public class TrcTimer implements TrcTaskMgr.Task
             expiredTime = 0.0;
             expired = true;
         }
-
-        if (debugEnabled)
-        {
-            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.TASK);
-        }
-    }   //preContinuousTask
-
-    @Override
-    public void postContinuousTask(TrcRobot.RunMode runMode)
-    {
-    }   //postContinuousTask
+    }   //setExpired
 
 }   //class TrcTimer
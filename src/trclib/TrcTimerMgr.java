@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.util.Arrays;
+
+/**
+ * This class implements the timer manager. It keeps all armed TrcTimer objects in a binary min-heap ordered by
+ * expiration time and checks the heap once per robot loop pass instead of having every timer register itself as
+ * a task and poll the clock. Expired timers are fired in expiration order. Arming and canceling a timer are
+ * O(log n). Typically, there is only one global instance of the timer manager created by the robot base.
+ */
+public class TrcTimerMgr implements TrcTaskMgr.Task
+{
+    private static final String moduleName = "TrcTimerMgr";
+    private static final boolean debugEnabled = false;
+    private static final boolean tracingEnabled = false;
+    private static final TrcDbgTrace.TraceLevel traceLevel = TrcDbgTrace.TraceLevel.API;
+    private static final TrcDbgTrace.MsgLevel msgLevel = TrcDbgTrace.MsgLevel.INFO;
+    private TrcDbgTrace dbgTrace = null;
+
+    private static final int INITIAL_HEAP_CAPACITY = 32;
+
+    private static TrcTimerMgr instance = null;
+    private TrcTimer[] heap = new TrcTimer[INITIAL_HEAP_CAPACITY];
+    private int heapSize = 0;
+    private long armSequence = 0;
+
+    /**
+     * Constructor: Creates an instance of the timer manager and registers it with the task manager. The task
+     * manager must be created before the timer manager.
+     */
+    public TrcTimerMgr()
+    {
+        if (debugEnabled)
+        {
+            dbgTrace = new TrcDbgTrace(moduleName, tracingEnabled, traceLevel, msgLevel);
+        }
+
+        TrcTaskMgr.getInstance().registerTask(
+            moduleName, this, TrcTaskMgr.TaskType.PRECONTINUOUS_TASK, TrcTaskMgr.TaskPriority.HIGH);
+        instance = this;
+    }   //TrcTimerMgr
+
+    /**
+     * This method returns the global instance of TrcTimerMgr.
+     *
+     * @return global instance of TrcTimerMgr.
+     */
+    public static TrcTimerMgr getInstance()
+    {
+        return instance;
+    }   //getInstance
+
+    /**
+     * This method returns the number of armed timers.
+     *
+     * @return number of armed timers.
+     */
+    public synchronized int getNumArmedTimers()
+    {
+        return heapSize;
+    }   //getNumArmedTimers
+
+    /**
+     * This method arms the given timer. If the timer is already armed, it is re-armed with the new expiration time.
+     *
+     * @param timer specifies the timer to be armed.
+     * @param expiredTime specifies the absolute expiration time in seconds (see TrcUtil.getCurrentTime).
+     */
+    public synchronized void add(TrcTimer timer, double expiredTime)
+    {
+        final String funcName = "add";
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API,
+                                "timer=%s,expiredTime=%.3f", timer.toString(), expiredTime);
+        }
+
+        if (timer.heapIndex != -1)
+        {
+            removeAt(timer.heapIndex);
+        }
+
+        if (heapSize == heap.length)
+        {
+            heap = Arrays.copyOf(heap, heap.length*2);
+        }
+
+        timer.expiredTime = expiredTime;
+        timer.armSequence = armSequence++;
+        heap[heapSize] = timer;
+        timer.heapIndex = heapSize;
+        heapSize++;
+        siftUp(timer.heapIndex);
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API);
+        }
+    }   //add
+
+    /**
+     * This method disarms the given timer.
+     *
+     * @param timer specifies the timer to be disarmed.
+     * @return true if the timer was armed, false otherwise.
+     */
+    public synchronized boolean remove(TrcTimer timer)
+    {
+        final String funcName = "remove";
+        boolean armed = timer.heapIndex != -1;
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.API, "timer=%s", timer.toString());
+        }
+
+        if (armed)
+        {
+            removeAt(timer.heapIndex);
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.API, "=%s", Boolean.toString(armed));
+        }
+
+        return armed;
+    }   //remove
+
+    /**
+     * This method removes the next timer from the heap if it has expired.
+     *
+     * @param currTime specifies the current time in seconds.
+     * @return the expired timer, null if no timer has expired.
+     */
+    private synchronized TrcTimer removeExpired(double currTime)
+    {
+        TrcTimer timer = null;
+
+        if (heapSize > 0 && heap[0].expiredTime <= currTime)
+        {
+            timer = heap[0];
+            removeAt(0);
+        }
+
+        return timer;
+    }   //removeExpired
+
+    /**
+     * This method removes the timer at the given heap index and restores the heap order.
+     *
+     * @param index specifies the heap index of the timer to be removed.
+     */
+    private void removeAt(int index)
+    {
+        TrcTimer timer = heap[index];
+
+        heapSize--;
+        if (index != heapSize)
+        {
+            heap[index] = heap[heapSize];
+            heap[index].heapIndex = index;
+            heap[heapSize] = null;
+            //
+            // The moved timer may need to go either up or down.
+            //
+            if (!siftUp(index))
+            {
+                siftDown(index);
+            }
+        }
+        else
+        {
+            heap[heapSize] = null;
+        }
+        timer.heapIndex = -1;
+    }   //removeAt
+
+    /**
+     * This method moves the timer at the given heap index up until its parent expires no later than it does.
+     *
+     * @param index specifies the heap index.
+     * @return true if the timer was moved, false otherwise.
+     */
+    private boolean siftUp(int index)
+    {
+        int startIndex = index;
+
+        while (index > 0)
+        {
+            int parent = (index - 1)/2;
+            if (!expiresBefore(heap[index], heap[parent]))
+            {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+
+        return index != startIndex;
+    }   //siftUp
+
+    /**
+     * This method moves the timer at the given heap index down until its children expire no earlier than it does.
+     *
+     * @param index specifies the heap index.
+     */
+    private void siftDown(int index)
+    {
+        while (true)
+        {
+            int left = 2*index + 1;
+            int right = left + 1;
+            int smallest = index;
+
+            if (left < heapSize && expiresBefore(heap[left], heap[smallest]))
+            {
+                smallest = left;
+            }
+
+            if (right < heapSize && expiresBefore(heap[right], heap[smallest]))
+            {
+                smallest = right;
+            }
+
+            if (smallest == index)
+            {
+                break;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }   //siftDown
+
+    /**
+     * This method determines the heap order of two timers. Timers with the same expiration time are ordered by
+     * the time they were armed.
+     *
+     * @param timer1 specifies the first timer.
+     * @param timer2 specifies the second timer.
+     * @return true if timer1 should fire before timer2, false otherwise.
+     */
+    private boolean expiresBefore(TrcTimer timer1, TrcTimer timer2)
+    {
+        return timer1.expiredTime < timer2.expiredTime ||
+               timer1.expiredTime == timer2.expiredTime && timer1.armSequence < timer2.armSequence;
+    }   //expiresBefore
+
+    /**
+     * This method swaps two entries of the heap.
+     *
+     * @param index1 specifies the heap index of the first entry.
+     * @param index2 specifies the heap index of the second entry.
+     */
+    private void swap(int index1, int index2)
+    {
+        TrcTimer timer = heap[index1];
+
+        heap[index1] = heap[index2];
+        heap[index1].heapIndex = index1;
+        heap[index2] = timer;
+        timer.heapIndex = index2;
+    }   //swap
+
+    //
+    // Implements TrcTaskMgr.Task
+    //
+
+    @Override
+    public void startTask(TrcRobot.RunMode runMode)
+    {
+    }   //startTask
+
+    @Override
+    public void stopTask(TrcRobot.RunMode runMode)
+    {
+    }   //stopTask
+
+    @Override
+    public void prePeriodicTask(TrcRobot.RunMode runMode)
+    {
+    }   //prePeriodicTask
+
+    @Override
+    public void postPeriodicTask(TrcRobot.RunMode runMode)
+    {
+    }   //postPeriodicTask
+
+    /**
+     * This method runs periodically at the fastest rate and fires all the timers that have expired in the order of
+     * their expiration time.
+     *
+     * @param runMode specifies the current robot run mode.
+     */
+    @Override
+    public void preContinuousTask(TrcRobot.RunMode runMode)
+    {
+        final String funcName = "preContinuousTask";
+        double currTime = TrcUtil.getCurrentTime();
+        TrcTimer timer;
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceEnter(funcName, TrcDbgTrace.TraceLevel.TASK, "mode=%s", runMode.toString());
+        }
+
+        //
+        // The timer is removed from the heap before it fires so that the expiration callback can re-arm it.
+        //
+        while ((timer = removeExpired(currTime)) != null)
+        {
+            if (debugEnabled)
+            {
+                dbgTrace.traceInfo(funcName, "Timer %s expired.", timer.toString());
+            }
+            timer.setExpired();
+        }
+
+        if (debugEnabled)
+        {
+            dbgTrace.traceExit(funcName, TrcDbgTrace.TraceLevel.TASK);
+        }
+    }   //preContinuousTask
+
+    @Override
+    public void postContinuousTask(TrcRobot.RunMode runMode)
+    {
+    }   //postContinuousTask
+
+}   //class TrcTimerMgr
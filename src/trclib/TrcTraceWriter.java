@@ -0,0 +1,734 @@
+/*
+ * Copyright (c) 2017 Titan Robotics Club (http://www.titanrobotics.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package trclib;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import hallib.HalDbgLog;
+
+/**
+ * This class implements a background writer for TrcDbgTrace. Trace calls copy their record into a preallocated ring
+ * buffer and return without formatting or doing any I/O. A dedicated thread drains the ring buffer, formats the
+ * records, prints them to the console and the trace logs, and flushes the trace logs in batches. The ring buffer is
+ * lock-free and can be written by any number of threads.
+ *
+ * Since the message arguments are formatted later on the writer thread, they should be immutable values such as
+ * numbers and strings. A mutable object passed as an argument is formatted with whatever state it has by then.
+ * Typed records carry a registered format ID and numeric fields instead, which are copied into the preallocated
+ * record so that queuing them allocates nothing.
+ */
+public class TrcTraceWriter implements Runnable
+{
+    private static final String moduleName = "TrcTraceWriter";
+
+    /**
+     * This specifies what a producer does when the ring buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Discard the oldest record in the ring buffer to make room for the new one. The producer never waits.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Wait for the writer thread to make room. No record is lost but the producer may be delayed.
+         */
+        BLOCK
+
+    }   //enum OverflowPolicy
+
+    /**
+     * This specifies the maximum number of numeric fields of a typed record.
+     */
+    public static final int MAX_RECORD_FIELDS = 16;
+
+    /**
+     * This class implements a trace record. The records are preallocated in the ring buffer and reused. A record is
+     * a message with a message level, a typed record with a format ID and numeric fields, or a method trace (e.g.
+     * from traceEnter/traceExit).
+     */
+    private static class Record
+    {
+        private TrcDbgTrace.MsgLevel level;
+        private String instanceName;
+        private String funcName;
+        private String format;
+        private Object[] args;
+        private int formatId = -1;
+        private final double[] fields = new double[MAX_RECORD_FIELDS];
+        private int numFields;
+        private int indentLevel;
+        private boolean enter;
+        private boolean newline;
+        private PrintStream traceLog;
+        private TrcBinaryTraceLog binaryLog;
+        private long timestamp;
+
+        /**
+         * This method copies the content of another record.
+         *
+         * @param other specifies the record to copy from.
+         */
+        public void copy(Record other)
+        {
+            level = other.level;
+            instanceName = other.instanceName;
+            funcName = other.funcName;
+            format = other.format;
+            args = other.args;
+            formatId = other.formatId;
+            numFields = other.numFields;
+            System.arraycopy(other.fields, 0, fields, 0, numFields);
+            indentLevel = other.indentLevel;
+            enter = other.enter;
+            newline = other.newline;
+            traceLog = other.traceLog;
+            binaryLog = other.binaryLog;
+            timestamp = other.timestamp;
+        }   //copy
+
+        /**
+         * This method clears the references held by the record.
+         */
+        public void clear()
+        {
+            level = null;
+            instanceName = null;
+            funcName = null;
+            format = null;
+            args = null;
+            formatId = -1;
+            numFields = 0;
+            traceLog = null;
+            binaryLog = null;
+        }   //clear
+
+    }   //class Record
+
+    private static final int MAX_FLUSH_STREAMS = 4;
+    private static final int FLUSH_BATCH_SIZE = 256;
+    private static final long IDLE_WAIT_NANOS = 50000000L;    // 50 msec
+    private static final long BLOCK_WAIT_NANOS = 100000L;     // 100 usec
+
+    private final String instanceName;
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final int mask;
+    private final Record[] records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePos = new AtomicLong(0);
+    private final AtomicLong dequeuePos = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong blockedCount = new AtomicLong(0);
+    private volatile long writtenCount = 0;
+    //
+    // All records queued before this position have been written and flushed, or dropped. Only the writer thread
+    // advances it.
+    //
+    private volatile long writtenPos = 0;
+    private final Record scratch = new Record();
+    private final Flushable[] dirtyLogs = new Flushable[MAX_FLUSH_STREAMS];
+    private int numDirtyLogs = 0;
+    private final Thread writerThread;
+    private volatile boolean running = false;
+    private volatile boolean writerIdle = false;
+
+    /**
+     * Constructor: Create an instance of the object.
+     *
+     * @param instanceName specifies the instance name.
+     * @param capacity specifies the number of records of the ring buffer, rounded up to a power of 2.
+     * @param overflowPolicy specifies what to do when the ring buffer is full.
+     */
+    public TrcTraceWriter(final String instanceName, int capacity, OverflowPolicy overflowPolicy)
+    {
+        if (capacity < 2)
+        {
+            throw new IllegalArgumentException("Capacity must be at least 2.");
+        }
+
+        this.instanceName = instanceName;
+        this.overflowPolicy = overflowPolicy;
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.records = new Record[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++)
+        {
+            records[i] = new Record();
+            sequences.set(i, i);
+        }
+        writerThread = new Thread(this, instanceName);
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+    }   //TrcTraceWriter
+
+    /**
+     * This method returns the instance name.
+     *
+     * @return instance name.
+     */
+    public String toString()
+    {
+        return instanceName;
+    }   //toString
+
+    /**
+     * This method starts the writer thread.
+     */
+    public synchronized void start()
+    {
+        if (!running)
+        {
+            running = true;
+            writerThread.start();
+        }
+    }   //start
+
+    /**
+     * This method stops the writer thread after it has written all the records in the ring buffer.
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            running = false;
+        }
+        LockSupport.unpark(writerThread);
+
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }   //stop
+
+    /**
+     * This method checks if the writer thread is running.
+     *
+     * @return true if the writer is running, false otherwise.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }   //isRunning
+
+    /**
+     * This method returns the capacity of the ring buffer.
+     *
+     * @return number of records the ring buffer can hold.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }   //getCapacity
+
+    /**
+     * This method returns the overflow policy of the ring buffer.
+     *
+     * @return overflow policy.
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }   //getOverflowPolicy
+
+    /**
+     * This method returns the number of records dropped because the ring buffer was full.
+     *
+     * @return number of dropped records.
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }   //getDroppedCount
+
+    /**
+     * This method returns the number of times a producer had to wait because the ring buffer was full.
+     *
+     * @return number of blocked puts.
+     */
+    public long getBlockedCount()
+    {
+        return blockedCount.get();
+    }   //getBlockedCount
+
+    /**
+     * This method returns the number of records written.
+     *
+     * @return number of written records.
+     */
+    public long getWrittenCount()
+    {
+        return writtenCount;
+    }   //getWrittenCount
+
+    /**
+     * This method returns the number of records waiting in the ring buffer.
+     *
+     * @return number of pending records.
+     */
+    public int getPendingCount()
+    {
+        return (int)Math.max(0, enqueuePos.get() - dequeuePos.get());
+    }   //getPendingCount
+
+    /**
+     * This method queues a message record. The message is formatted and prefixed on the writer thread.
+     *
+     * @param level specifies the message level.
+     * @param instanceName specifies the instance name of the tracer.
+     * @param funcName specifies the calling method name.
+     * @param traceLog specifies the trace log to write the message to, null if none.
+     * @param binaryLog specifies the binary trace log to write the message to, null if none.
+     * @param format specifies the format string of the message.
+     * @param args specifies the message arguments.
+     */
+    public void putMessage(
+        TrcDbgTrace.MsgLevel level, final String instanceName, final String funcName, PrintStream traceLog,
+        TrcBinaryTraceLog binaryLog, final String format, Object... args)
+    {
+        long pos = claim();
+        Record record = records[(int)(pos & mask)];
+
+        record.level = level;
+        record.instanceName = instanceName;
+        record.funcName = funcName;
+        record.format = format;
+        record.args = args;
+        record.traceLog = traceLog;
+        record.binaryLog = binaryLog;
+        record.timestamp = System.nanoTime();
+        publish(pos);
+    }   //putMessage
+
+    /**
+     * This method queues a message that is already formatted.
+     *
+     * @param level specifies the message level.
+     * @param instanceName specifies the instance name of the tracer.
+     * @param funcName specifies the calling method name.
+     * @param traceLog specifies the trace log to write the message to, null if none.
+     * @param binaryLog specifies the binary trace log to write the message to, null if none.
+     * @param text specifies the message text.
+     */
+    public void putText(
+        TrcDbgTrace.MsgLevel level, final String instanceName, final String funcName, PrintStream traceLog,
+        TrcBinaryTraceLog binaryLog, final String text)
+    {
+        //
+        // A message without arguments array is taken literally, see write.
+        //
+        putMessage(level, instanceName, funcName, traceLog, binaryLog, text, (Object[])null);
+    }   //putText
+
+    /**
+     * This method queues a typed record. The numeric fields are copied into the preallocated record so this does
+     * not allocate any memory. The record is formatted with its registered format on the writer thread.
+     *
+     * @param level specifies the message level.
+     * @param instanceName specifies the instance name of the tracer.
+     * @param funcName specifies the calling method name.
+     * @param traceLog specifies the trace log to write the message to, null if none.
+     * @param binaryLog specifies the binary trace log to write the message to, null if none.
+     * @param formatId specifies the registered format ID.
+     * @param fields specifies the array containing the numeric fields.
+     * @param numFields specifies the number of fields in the array.
+     */
+    public void putRecord(
+        TrcDbgTrace.MsgLevel level, final String instanceName, final String funcName, PrintStream traceLog,
+        TrcBinaryTraceLog binaryLog, int formatId, double[] fields, int numFields)
+    {
+        long pos = claim();
+        Record record = records[(int)(pos & mask)];
+
+        record.level = level;
+        record.instanceName = instanceName;
+        record.funcName = funcName;
+        record.formatId = formatId;
+        record.numFields = Math.min(numFields, MAX_RECORD_FIELDS);
+        System.arraycopy(fields, 0, record.fields, 0, record.numFields);
+        record.traceLog = traceLog;
+        record.binaryLog = binaryLog;
+        record.timestamp = System.nanoTime();
+        publish(pos);
+    }   //putRecord
+
+    /**
+     * This method queues a typed record with up to four numeric fields. It does not allocate any memory.
+     *
+     * @param level specifies the message level.
+     * @param instanceName specifies the instance name of the tracer.
+     * @param funcName specifies the calling method name.
+     * @param traceLog specifies the trace log to write the message to, null if none.
+     * @param binaryLog specifies the binary trace log to write the message to, null if none.
+     * @param formatId specifies the registered format ID.
+     * @param numFields specifies the number of fields (0 to 4).
+     * @param field0 specifies the first field.
+     * @param field1 specifies the second field.
+     * @param field2 specifies the third field.
+     * @param field3 specifies the fourth field.
+     */
+    public void putRecord(
+        TrcDbgTrace.MsgLevel level, final String instanceName, final String funcName, PrintStream traceLog,
+        TrcBinaryTraceLog binaryLog, int formatId, int numFields, double field0, double field1, double field2,
+        double field3)
+    {
+        long pos = claim();
+        Record record = records[(int)(pos & mask)];
+
+        record.level = level;
+        record.instanceName = instanceName;
+        record.funcName = funcName;
+        record.formatId = formatId;
+        record.numFields = numFields;
+        record.fields[0] = field0;
+        record.fields[1] = field1;
+        record.fields[2] = field2;
+        record.fields[3] = field3;
+        record.traceLog = traceLog;
+        record.binaryLog = binaryLog;
+        record.timestamp = System.nanoTime();
+        publish(pos);
+    }   //putRecord
+
+    /**
+     * This method queues a method trace record. The trace prefix is built from the indent level, instance name and
+     * method name on the writer thread. The text is printed to the console only.
+     *
+     * @param indentLevel specifies the indent level of the method trace.
+     * @param instanceName specifies the instance name of the tracer, null if the text has no prefix.
+     * @param funcName specifies the calling method name, null if the text has no prefix.
+     * @param enter specifies true if it is a traceEnter call, false if it is a traceExit call.
+     * @param newline specifies true if there is no message and the trace ends with a newline.
+     * @param format specifies the format string of the message, null if there is no message.
+     * @param args specifies the message arguments.
+     */
+    public void putTrace(
+        int indentLevel, final String instanceName, final String funcName, boolean enter, boolean newline,
+        final String format, Object[] args)
+    {
+        long pos = claim();
+        Record record = records[(int)(pos & mask)];
+
+        record.indentLevel = indentLevel;
+        record.instanceName = instanceName;
+        record.funcName = funcName;
+        record.enter = enter;
+        record.newline = newline;
+        record.format = format;
+        record.args = args;
+        publish(pos);
+    }   //putTrace
+
+    /**
+     * This method waits until all the records queued before this call have been written and flushed. It is
+     * typically called before a trace log is closed.
+     */
+    public void flush()
+    {
+        long target = enqueuePos.get();
+
+        while (running && writtenPos < target)
+        {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+    }   //flush
+
+    /**
+     * This method claims a slot in the ring buffer. If the ring buffer is full, it either drops the oldest record or
+     * waits according to the overflow policy. The caller fills the slot and then publishes it.
+     *
+     * @return position of the claimed slot.
+     */
+    private long claim()
+    {
+        long pos = enqueuePos.get();
+        boolean blocked = false;
+
+        while (true)
+        {
+            long diff = sequences.get((int)(pos & mask)) - pos;
+
+            if (diff == 0)
+            {
+                if (enqueuePos.compareAndSet(pos, pos + 1))
+                {
+                    break;
+                }
+            }
+            else if (diff < 0)
+            {
+                //
+                // The ring buffer is full.
+                //
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST || !running ||
+                    Thread.currentThread() == writerThread)
+                {
+                    if (take(null) >= 0)
+                    {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                else
+                {
+                    if (!blocked)
+                    {
+                        blocked = true;
+                        blockedCount.incrementAndGet();
+                    }
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+                }
+            }
+            pos = enqueuePos.get();
+        }
+
+        return pos;
+    }   //claim
+
+    /**
+     * This method publishes a filled slot to the writer thread.
+     *
+     * @param pos specifies the position of the slot.
+     */
+    private void publish(long pos)
+    {
+        sequences.lazySet((int)(pos & mask), pos + 1);
+
+        if (writerIdle)
+        {
+            LockSupport.unpark(writerThread);
+        }
+    }   //publish
+
+    /**
+     * This method removes the oldest record from the ring buffer.
+     *
+     * @param record specifies the record to copy the removed record to, null to discard it.
+     * @return position of the removed record, -1 if the ring buffer is empty.
+     */
+    private long take(Record record)
+    {
+        long pos = dequeuePos.get();
+        int index;
+
+        while (true)
+        {
+            index = (int)(pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+
+            if (diff == 0)
+            {
+                if (dequeuePos.compareAndSet(pos, pos + 1))
+                {
+                    break;
+                }
+            }
+            else if (diff < 0)
+            {
+                return -1;
+            }
+            pos = dequeuePos.get();
+        }
+
+        Record slot = records[index];
+        if (record != null)
+        {
+            record.copy(slot);
+        }
+        slot.clear();
+        sequences.lazySet(index, pos + capacity);
+
+        return pos;
+    }   //take
+
+    /**
+     * This method runs the writer thread. It drains the ring buffer, writes the records and flushes the trace logs
+     * when the ring buffer is empty or after a batch of records. It waits for new records when there is nothing to
+     * do.
+     */
+    @Override
+    public void run()
+    {
+        int batchCount = 0;
+
+        while (true)
+        {
+            long pos = take(scratch);
+
+            if (pos >= 0)
+            {
+                writerIdle = false;
+                write(scratch);
+                scratch.clear();
+                writtenCount = writtenCount + 1;
+                if (++batchCount >= FLUSH_BATCH_SIZE)
+                {
+                    flushLogs();
+                    batchCount = 0;
+                    writtenPos = pos + 1;
+                }
+            }
+            else
+            {
+                flushLogs();
+                batchCount = 0;
+                //
+                // The ring buffer was empty, so every record before the dequeue position has either been written by
+                // us and just flushed, or dropped by a producer.
+                //
+                writtenPos = dequeuePos.get();
+                if (!running)
+                {
+                    writerIdle = true;
+                    break;
+                }
+                //
+                // Announce that we are idle before checking the ring buffer again so a producer that publishes a
+                // record after our check is sure to wake us up.
+                //
+                writerIdle = true;
+                if (getPendingCount() == 0)
+                {
+                    LockSupport.parkNanos(IDLE_WAIT_NANOS);
+                }
+            }
+        }
+    }   //run
+
+    /**
+     * This method formats and writes a record to the console and its trace log.
+     *
+     * @param record specifies the record to write.
+     */
+    private void write(Record record)
+    {
+        String text;
+
+        try
+        {
+            if (record.formatId >= 0)
+            {
+                text = TrcDbgTrace.formatRecord(record.formatId, record.fields, record.numFields);
+            }
+            else
+            {
+                text = record.format == null? "":
+                       record.args == null? record.format: String.format(record.format, record.args);
+            }
+        }
+        catch (IllegalFormatException e)
+        {
+            String format = record.formatId >= 0? TrcDbgTrace.getRecordFormat(record.formatId): record.format;
+            text = "<" + moduleName + ": bad format \"" + format + "\": " + e.getMessage() + ">";
+        }
+
+        if (record.level != null)
+        {
+            String msg = TrcDbgTrace.msgPrefix(record.instanceName, record.funcName, record.level) + text;
+
+            HalDbgLog.msg(record.level, msg + "\n");
+            if (record.traceLog != null)
+            {
+                record.traceLog.print(msg + "\r\n");
+                markDirty(record.traceLog);
+            }
+
+            if (record.binaryLog != null)
+            {
+                if (record.formatId >= 0)
+                {
+                    record.binaryLog.writeRecord(
+                        record.timestamp, record.instanceName, record.formatId, record.fields, record.numFields);
+                }
+                else
+                {
+                    record.binaryLog.writeMessage(
+                        record.timestamp, record.level, record.instanceName, record.funcName, text);
+                }
+                markDirty(record.binaryLog);
+            }
+        }
+        else
+        {
+            HalDbgLog.traceMsg(
+                TrcDbgTrace.traceText(
+                    record.indentLevel, record.instanceName, record.funcName, record.enter, record.newline, text));
+        }
+    }   //write
+
+    /**
+     * This method remembers a trace log that needs to be flushed.
+     *
+     * @param traceLog specifies the trace log written to.
+     */
+    private void markDirty(Flushable traceLog)
+    {
+        for (int i = 0; i < numDirtyLogs; i++)
+        {
+            if (dirtyLogs[i] == traceLog)
+            {
+                return;
+            }
+        }
+
+        if (numDirtyLogs == dirtyLogs.length)
+        {
+            flushLogs();
+        }
+        dirtyLogs[numDirtyLogs++] = traceLog;
+    }   //markDirty
+
+    /**
+     * This method flushes all the trace logs written since the last flush.
+     */
+    private void flushLogs()
+    {
+        for (int i = 0; i < numDirtyLogs; i++)
+        {
+            try
+            {
+                dirtyLogs[i].flush();
+            }
+            catch (IOException e)
+            {
+                // The trace logs keep their own error state, nothing more to do here.
+            }
+            dirtyLogs[i] = null;
+        }
+        numDirtyLogs = 0;
+    }   //flushLogs
+
+}   //class TrcTraceWriter
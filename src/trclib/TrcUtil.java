@@ -22,6 +22,8 @@
 
 package trclib;
 
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * This class contains platform independent utility methods. All methods in this class are static. It is not
  * necessary to instantiate this class to call its methods.
@@ -82,6 +84,31 @@ public class TrcUtil
         }
     }   //sleep
 
+    /**
+     * This method puts the current thread to sleep until the given absolute deadline. It parks the thread for most
+     * of the wait and busy-waits the last spinNanos to compensate for the wake up latency of the OS scheduler. This
+     * allows the caller to keep an accurate loop rate without burning the CPU for the whole wait.
+     *
+     * @param deadlineNanos specifies the absolute wake up time in nano seconds (see getCurrentTimeNanos).
+     * @param spinNanos specifies the time in nano seconds before the deadline to stop parking and start spinning.
+     */
+    public static void sleepUntil(long deadlineNanos, long spinNanos)
+    {
+        long remainingNanos;
+
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > spinNanos)
+        {
+            LockSupport.parkNanos(remainingNanos - spinNanos);
+        }
+
+        while (deadlineNanos - System.nanoTime() > 0)
+        {
+            //
+            // Spin until the deadline.
+            //
+        }
+    }   //sleepUntil
+
     /**
      * This method clips the given value to the range limited by the given low and high limits.
      *